@@ -0,0 +1,584 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+
+public class Bench {
+    // -------------------------------------------------- 压测方法 --------------------------------------------------
+
+    /**
+     * 闭环压测 GET 请求，每个连接收到响应后立即发送下一个请求
+     *
+     * @param url 请求地址
+     * @param connections 并发连接数
+     * @param durationMillis 持续时间（毫秒）
+     * @return 压测结果
+     */
+    public static Result get(final String url, final int connections, final long durationMillis) { return run("GET", url, null, connections, 0, durationMillis, true); };
+
+
+    /**
+     * 开环压测 GET 请求，按固定到达速率发送请求，耗时从计划发送时间算起以修正协同遗漏
+     *
+     * @param url 请求地址
+     * @param connections 并发连接数
+     * @param rate 每秒请求数
+     * @param durationMillis 持续时间（毫秒）
+     * @return 压测结果
+     */
+    public static Result get(final String url, final int connections, final double rate, final long durationMillis) { return run("GET", url, null, connections, rate, durationMillis, true); };
+
+
+    /**
+     * 闭环压测 POST 请求
+     *
+     * @param url 请求地址
+     * @param payloadSize 请求体字节数
+     * @param connections 并发连接数
+     * @param durationMillis 持续时间（毫秒）
+     * @return 压测结果
+     */
+    public static Result post(final String url, final int payloadSize, final int connections, final long durationMillis) {
+        final byte[] body = new byte[payloadSize];
+        Arrays.fill(body, (byte) 'x');
+        return run("POST", url, body, connections, 0, durationMillis, true);
+    };
+
+
+    /**
+     * 通用压测方法
+     *
+     * @param method 请求方法
+     * @param url 请求地址，仅支持 http
+     * @param body 请求体，为 null 时不发送请求体
+     * @param connections 并发连接数
+     * @param rate 每秒请求数，小于等于 0 时为闭环压测
+     * @param durationMillis 持续时间（毫秒）
+     * @param keepAlive 是否复用连接
+     * @return 压测结果
+     */
+    public static Result run(final String method, final String url, final byte[] body, final int connections, final double rate, final long durationMillis, final boolean keepAlive) {
+        if (connections < 1 || durationMillis <= 0) { throw new IllegalArgumentException("connections and durationMillis must be positive"); };
+        final URI uri = URI.create(url);
+        if (!"http".equals(uri.getScheme())) { throw new IllegalArgumentException("Only http urls are supported: " + url); };
+
+        final byte[] request = encode(method, uri, body, keepAlive);
+        final InetSocketAddress address = new InetSocketAddress(uri.getHost(), uri.getPort() < 0 ? 80 : uri.getPort());
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        final long interval = rate > 0 ? (long) (1e9 * connections / rate) : 0;
+
+        final List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            // 开环模式下各连接的发送时间错开，使整体到达间隔均匀
+            final Worker worker = new Worker(address, request, keepAlive, start + (interval * i) / connections, interval, end);
+            workers.add(worker);
+            worker.thread.start();
+        };
+
+        final Result result = new Result(method + " " + url, connections, rate);
+        for (Worker worker : workers) {
+            try { worker.thread.join(); }
+            catch (InterruptedException e) { Thread.currentThread().interrupt(); Log.warn("压测被中断"); };
+            result.merge(worker);
+        };
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    };
+
+
+
+
+
+    // -------------------------------------------------- 标准场景 --------------------------------------------------
+
+    /**
+     * 在本机启动一个 Net 实例并依次压测固定路由、RequestProcessor 路由与静态文件
+     *
+     * @param port 端口
+     * @param connections 并发连接数
+     * @param durationMillis 每个场景的持续时间（毫秒）
+     * @return 各场景的压测结果
+     */
+    public static List<Result> standard(final int port, final int connections, final long durationMillis) {
+        final Path directory;
+        try {
+            directory = Files.createTempDirectory("bench-web");
+            final byte[] asset = new byte[4096];
+            Arrays.fill(asset, (byte) 'a');
+            // 静态文件按完整请求路径在目录下查找
+            Files.createDirectories(directory.resolve("static"));
+            Files.write(directory.resolve("static").resolve("asset.txt"), asset);
+        } catch (IOException e) { throw new IllegalStateException("创建静态文件失败", e); }
+
+        // 不关闭 Nagle 算法时每个请求都会多出约 40 毫秒的延迟确认等待，测到的是 TCP 而不是 Net
+        Net.nodelay(true);
+        final Net net = new Net(port);
+        net.get(new String[][] { { "/fixed", "hello" } });
+        net.get("/processor", (exchange, requestContent) -> "echo " + requestContent);
+        net.post("/processor", (exchange, requestContent) -> "length " + requestContent.length());
+        net.web("/static", directory.toString());
+        net.start();
+
+        final String base = "http://127.0.0.1:" + port;
+        final List<Result> results = new ArrayList<>();
+        try {
+            // 预热后再正式测量
+            get(base + "/fixed", connections, Math.min(durationMillis, 2000));
+            results.add(get(base + "/fixed", connections, durationMillis));
+            results.add(get(base + "/processor?name=bench", connections, durationMillis));
+            results.add(post(base + "/processor", 1024, connections, durationMillis));
+            results.add(get(base + "/static/asset.txt", connections, durationMillis));
+            final double peak = results.get(0).throughput();
+            results.add(get(base + "/fixed", connections, peak * 0.5, durationMillis));
+        } finally {
+            net.stop(0);
+            File.rmdir(directory.toString());
+        };
+        return results;
+    };
+
+
+    /**
+     * 在本机对比以字符串经 HTTP 调用与二进制 RPC 调用同一个加法服务的吞吐、耗时与每次调用传输的字节数
+     * HTTP 端口为 port，RPC 端口为 port + 1；RPC 的所有调用线程共用一条多路复用连接
+     *
+     * @param port 端口
+     * @param callers 并发连接数（HTTP）或并发调用线程数（RPC）
+     * @param durationMillis 每个场景的持续时间（毫秒）
+     * @return HTTP 与 RPC 的压测结果
+     */
+    public static List<Result> rpc(final int port, final int callers, final long durationMillis) {
+        Net.nodelay(true);
+        final Net net = new Net(port);
+        net.post("/add", (exchange, requestContent) -> {
+            final int comma = requestContent.indexOf(',');
+            return Integer.toString(Integer.parseInt(requestContent.substring(0, comma)) + Integer.parseInt(requestContent.substring(comma + 1)));
+        });
+        net.rpc(port + 1).register(Calculator.class, (a, b) -> a + b);
+        net.start();
+
+        final String url = "http://127.0.0.1:" + port + "/add";
+        final byte[] body = "12345,67890".getBytes(StandardCharsets.UTF_8);
+        final List<Result> results = new ArrayList<>();
+        try (Rpc.Client client = Rpc.connect("127.0.0.1", port + 1)) {
+            final Calculator calculator = client.proxy(Calculator.class);
+            run("POST", url, body, callers, 0, Math.min(durationMillis, 2000), true);
+            final Result http = run("POST", url, body, callers, 0, durationMillis, true);
+            http.wire = exchangeBytes(URI.create(url), body);
+            results.add(http);
+
+            call(calculator, callers, Math.min(durationMillis, 2000), "RPC add");
+            final long sent = client.bytesSent(), received = client.bytesReceived();
+            final Result rpc = call(calculator, callers, durationMillis, "RPC add");
+            rpc.wire = rpc.requests == 0 ? 0 : (double) (client.bytesSent() - sent + client.bytesReceived() - received) / rpc.requests;
+            results.add(rpc);
+        } finally { net.stop(0); };
+        return results;
+    };
+
+
+    /**
+     * 命令行入口：java Bench [端口] [并发连接数] [每个场景的秒数]
+     *
+     * @param args 命令行参数
+     */
+    public static void main(final String[] args) {
+        final int port = args.length > 0 ? Integer.parseInt(args[0]) : 18080;
+        final int connections = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        final long seconds = args.length > 2 ? Long.parseLong(args[2]) : 5;
+        Log.level(Log.Level.WARN);
+        for (Result result : standard(port, connections, TimeUnit.SECONDS.toMillis(seconds))) { System.out.println(result); };
+        for (Result result : rpc(port + 1, connections, TimeUnit.SECONDS.toMillis(seconds))) { System.out.println(result); };
+    };
+
+
+
+
+
+    // -------------------------------------------------- 内部实现 --------------------------------------------------
+
+    // 预先编码请求字节，压测过程中不再分配
+    private static byte[] encode(final String method, final URI uri, final byte[] body, final boolean keepAlive) {
+        final String target = (uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath()) + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+        final StringBuilder sb = new StringBuilder(128);
+        sb.append(method).append(' ').append(target).append(" HTTP/1.1\r\n");
+        sb.append("Host: ").append(uri.getHost()).append(uri.getPort() < 0 ? "" : ":" + uri.getPort()).append("\r\n");
+        sb.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+        if (body != null) { sb.append("Content-Type: application/octet-stream\r\nContent-Length: ").append(body.length).append("\r\n"); };
+        sb.append("\r\n");
+        final byte[] head = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+        if (body == null) { return head; };
+        final byte[] request = Arrays.copyOf(head, head.length + body.length);
+        System.arraycopy(body, 0, request, head.length, body.length);
+        return request;
+    };
+
+
+
+    // 多个线程在同一个 RPC 客户端上闭环调用
+    private static Result call(final Calculator calculator, final int callers, final long durationMillis, final String name) {
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        final List<Caller> threads = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            final Caller caller = new Caller(calculator, end);
+            threads.add(caller);
+            caller.thread.start();
+        };
+        final Result result = new Result(name, callers, 0);
+        for (Caller caller : threads) {
+            try { caller.thread.join(); }
+            catch (InterruptedException e) { Thread.currentThread().interrupt(); Log.warn("压测被中断"); };
+            result.merge(caller.histogram, caller.requests, caller.errors);
+        };
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    };
+
+
+    // 发送一次不复用连接的请求，统计请求与响应在连接上传输的总字节数
+    private static long exchangeBytes(final URI uri, final byte[] body) {
+        final byte[] request = encode("POST", uri, body, false);
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(uri.getHost(), uri.getPort()), 5000);
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(request);
+            final InputStream in = socket.getInputStream();
+            final byte[] buffer = new byte[4096];
+            long total = request.length;
+            int n;
+            while ((n = in.read(buffer)) != -1) { total += n; };
+            return total;
+        } catch (IOException e) { Log.warn("统计请求字节数失败: {}", e.getMessage()); return 0; }
+    };
+
+
+
+    // RPC 压测使用的服务接口
+    interface Calculator { int add(int a, int b); };
+
+
+
+    // RPC 调用线程
+    private static class Caller implements Runnable {
+        private final Calculator calculator;
+        private final long end;
+        private final Thread thread;
+        private final Histogram histogram = new Histogram();
+        private long requests;
+        private long errors;
+
+        Caller(final Calculator calculator, final long end) {
+            this.calculator = calculator;
+            this.end = end;
+            this.thread = new Thread(this, "bench-caller");
+            this.thread.setDaemon(true);
+        };
+
+        @Override
+        public void run() {
+            int a = 0;
+            while (true) {
+                final long begin = System.nanoTime();
+                if (begin - end >= 0) { break; };
+                try { if (calculator.add(a, 1) != a + 1) { errors++; }; }
+                catch (RuntimeException e) { errors++; };
+                a++;
+                requests++;
+                histogram.record((System.nanoTime() - begin) / 1000);
+            }
+        };
+    };
+
+
+
+    // 单个连接的压测线程
+    private static class Worker implements Runnable {
+        private final InetSocketAddress address;
+        private final byte[] request;
+        private final boolean keepAlive;
+        private final long interval;
+        private final long end;
+        private final Thread thread;
+        private final Histogram histogram = new Histogram();
+        private long next;
+        private long requests;
+        private long errors;
+        private long bytes;
+        private final long[] status = new long[6];
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+
+        Worker(final InetSocketAddress address, final byte[] request, final boolean keepAlive, final long first, final long interval, final long end) {
+            this.address = address;
+            this.request = request;
+            this.keepAlive = keepAlive;
+            this.next = first;
+            this.interval = interval;
+            this.end = end;
+            this.thread = new Thread(this, "bench-worker");
+            this.thread.setDaemon(true);
+        };
+
+        @Override
+        public void run() {
+            final byte[] buffer = new byte[16 * 1024];
+            while (true) {
+                long intended = System.nanoTime();
+                if (interval > 0) {
+                    // 开环模式按计划时间发送，落后时立即发送但仍从计划时间开始计时
+                    intended = next;
+                    next += interval;
+                    long wait;
+                    while ((wait = intended - System.nanoTime()) > 0) { LockSupport.parkNanos(wait); };
+                };
+                if (intended - end >= 0) { break; };
+
+                try {
+                    if (socket == null) { connect(); };
+                    out.write(request);
+                    out.flush();
+                    final int code = readResponse(buffer);
+                    status[Math.min(5, Math.max(0, code / 100))]++;
+                    if (code >= 500) { errors++; };
+                    if (!keepAlive) { disconnect(); };
+                } catch (IOException e) {
+                    errors++;
+                    disconnect();
+                };
+                requests++;
+                histogram.record((System.nanoTime() - intended) / 1000);
+            }
+            disconnect();
+        };
+
+
+        private void connect() throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(address, 5000);
+            socket.setSoTimeout(30000);
+            in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+            out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+        };
+
+
+        private void disconnect() {
+            if (socket == null) { return; };
+            try { socket.close(); }
+            catch (IOException e) { Log.debug("关闭连接失败: {}", e.getMessage()); };
+            socket = null;
+        };
+
+
+        // 读取并丢弃一个响应，返回状态码
+        private int readResponse(final byte[] buffer) throws IOException {
+            final String statusLine = readLine();
+            if (statusLine == null || statusLine.length() < 12) { throw new IOException("Invalid status line: " + statusLine); };
+            final int code = Integer.parseInt(statusLine.substring(9, 12));
+            long length = -1;
+            boolean chunked = false;
+            boolean close = false;
+            String line;
+            while ((line = readLine()) != null && !line.isEmpty()) {
+                final int colon = line.indexOf(':');
+                if (colon < 0) { continue; };
+                final String name = line.substring(0, colon).trim();
+                final String value = line.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) { length = Long.parseLong(value); }
+                else if (name.equalsIgnoreCase("Transfer-Encoding") && value.equalsIgnoreCase("chunked")) { chunked = true; }
+                else if (name.equalsIgnoreCase("Connection") && value.equalsIgnoreCase("close")) { close = true; };
+            };
+
+            if (chunked) {
+                while (true) {
+                    final String size = readLine();
+                    if (size == null) { throw new IOException("Unexpected end of chunked body"); };
+                    final int semicolon = size.indexOf(';');
+                    final long chunk = Long.parseLong((semicolon < 0 ? size : size.substring(0, semicolon)).trim(), 16);
+                    if (chunk == 0) { while ((line = readLine()) != null && !line.isEmpty()) { }; break; };
+                    skip(chunk, buffer);
+                    readLine();
+                };
+            } else if (length >= 0) { skip(length, buffer); }
+            else if (code >= 200 && code != 204 && code != 304) {
+                int n;
+                while ((n = in.read(buffer)) != -1) { bytes += n; };
+                close = true;
+            };
+
+            if (close) { disconnect(); };
+            return code;
+        };
+
+
+        private void skip(long remaining, final byte[] buffer) throws IOException {
+            bytes += remaining;
+            while (remaining > 0) {
+                final int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n < 0) { throw new IOException("Unexpected end of body"); };
+                remaining -= n;
+            };
+        };
+
+
+        private String readLine() throws IOException {
+            final StringBuilder sb = new StringBuilder(64);
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b == '\n') { break; };
+                if (b != '\r') { sb.append((char) b); };
+            };
+            return b == -1 && sb.length() == 0 ? null : sb.toString();
+        };
+    };
+
+
+
+    // 对数线性直方图，单位为微秒，相对误差约 1.6%
+    private static class Histogram {
+        private static final int SUB = 64;
+        private final long[] counts = new long[2 * SUB + 48 * SUB];
+        private long max;
+        private long total;
+        private long sum;
+
+        void record(final long micros) {
+            final long value = Math.max(0, micros);
+            counts[index(value)]++;
+            total++;
+            sum += value;
+            if (value > max) { max = value; };
+        };
+
+        void merge(final Histogram other) {
+            for (int i = 0; i < counts.length; i++) { counts[i] += other.counts[i]; };
+            total += other.total;
+            sum += other.sum;
+            max = Math.max(max, other.max);
+        };
+
+        // 小于 2*SUB 的值精确记录，更大的值按最高 7 位有效位分桶
+        private static int index(final long value) {
+            if (value < 2 * SUB) { return (int) value; };
+            final int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+            return (int) Math.min(2 * SUB + (long) (shift - 1) * SUB + ((value >> shift) - SUB), 2 * SUB + 48 * SUB - 1);
+        };
+
+        private static long upper(final int index) {
+            if (index < 2 * SUB) { return index; };
+            final int shift = (index - 2 * SUB) / SUB + 1;
+            return (((index - 2 * SUB) % SUB + SUB + 1L) << shift) - 1;
+        };
+
+        long percentile(final double quantile) {
+            if (total == 0) { return 0; };
+            final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                if (cumulative >= rank) { return Math.min(upper(i), max); };
+            };
+            return max;
+        };
+    };
+
+
+
+    // 压测结果
+    public static class Result {
+        private final String name;
+        private final int connections;
+        private final double rate;
+        private final Histogram histogram = new Histogram();
+        private final long[] status = new long[6];
+        private long requests;
+        private long errors;
+        private long bytes;
+        private long elapsedNanos;
+        private double wire;
+
+        Result(final String name, final int connections, final double rate) { this.name = name; this.connections = connections; this.rate = rate; };
+
+        private void merge(final Worker worker) {
+            histogram.merge(worker.histogram);
+            requests += worker.requests;
+            errors += worker.errors;
+            bytes += worker.bytes;
+            for (int i = 0; i < status.length; i++) { status[i] += worker.status[i]; };
+        };
+
+        private void merge(final Histogram other, final long calls, final long failed) {
+            histogram.merge(other);
+            requests += calls;
+            errors += failed;
+            status[2] += calls - failed;
+        };
+
+
+        /**
+         * 获取请求总数
+         *
+         * @return 请求总数
+         */
+        public long requests() { return requests; };
+
+
+        /**
+         * 获取失败请求数（连接异常或 5xx）
+         *
+         * @return 失败请求数
+         */
+        public long errors() { return errors; };
+
+
+        /**
+         * 获取吞吐量
+         *
+         * @return 每秒请求数
+         */
+        public double throughput() { return elapsedNanos == 0 ? 0 : requests * 1e9 / elapsedNanos; };
+
+
+        /**
+         * 获取耗时分位数
+         *
+         * @param quantile 分位数，范围 0 到 1，例如 0.99
+         * @return 耗时（微秒）
+         */
+        public long percentile(final double quantile) { return histogram.percentile(quantile); };
+
+
+        /**
+         * 获取每次调用在连接上传输的字节数（请求与响应之和），未统计时为 0
+         *
+         * @return 字节数
+         */
+        public double bytesPerCall() { return wire; };
+
+
+        @Override
+        public String toString() {
+            return String.format("%s%n  模式: %s, 连接数: %d, 请求数: %d, 失败: %d, 2xx/3xx/4xx/5xx: %d/%d/%d/%d%n  吞吐: %.0f 次/秒, 响应体: %.1f MB/秒%n  耗时(微秒) 平均: %d, p50: %d, p90: %d, p99: %d, p99.9: %d, 最大: %d",
+                name, rate > 0 ? String.format("开环 %.0f 次/秒", rate) : "闭环", connections, requests, errors, status[2], status[3], status[4], status[5],
+                throughput(), elapsedNanos == 0 ? 0 : bytes * 1e9 / elapsedNanos / 1024 / 1024,
+                histogram.total == 0 ? 0 : histogram.sum / histogram.total, percentile(0.5), percentile(0.9), percentile(0.99), percentile(0.999), histogram.max)
+                + (wire > 0 ? String.format("%n  每次调用传输: %.0f 字节", wire) : "");
+        };
+    };
+};
@@ -0,0 +1,255 @@
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+
+public class Cache<K, V> {
+    private final ConcurrentHashMap<K, Node<V>> map = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+    private final long maxEntries;
+    private final long ttlNanos;
+
+    // CLOCK 淘汰的指针，只由抢到 evicting 的线程推进
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private Iterator<Map.Entry<K, Node<V>>> hand;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+
+    /**
+     * 构造函数，读取不加锁，超出容量时按近似 LRU（CLOCK 二次机会）淘汰
+     *
+     * @param maxEntries 最大条目数
+     * @param ttlMillis 默认存活时间（毫秒），小于等于 0 表示不过期
+     */
+    public Cache(final long maxEntries, final long ttlMillis) {
+        if (maxEntries <= 0) { throw new IllegalArgumentException("maxEntries must be positive"); };
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis <= 0 ? 0 : TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    };
+
+
+
+
+
+    // -------------------------------------------------- 读取 --------------------------------------------------
+
+    /**
+     * 获取缓存值
+     *
+     * @param key 键
+     * @return 未过期的值，不存在或已过期时返回 null
+     */
+    public V get(final K key) {
+        final Node<V> node = fresh(key, System.nanoTime());
+        if (node == null) { misses.increment(); return null; };
+        hits.increment();
+        return node.value;
+    };
+
+
+    /**
+     * 获取缓存值，不存在时调用 loader 加载并写入缓存；同一个键同时只有一个线程加载，其余线程等待同一结果
+     *
+     * @param key 键
+     * @param loader 加载函数，返回 null 时不缓存
+     * @return 缓存值或加载结果
+     */
+    public V get(final K key, final Function<? super K, ? extends V> loader) {
+        final Node<V> node = fresh(key, System.nanoTime());
+        if (node != null) { hits.increment(); return node.value; };
+        misses.increment();
+
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        final CompletableFuture<V> existing = loading.putIfAbsent(key, future);
+        if (existing != null) { return join(existing); };
+        try {
+            // 抢到加载权之前可能已有其他线程写入
+            final Node<V> loaded = fresh(key, System.nanoTime());
+            if (loaded == null) { loads.increment(); };
+            final V value = loaded != null ? loaded.value : loader.apply(key);
+            if (loaded == null && value != null) { put(key, value); };
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally { loading.remove(key, future); }
+    };
+
+
+    // 取出未过期的节点并标记为最近访问，已过期的节点顺便删除
+    private Node<V> fresh(final K key, final long now) {
+        final Node<V> node = map.get(key);
+        if (node == null) { return null; };
+        if (node.expired(now)) {
+            if (map.remove(key, node)) { expirations.increment(); };
+            return null;
+        };
+        // 只在标记变化时写入，避免热点键的缓存行在各核之间来回失效
+        if (!node.referenced) { node.referenced = true; };
+        return node;
+    };
+
+
+    private static <V> V join(final CompletableFuture<V> future) {
+        try { return future.join(); }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) { throw (RuntimeException) e.getCause(); };
+            if (e.getCause() instanceof Error) { throw (Error) e.getCause(); };
+            throw e;
+        }
+    };
+
+
+
+
+
+    // -------------------------------------------------- 写入 --------------------------------------------------
+
+    /**
+     * 写入缓存，使用默认存活时间
+     *
+     * @param key 键
+     * @param value 值，不能为 null
+     */
+    public void put(final K key, final V value) { store(key, value, ttlNanos); };
+
+
+    /**
+     * 写入缓存，并单独指定存活时间
+     *
+     * @param key 键
+     * @param value 值，不能为 null
+     * @param ttlMillis 存活时间（毫秒），小于等于 0 表示不过期
+     */
+    public void put(final K key, final V value, final long ttlMillis) { store(key, value, ttlMillis <= 0 ? 0 : TimeUnit.MILLISECONDS.toNanos(ttlMillis)); };
+
+
+    private void store(final K key, final V value, final long ttl) {
+        if (value == null) { throw new IllegalArgumentException("Cache values must not be null"); };
+        long expiresAt = 0;
+        if (ttl > 0) { expiresAt = System.nanoTime() + ttl; if (expiresAt == 0) { expiresAt = 1; }; };
+        map.put(key, new Node<>(value, expiresAt));
+        if (map.mappingCount() > maxEntries) { evict(); };
+    };
+
+
+    /**
+     * 删除缓存
+     *
+     * @param key 键
+     * @return 被删除的值，不存在时返回 null
+     */
+    public V remove(final K key) {
+        final Node<V> node = map.remove(key);
+        return node == null ? null : node.value;
+    };
+
+
+    /**
+     * 清空缓存，统计数据保留
+     */
+    public void clear() { map.clear(); };
+
+
+    /**
+     * 获取当前条目数，可能包含尚未清理的过期条目
+     *
+     * @return 条目数
+     */
+    public long size() { return map.mappingCount(); };
+
+
+    // 沿 CLOCK 指针扫描：过期的直接删除，最近被访问过的清除标记给第二次机会，否则淘汰；同一时间只有一个线程淘汰
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) { return; };
+        try {
+            final long now = System.nanoTime();
+            long budget = 2 * map.mappingCount() + 16;
+            while (map.mappingCount() > maxEntries && budget-- > 0) {
+                if (hand == null || !hand.hasNext()) { hand = map.entrySet().iterator(); if (!hand.hasNext()) { break; }; };
+                final Map.Entry<K, Node<V>> entry = hand.next();
+                final Node<V> node = entry.getValue();
+                if (node.expired(now)) {
+                    if (map.remove(entry.getKey(), node)) { expirations.increment(); };
+                } else if (node.referenced) { node.referenced = false; }
+                else if (map.remove(entry.getKey(), node)) { evictions.increment(); };
+            };
+        } finally { evicting.set(false); }
+    };
+
+
+
+
+
+    // -------------------------------------------------- 统计 --------------------------------------------------
+
+    /**
+     * 获取统计数据快照
+     *
+     * @return 命中、未命中、加载、淘汰与过期次数
+     */
+    public Stats stats() { return new Stats(hits.sum(), misses.sum(), loads.sum(), evictions.sum(), expirations.sum(), map.mappingCount()); };
+
+
+
+    // 缓存统计快照
+    public static class Stats {
+        /** 命中次数 */
+        public final long hits;
+        /** 未命中次数 */
+        public final long misses;
+        /** 调用加载函数的次数 */
+        public final long loads;
+        /** 因超出容量淘汰的条目数 */
+        public final long evictions;
+        /** 因过期删除的条目数 */
+        public final long expirations;
+        /** 当前条目数 */
+        public final long size;
+
+        Stats(final long hits, final long misses, final long loads, final long evictions, final long expirations, final long size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.loads = loads;
+            this.evictions = evictions;
+            this.expirations = expirations;
+            this.size = size;
+        };
+
+
+        /**
+         * 获取命中率
+         *
+         * @return 命中率，范围 0 到 1，没有请求时为 0
+         */
+        public double hitRate() { return hits + misses == 0 ? 0 : (double) hits / (hits + misses); };
+
+
+        @Override
+        public String toString() { return String.format("hits=%d misses=%d hitRate=%.3f loads=%d evictions=%d expirations=%d size=%d", hits, misses, hitRate(), loads, evictions, expirations, size); };
+    };
+
+
+
+    // 缓存节点，值与过期时间不可变，访问标记允许竞争写入
+    private static class Node<V> {
+        private final V value;
+        private final long expiresAt;
+        private volatile boolean referenced;
+        Node(final V value, final long expiresAt) { this.value = value; this.expiresAt = expiresAt; };
+
+        boolean expired(final long now) { return expiresAt != 0 && now - expiresAt >= 0; };
+    };
+};
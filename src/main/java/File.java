@@ -1,20 +1,89 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
 public class File {
     // -------------------------------------------------- 追加内容到指定文件 --------------------------------------------------
 
     /**
-     * 追加内容到指定文件。
+     * 追加内容到指定文件。所有行合并为一次写入，并发调用之间不会交错；频繁追加请使用 appender。
      *
      * @param filePath 文件路径，指定要追加内容的文件。
      * @param content  要追加的内容数组，每项代表文件中的一行。
@@ -22,17 +91,38 @@ public class File {
      */
     public static boolean add(final String filePath, final String[] content) {
         try {
-            final BufferedWriter writer = Files.newBufferedWriter(Paths.get(filePath), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-            for (String line : content) {
-                writer.write(line);
-                writer.newLine();
-            };
-            writer.close();
-        } catch (IOException e) { System.err.println("追加内容失败: " + e.getMessage()); return false; };
+            final StringBuilder sb = new StringBuilder();
+            for (String line : content) { sb.append(line).append(System.lineSeparator()); };
+            Files.write(Paths.get(filePath), sb.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) { Log.error("追加内容失败: {}", e.getMessage()); return false; };
         return true;
     };
 
 
+    /**
+     * 创建长期打开的追加器，每批数据写入后同步到磁盘。
+     *
+     * @param filePath 文件路径，指定要追加内容的文件。
+     * @return 追加器，使用完毕后需要关闭。
+     */
+    public static Appender appender(final String filePath) { return appender(filePath, Sync.BATCH, 0); };
+
+
+    /**
+     * 创建长期打开的追加器。调用方把行放入无锁队列后立即返回，由后台线程合并为大块写入。
+     *
+     * @param filePath       文件路径，指定要追加内容的文件。
+     * @param sync           同步策略：BATCH 每批写入后同步，INTERVAL 按间隔同步，NONE 交给操作系统。
+     * @param intervalMillis INTERVAL 策略的同步间隔（毫秒），其他策略忽略。
+     * @return 追加器，使用完毕后需要关闭；文件无法打开时抛出 UncheckedIOException。
+     */
+    public static Appender appender(final String filePath, final Sync sync, final long intervalMillis) {
+        if (sync == Sync.INTERVAL && intervalMillis <= 0) { throw new IllegalArgumentException("intervalMillis must be positive"); };
+        try { return new Appender(Paths.get(filePath), sync, intervalMillis); } 
+        catch (IOException e) { throw new UncheckedIOException("打开追加文件失败: " + filePath, e); }
+    };
+
+
 
 
 
@@ -48,7 +138,7 @@ public class File {
         try {
             final Path path = Paths.get(filePath);
             return Files.deleteIfExists(path);
-        } catch (IOException e) { System.err.println("删除文件失败: " + e.getMessage()); return false; }
+        } catch (IOException e) { Log.error("删除文件失败: {}", e.getMessage()); return false; }
     };
 
     
@@ -69,7 +159,7 @@ public class File {
             final BufferedWriter writer = Files.newBufferedWriter(Paths.get(filePath), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
             for (String line : content) { writer.write(line); writer.newLine(); };
             writer.close();
-        } catch (IOException e) { System.err.println("覆盖文件失败: " + e.getMessage()); return false; }
+        } catch (IOException e) { Log.error("覆盖文件失败: {}", e.getMessage()); return false; }
         return true; 
     };
 
@@ -80,16 +170,129 @@ public class File {
     // -------------------------------------------------- 获取文件内容 --------------------------------------------------
 
     /**
-     * 获取文件内容。
+     * 获取文件内容。整个文件会读入内存，大文件请使用 lines 或 each。
      *
      * @param filePath 文件路径，指定要获取内容的文件。
      * @return 文件内容数组，每项代表文件中的一行。
      */
     public static String[] get(final String filePath) {
+        try (Stream<String> lines = lines(filePath)) { return lines.toArray(String[]::new); } 
+        catch (UncheckedIOException e) { Log.error("读取文件失败: {}", e.getMessage()); return new String[0]; }
+    };
+
+
+    /**
+     * 按行惰性读取文件（UTF-8），读取时只占用固定大小的缓冲区。
+     *
+     * @param filePath 文件路径，指定要读取的文件。
+     * @return 行流，使用完毕后需要关闭；文件无法打开时返回空流。
+     */
+    public static Stream<String> lines(final String filePath) { return lines(filePath, StandardCharsets.UTF_8); };
+
+
+    /**
+     * 按行惰性读取文件，支持 \n、\r\n 与 \r 换行，无法解码的字节替换为 \uFFFD。
+     *
+     * @param filePath 文件路径，指定要读取的文件。
+     * @param charset  文件编码。
+     * @return 行流，使用完毕后需要关闭；文件无法打开时返回空流，读取中途出错时抛出 UncheckedIOException。
+     */
+    public static Stream<String> lines(final String filePath, final Charset charset) {
+        final LineReader reader;
+        try { reader = new LineReader(Paths.get(filePath), charset); } 
+        catch (IOException e) { Log.error("读取文件失败: {}", e.getMessage()); return Stream.empty(); }
+
+        final Iterator<String> iterator = new Iterator<String>() {
+            private boolean ready;
+
+            @Override
+            public boolean hasNext() {
+                if (!ready) {
+                    try { ready = reader.next(); } 
+                    catch (IOException e) { throw new UncheckedIOException(e); }
+                };
+                return ready;
+            };
+
+            @Override
+            public String next() {
+                if (!hasNext()) { throw new NoSuchElementException(); };
+                ready = false;
+                return reader.line.toString();
+            };
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(reader::close);
+    };
+
+
+    /**
+     * 逐行处理文件（UTF-8），每行以可复用的 CharSequence 视图传入，不为每行创建字符串。
+     *
+     * @param filePath 文件路径，指定要读取的文件。
+     * @param action   每行的处理函数，传入的视图只在本次调用内有效，需要保留时调用 toString。
+     * @return 处理的行数，读取失败时返回 -1。
+     */
+    public static long each(final String filePath, final Consumer<CharSequence> action) { return each(filePath, StandardCharsets.UTF_8, action); };
+
+
+    /**
+     * 逐行处理文件，每行以可复用的 CharSequence 视图传入，不为每行创建字符串。
+     *
+     * @param filePath 文件路径，指定要读取的文件。
+     * @param charset  文件编码。
+     * @param action   每行的处理函数，传入的视图只在本次调用内有效，需要保留时调用 toString。
+     * @return 处理的行数，读取失败时返回 -1。
+     */
+    public static long each(final String filePath, final Charset charset, final Consumer<CharSequence> action) {
+        try (LineReader reader = new LineReader(Paths.get(filePath), charset)) {
+            long count = 0;
+            while (reader.next()) { action.accept(reader.line); count++; };
+            return count;
+        } catch (IOException e) { Log.error("读取文件失败: {}", e.getMessage()); return -1; }
+    };
+
+
+
+
+
+    // -------------------------------------------------- 内存映射 --------------------------------------------------
+
+    /**
+     * 以内存映射方式打开文件，按偏移量随机读写，不需要读入整个文件。
+     *
+     * @param filePath 文件路径，指定要映射的文件。
+     * @param writable 为 true 时以读写方式映射，否则只读。
+     * @return 映射区域，使用完毕后调用 close。
+     * @throws UncheckedIOException 如果文件无法打开或映射。
+     */
+    public static Region map(final String filePath, final boolean writable) { return map(filePath, writable, -1); };
+
+
+    /**
+     * 以读写方式映射文件，文件不存在时创建，小于指定大小时扩展到该大小。
+     *
+     * @param filePath 文件路径，指定要映射的文件。
+     * @param size     映射大小（字节）。
+     * @return 映射区域，使用完毕后调用 close。
+     * @throws UncheckedIOException 如果文件无法打开或映射。
+     */
+    public static Region map(final String filePath, final long size) {
+        if (size < 0) { throw new IllegalArgumentException("size must not be negative"); };
+        return map(filePath, true, size);
+    };
+
+
+    private static Region map(final String filePath, final boolean writable, final long size) {
+        final Path path = Paths.get(filePath);
         try {
-            final List<String> content = Files.readAllLines(Paths.get(filePath));
-            return content.toArray(new String[0]);
-        } catch (IOException e) { System.err.println("读取文件失败: " + e.getMessage()); return new String[0]; }
+            final FileChannel channel = writable 
+                ? FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE) 
+                : FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                if (size > channel.size()) { channel.write(ByteBuffer.allocate(1), size - 1); };
+                return new Region(channel, writable, size >= 0 ? size : channel.size());
+            } catch (IOException | RuntimeException e) { channel.close(); throw e; }
+        } catch (IOException e) { throw new UncheckedIOException("映射文件失败: " + filePath, e); }
     };
 
 
@@ -108,7 +311,7 @@ public class File {
         try {
             final Path path = Paths.get(filePath);
             if (Files.notExists(path)) { Files.createFile(path); };
-        } catch (IOException e) { System.err.println("创建文件失败: " + e.getMessage()); return false; };
+        } catch (IOException e) { Log.error("创建文件失败: {}", e.getMessage()); return false; };
         return true;
     };
 
@@ -130,7 +333,7 @@ public class File {
             final Path sourcePath = Paths.get(sourceFilePath);
             final Path targetPath = Paths.get(targetFilePath);
             if (Files.notExists(targetPath)) { Files.copy(sourcePath, targetPath); };
-        } catch (IOException e) { System.err.println("复制文件失败: " + e.getMessage()); return false; };
+        } catch (IOException e) { Log.error("复制文件失败: {}", e.getMessage()); return false; };
         return true;
     };
 
@@ -141,30 +344,517 @@ public class File {
     // -------------------------------------------------- 复制文件夹 --------------------------------------------------
 
     /**
-     * 复制文件夹。
+     * 复制文件夹，包括所有子文件夹。大小与修改时间均与源文件相同的目标文件会被跳过，其余文件覆盖。
      *  
      * @param sourceDirPath 源文件夹路径，指定要复制的文件夹。
      * @param targetDirPath 目标文件夹路径，指定复制后的文件夹。
      * @return 如果复制成功返回 true，否则返回 false。
      */
     public static boolean copyDir(final String sourceDirPath, final String targetDirPath) {
+        final CopyStats stats = copyDir(sourceDirPath, targetDirPath, Compare.METADATA, 0, null);
+        return stats != null && stats.failed() == 0;
+    };
+
+
+    /**
+     * 并行复制文件夹。目录遍历与文件复制都在工作窃取线程池中进行，文件内容使用 FileChannel.transferTo 复制。
+     *
+     * @param sourceDirPath 源文件夹路径，指定要复制的文件夹。
+     * @param targetDirPath 目标文件夹路径，指定复制后的文件夹。
+     * @param compare       增量模式：NONE 总是复制，METADATA 跳过大小与修改时间相同的文件，HASH 跳过大小与内容摘要相同的文件，
+     *                      DELTA 与 METADATA 相同，但已存在的目标文件只重写变化的块。
+     * @param parallelism   并行度，小于等于 0 时为 CPU 核数的两倍（至少 4）；机械硬盘宜小，SSD 与网络存储可以更大。
+     * @param progress      进度回调，每 500 毫秒调用一次，复制结束时再调用一次，可为 null。
+     * @return 复制统计，源文件夹不存在时返回 null。
+     */
+    public static CopyStats copyDir(final String sourceDirPath, final String targetDirPath, final Compare compare, final int parallelism, final Consumer<CopyStats> progress) {
+        final Path sourcePath = Paths.get(sourceDirPath).toAbsolutePath().normalize();
+        final Path targetPath = Paths.get(targetDirPath).toAbsolutePath().normalize();
+        if (!Files.isDirectory(sourcePath)) { Log.error("复制文件夹失败: 源文件夹不存在 {}", sourceDirPath); return null; };
+
+        final CopyStats stats = new CopyStats();
+        final ForkJoinPool pool = new ForkJoinPool(parallelism > 0 ? parallelism : Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
         try {
-            final Path sourcePath = Paths.get(sourceDirPath);
-            final Path targetPath = Paths.get(targetDirPath);
-            if (Files.notExists(targetPath)) { Files.createDirectory(targetPath); };
-            Files.walkFileTree(sourcePath, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    final Path targetFile = targetPath.resolve(sourcePath.relativize(file));
-                    if (Files.notExists(targetFile)) { Files.copy(file, targetFile); };
-                    return FileVisitResult.CONTINUE;
-                };
+            final CopyTask root = new CopyTask(null, sourcePath, targetPath, true, compare, stats);
+            pool.execute(root);
+            while (true) {
+                try { root.get(500, TimeUnit.MILLISECONDS); break; } 
+                catch (TimeoutException e) { if (progress != null) { progress.accept(stats); }; }
+            };
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.error("复制文件夹被中断: {}", sourceDirPath);
+            pool.shutdownNow();
+        } catch (ExecutionException e) {
+            Log.error("复制文件夹失败: " + sourceDirPath, e.getCause());
+        } finally { pool.shutdown(); };
+        stats.finish();
+        if (progress != null) { progress.accept(stats); };
+        return stats;
+    };
+
+
+
+
+
+    // -------------------------------------------------- 增量同步 --------------------------------------------------
+
+    /**
+     * 按块增量同步文件：逐块比较源文件与目标文件，只重写变化的块，目标文件不存在时完整写入。
+     *
+     * @param sourceFilePath 源文件路径。
+     * @param targetFilePath 目标文件路径。
+     * @return 同步统计，失败时返回 null。
+     */
+    public static SyncStats sync(final String sourceFilePath, final String targetFilePath) { return sync(sourceFilePath, targetFilePath, Delta.IN_PLACE, SYNC_BLOCK, false); };
+
+
+    /**
+     * 按块增量同步文件。
+     *
+     * @param sourceFilePath 源文件路径。
+     * @param targetFilePath 目标文件路径。
+     * @param mode           IN_PLACE 按相同偏移逐块比较并原地重写变化的块，适合原地修改的文件；
+     *                       REBUILD 用目标文件的块签名（滚动弱校验和 + MD5）在源文件任意偏移处查找可复用的块，
+     *                       按块计划生成临时文件后原子替换目标文件，适合插入或删除导致内容整体移动的文件。
+     * @param blockSize      块大小（字节）。
+     * @param parallel       为 true 时在公共线程池中并行比较或计算签名。
+     * @return 同步统计，失败时返回 null。
+     */
+    public static SyncStats sync(final String sourceFilePath, final String targetFilePath, final Delta mode, final int blockSize, final boolean parallel) {
+        if (blockSize <= 0) { throw new IllegalArgumentException("blockSize must be positive"); };
+        final Path source = Paths.get(sourceFilePath);
+        final Path target = Paths.get(targetFilePath);
+        try {
+            final SyncStats stats = new SyncStats();
+            if (mode == Delta.REBUILD && Files.isRegularFile(target)) { rebuild(source, target, blockSize, parallel, stats); } 
+            else { patch(source, target, blockSize, parallel, stats); };
+            Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+            stats.finish();
+            return stats;
+        } catch (IOException | UncheckedIOException e) { Log.error("同步文件失败: {} -> {}: {}", sourceFilePath, targetFilePath, e.toString()); return null; }
+    };
+
+
+    // 原地同步：按块读取源文件与目标文件的同一区间，内容不同才写入，最后截断到源文件大小
+    private static void patch(final Path source, final Path target, final int blockSize, final boolean parallel, final SyncStats stats) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final long size = in.size();
+            final long existing = out.size();
+            final long blocks = (size + blockSize - 1) / blockSize;
+            final long chunks = (blocks + SYNC_CHUNK - 1) / SYNC_CHUNK;
+            LongStream range = LongStream.range(0, chunks);
+            if (parallel) { range = range.parallel(); };
+            range.forEach(chunk -> {
+                final ByteBuffer wanted = ByteBuffer.allocate(blockSize);
+                final ByteBuffer current = ByteBuffer.allocate(blockSize);
+                try {
+                    for (long block = chunk * SYNC_CHUNK; block < Math.min(blocks, (chunk + 1) * SYNC_CHUNK); block++) {
+                        final long position = block * blockSize;
+                        final int length = (int) Math.min(blockSize, size - position);
+                        read(in, wanted, position, length);
+                        if (position + length <= existing) {
+                            read(out, current, position, length);
+                            if (wanted.equals(current)) { stats.matched.add(length); continue; };
+                        };
+                        while (wanted.hasRemaining()) { out.write(wanted, position + wanted.position()); };
+                        stats.written.add(length);
+                    };
+                } catch (IOException e) { throw new UncheckedIOException(e); }
             });
-        } catch (IOException e) { System.err.println("复制文件夹失败: " + e.getMessage()); return false; }
+            if (existing > size) { out.truncate(size); };
+        };
+    };
+
+
+    // 重建同步：计算旧目标文件的块签名，在源文件上滚动查找匹配块，匹配块从旧文件直接传输，其余作为字面数据写入
+    private static void rebuild(final Path source, final Path target, final int blockSize, final boolean parallel, final SyncStats stats) throws IOException {
+        final Path temp = target.resolveSibling("." + target.getFileName() + ".sync-" + System.nanoTime());
+        try (FileChannel old = FileChannel.open(target, StandardOpenOption.READ);
+             FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            final Signatures signatures = new Signatures(old, blockSize, parallel);
+            final MessageDigest md5 = md5();
+            final byte[] strong = new byte[16];
+            final byte[] buffer = new byte[Math.max(4 * 1024 * 1024, 2 * blockSize)];
+            int start = 0, limit = 0, literal = 0;
+            int a = 0, b = 0;
+            boolean rolling = false, eof = false;
+
+            while (true) {
+                // 窗口后面至少留一个字节用于滚动，不足时写出待定的字面数据并把剩余数据移到缓冲区开头
+                if (!eof && limit - start <= blockSize) {
+                    literal(out, buffer, literal, start, stats);
+                    System.arraycopy(buffer, start, buffer, 0, limit - start);
+                    limit -= start; start = 0; literal = 0;
+                    while (limit < buffer.length) {
+                        final int n = in.read(ByteBuffer.wrap(buffer, limit, buffer.length - limit));
+                        if (n < 0) { eof = true; break; };
+                        limit += n;
+                    };
+                };
+                if (limit - start < blockSize) { break; };
+
+                if (!rolling) {
+                    a = 0; b = 0;
+                    for (int i = 0; i < blockSize; i++) { final int x = buffer[start + i] & 0xff; a += x; b += (blockSize - i) * x; };
+                    rolling = true;
+                };
+                final int match = signatures.find((a & 0xffff) | (b << 16), buffer, start, md5, strong);
+                if (match >= 0) {
+                    literal(out, buffer, literal, start, stats);
+                    long position = (long) match * blockSize, remaining = blockSize;
+                    while (remaining > 0) {
+                        final long n = old.transferTo(position, remaining, out);
+                        // 同步期间目标文件被截断时 transferTo 返回 0，不能继续循环
+                        if (n <= 0) { throw new EOFException("Target shrank during sync: " + target); };
+                        position += n;
+                        remaining -= n;
+                    };
+                    stats.matched.add(blockSize);
+                    start += blockSize; literal = start;
+                    rolling = false;
+                    continue;
+                };
+                if (start + blockSize < limit) {
+                    final int gone = buffer[start] & 0xff, next = buffer[start + blockSize] & 0xff;
+                    a += next - gone;
+                    b += a - blockSize * gone;
+                } else { rolling = false; };
+                start++;
+            };
+            literal(out, buffer, literal, limit, stats);
+            out.force(false);
+            keepAttributes(target, temp);
+        } catch (IOException | RuntimeException e) { Files.deleteIfExists(temp); throw e; }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    };
+
+
+    // 临时文件以默认权限创建，替换前复制目标文件的权限、属主与修改时间；非 POSIX 文件系统只复制修改时间，无权修改属主时保持当前用户
+    private static void keepAttributes(final Path from, final Path to) throws IOException {
+        final PosixFileAttributeView view = Files.getFileAttributeView(from, PosixFileAttributeView.class);
+        if (view != null) {
+            final PosixFileAttributes attrs = view.readAttributes();
+            final PosixFileAttributeView copy = Files.getFileAttributeView(to, PosixFileAttributeView.class);
+            copy.setPermissions(attrs.permissions());
+            try {
+                copy.setGroup(attrs.group());
+                copy.setOwner(attrs.owner());
+            } catch (IOException | SecurityException e) { Log.debug("保留文件属主失败: {}: {}", from, e.toString()); }
+        };
+        Files.setLastModifiedTime(to, Files.getLastModifiedTime(from));
+    };
+
+
+    private static void literal(final FileChannel out, final byte[] buffer, final int from, final int to, final SyncStats stats) throws IOException {
+        if (to <= from) { return; };
+        final ByteBuffer bytes = ByteBuffer.wrap(buffer, from, to - from);
+        while (bytes.hasRemaining()) { out.write(bytes); };
+        stats.written.add(to - from);
+    };
+
+
+    private static void read(final FileChannel channel, final ByteBuffer buffer, final long position, final int length) throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) { break; };
+        };
+        buffer.flip();
+    };
+
+
+    private static MessageDigest md5() {
+        try { return MessageDigest.getInstance("MD5"); } 
+        catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+    };
+
+
+
+
+
+    // -------------------------------------------------- 内容摘要 --------------------------------------------------
+
+    /**
+     * 计算单个文件的内容摘要。
+     *
+     * @param filePath  文件路径。
+     * @param algorithm 摘要算法，SHA256 或非加密的 XXH64。
+     * @return 十六进制摘要，读取失败时返回 null。
+     */
+    public static String hash(final String filePath, final Hash algorithm) {
+        try { return hex(digest(Paths.get(filePath), algorithm)); } 
+        catch (IOException e) { Log.error("计算文件摘要失败: {}", e.getMessage()); return null; }
+    };
+
+
+    /**
+     * 并行计算文件夹下所有文件的内容摘要（不跟随符号链接）。
+     *
+     * @param dirPath       文件夹路径。
+     * @param algorithm     摘要算法，SHA256 或非加密的 XXH64。
+     * @param cacheFilePath 摘要缓存文件路径，按相对路径、大小与修改时间缓存摘要，再次计算时只读取变化的文件；为 null 时不使用缓存。
+     * @return 摘要结果，文件夹无法读取时返回 null。
+     */
+    public static Hashes hashDir(final String dirPath, final Hash algorithm, final String cacheFilePath) {
+        final Path root = Paths.get(dirPath).toAbsolutePath().normalize();
+        final List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(path -> Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)).collect(Collectors.toList());
+        } catch (IOException | UncheckedIOException e) { Log.error("读取文件夹失败: {}: {}", dirPath, e.toString()); return null; }
+
+        final Map<String, HashEntry> cache = cacheFilePath == null ? Collections.<String, HashEntry>emptyMap() : loadHashes(Paths.get(cacheFilePath), algorithm);
+        final Map<String, HashEntry> current = new ConcurrentHashMap<>();
+        final Hashes result = new Hashes();
+        final ForkJoinPool pool = new ForkJoinPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+        try {
+            pool.submit(() -> files.parallelStream().forEach(file -> {
+                final String name = root.relativize(file).toString().replace('\\', '/');
+                try {
+                    final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    final long mtime = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+                    HashEntry entry = cache.get(name);
+                    if (entry != null && entry.size == attrs.size() && entry.mtime == mtime) { result.cached.increment(); } 
+                    else {
+                        entry = new HashEntry(attrs.size(), mtime, digest(file, algorithm));
+                        result.hashed.increment();
+                        result.bytes.add(attrs.size());
+                    };
+                    current.put(name, entry);
+                } catch (IOException e) {
+                    result.failed.increment();
+                    Log.error("计算文件摘要失败: {}: {}", file, e.toString());
+                };
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.error("计算文件摘要失败: " + dirPath, e.getCause());
+            return null;
+        } finally { pool.shutdown(); };
+
+        for (Map.Entry<String, HashEntry> entry : current.entrySet()) { result.digests.put(entry.getKey(), hex(entry.getValue().digest)); };
+        if (cacheFilePath != null && (result.hashed() > 0 || current.size() != cache.size())) { saveHashes(Paths.get(cacheFilePath), algorithm, current); };
+        result.finish();
+        return result;
+    };
+
+
+    // 用直接缓冲区顺序读取文件并计算摘要，每个线程复用自己的缓冲区
+    private static byte[] digest(final Path file, final Hash algorithm) throws IOException {
+        final ByteBuffer buffer = HASH_BUFFER.get();
+        buffer.clear();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (algorithm == Hash.XXH64) {
+                final XxHash64 xxhash = new XxHash64();
+                while (channel.read(buffer) >= 0) { buffer.flip(); xxhash.update(buffer); buffer.compact(); };
+                buffer.flip();
+                final long value = xxhash.digest(buffer);
+                final byte[] digest = new byte[8];
+                for (int i = 0; i < 8; i++) { digest[i] = (byte) (value >>> (56 - 8 * i)); };
+                return digest;
+            };
+            final MessageDigest sha;
+            try { sha = MessageDigest.getInstance("SHA-256"); } 
+            catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+            while (channel.read(buffer) >= 0) { buffer.flip(); sha.update(buffer); buffer.clear(); };
+            return sha.digest();
+        }
+    };
+
+
+    private static String hex(final byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = Character.forDigit((bytes[i] >> 4) & 0xf, 16);
+            chars[2 * i + 1] = Character.forDigit(bytes[i] & 0xf, 16);
+        };
+        return new String(chars);
+    };
+
+
+    // 摘要缓存格式：魔数、算法、条目数，然后每个条目依次为路径（UTF）、大小、修改时间（纳秒）与摘要；格式不符时忽略整个缓存
+    private static Map<String, HashEntry> loadHashes(final Path cacheFile, final Hash algorithm) {
+        final Map<String, HashEntry> entries = new HashMap<>();
+        if (Files.notExists(cacheFile)) { return entries; };
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile), 64 * 1024))) {
+            if (in.readInt() != HASH_MAGIC || in.readUnsignedByte() != algorithm.ordinal()) { return entries; };
+            final int count = in.readInt();
+            final int length = algorithm == Hash.XXH64 ? 8 : 32;
+            for (int i = 0; i < count; i++) {
+                final String name = in.readUTF();
+                final long size = in.readLong();
+                final long mtime = in.readLong();
+                final byte[] digest = new byte[length];
+                in.readFully(digest);
+                entries.put(name, new HashEntry(size, mtime, digest));
+            };
+        } catch (IOException e) { Log.warn("摘要缓存无法读取，将重新计算: {}: {}", cacheFile, e.toString()); entries.clear(); }
+        return entries;
+    };
+
+
+    // 先写临时文件再原子替换，进程中断时不会留下半个缓存文件
+    private static void saveHashes(final Path cacheFile, final Hash algorithm, final Map<String, HashEntry> entries) {
+        final Path temp = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024))) {
+                out.writeInt(HASH_MAGIC);
+                out.writeByte(algorithm.ordinal());
+                out.writeInt(entries.size());
+                for (Map.Entry<String, HashEntry> entry : entries.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue().size);
+                    out.writeLong(entry.getValue().mtime);
+                    out.write(entry.getValue().digest);
+                };
+            };
+            Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) { Log.error("写入摘要缓存失败: {}: {}", cacheFile, e.toString()); }
+    };
+
+
+
+
+
+    // -------------------------------------------------- 监听文件夹 --------------------------------------------------
+
+    /**
+     * 递归监听文件夹变化，100 毫秒内的连续变化合并为一批交给监听器。
+     *
+     * @param dirPath  文件夹路径。
+     * @param listener 监听器，在监听线程中调用，每批中同一路径只出现一次。
+     * @return 监听器句柄，调用 close 停止监听。
+     * @throws UncheckedIOException 如果文件夹无法监听。
+     */
+    public static Watcher watch(final String dirPath, final Consumer<List<Change>> listener) { return watch(dirPath, 100, listener); };
+
+
+    /**
+     * 递归监听文件夹变化，新建的子文件夹自动加入监听。
+     *
+     * @param dirPath        文件夹路径。
+     * @param debounceMillis 防抖时间（毫秒），没有新变化超过该时间后交付一批，持续变化时最迟 10 倍防抖时间交付一次。
+     * @param listener       监听器，在监听线程中调用，每批中同一路径只出现一次。
+     * @return 监听器句柄，调用 close 停止监听。
+     * @throws UncheckedIOException 如果文件夹无法监听。
+     */
+    public static Watcher watch(final String dirPath, final long debounceMillis, final Consumer<List<Change>> listener) {
+        if (debounceMillis < 0) { throw new IllegalArgumentException("debounceMillis must not be negative"); };
+        try { return new Watcher(Paths.get(dirPath).toAbsolutePath().normalize(), debounceMillis, listener); } 
+        catch (IOException e) { throw new UncheckedIOException("监听文件夹失败: " + dirPath, e); }
+    };
+
+
+
+
+
+    // -------------------------------------------------- 查找文件 --------------------------------------------------
+
+    /**
+     * 并行查找文件夹下匹配的文件（不跟随符号链接）。
+     *
+     * @param dirPath  文件夹路径。
+     * @param pattern  文件匹配模式，不带前缀时为 glob，不含 / 时只匹配文件名，例如 *.java；
+     *                 也可以使用 glob: 或 regex: 前缀匹配相对路径，例如 glob:src/**.java。
+     * @param maxDepth 最大深度，1 表示只查找文件夹直接包含的文件。
+     * @param consumer 结果处理函数，找到即调用，调用是串行的，但顺序不确定。
+     * @return 查找统计，matched 为找到的文件数，failed 为无法读取的文件夹数；文件夹不存在时返回 null。
+     */
+    public static SearchStats find(final String dirPath, final String pattern, final int maxDepth, final Consumer<Path> consumer) {
+        final SearchStats stats = new SearchStats();
+        final Object lock = new Object();
+        final boolean completed = search(dirPath, pattern, maxDepth, false, stats, file -> {
+            stats.matched.increment();
+            synchronized (lock) { consumer.accept(file); };
+        });
+        return completed ? stats : null;
+    };
+
+
+    /**
+     * 并行搜索文件夹下匹配文件的内容（UTF-8），跳过二进制文件，每行最多报告一次。
+     *
+     * @param dirPath  文件夹路径。
+     * @param pattern  文件匹配模式，规则与 find 相同，为 null 时搜索所有文件。
+     * @param query    要查找的内容。
+     * @param regex    为 false 时按字面内容在映射的文件字节上用 Boyer-Moore-Horspool 查找，为 true 时按正则表达式逐行匹配。
+     * @param consumer 结果处理函数，找到即调用，调用是串行的，但顺序不确定。
+     * @return 搜索统计，matched 为匹配的行数，failed 为无法读取的文件与文件夹数；文件夹不存在时返回 null。
+     * @throws IllegalArgumentException 如果查找内容为空。
+     */
+    public static SearchStats grep(final String dirPath, final String pattern, final String query, final boolean regex, final Consumer<Match> consumer) {
+        if (query == null || query.isEmpty()) { throw new IllegalArgumentException("query must not be empty"); };
+        final Pattern compiled = regex ? Pattern.compile(query) : null;
+        final Horspool literal = regex ? null : new Horspool(query.getBytes(StandardCharsets.UTF_8));
+        final SearchStats stats = new SearchStats();
+        final Object lock = new Object();
+        final Consumer<Match> emit = match -> {
+            stats.matched.increment();
+            synchronized (lock) { consumer.accept(match); };
+        };
+        final boolean completed = search(dirPath, pattern == null ? "glob:**" : pattern, Integer.MAX_VALUE, true, stats, file -> {
+            try {
+                if (literal != null && Files.size(file) <= Integer.MAX_VALUE) { literal.search(file, emit); } 
+                else { grep(file, compiled != null ? compiled : Pattern.compile(Pattern.quote(query)), emit); };
+            } catch (IOException e) {
+                stats.failed.increment();
+                Log.error("搜索文件失败: {}: {}", file, e.toString());
+            }
+        });
+        return completed ? stats : null;
+    };
+
+
+    // 在工作窃取线程池中遍历文件夹，forkFiles 为 true 时每个匹配的文件作为单独的任务处理
+    private static boolean search(final String dirPath, final String pattern, final int maxDepth, final boolean forkFiles, final SearchStats stats, final Consumer<Path> action) {
+        final Path root = Paths.get(dirPath).toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) { Log.error("查找文件失败: 文件夹不存在 {}", dirPath); return false; };
+        final boolean nameOnly = !pattern.startsWith("glob:") && !pattern.startsWith("regex:") && pattern.indexOf('/') < 0;
+        final PathMatcher matcher = root.getFileSystem().getPathMatcher(pattern.startsWith("glob:") || pattern.startsWith("regex:") ? pattern : "glob:" + pattern);
+        final SearchTask.Scope scope = new SearchTask.Scope(path -> matcher.matches(nameOnly ? path.getFileName() : root.relativize(path)), maxDepth, forkFiles, stats, action);
+        final ForkJoinPool pool = new ForkJoinPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+        try { pool.invoke(new SearchTask(null, root, 0, true, scope)); } 
+        finally { pool.shutdown(); };
+        stats.finish();
         return true;
     };
 
 
+    // 正则表达式逐行匹配，行以可复用的视图传给 Matcher，只为匹配的行创建字符串
+    private static void grep(final Path file, final Pattern pattern, final Consumer<Match> emit) throws IOException {
+        if (binary(file)) { return; };
+        try (LineReader reader = new LineReader(file, StandardCharsets.UTF_8)) {
+            final Matcher matcher = pattern.matcher("");
+            long number = 0;
+            while (reader.next()) {
+                number++;
+                if (matcher.reset(reader.line).find()) { emit.accept(new Match(file, number, reader.line.toString())); };
+            };
+        };
+    };
+
+
+    // 前 8KB 中含有 NUL 字节的文件视为二进制文件
+    private static boolean binary(final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer head = ByteBuffer.allocate(8 * 1024);
+            while (head.hasRemaining() && channel.read(head) > 0) { };
+            return binary(head, head.position());
+        }
+    };
+
+
+    private static boolean binary(final ByteBuffer bytes, final int length) {
+        for (int i = 0, end = Math.min(length, 8 * 1024); i < end; i++) {
+            if (bytes.get(i) == 0) { return true; };
+        };
+        return false;
+    };
+
+
 
 
 
@@ -180,7 +870,7 @@ public class File {
         try {
             final Path path = Paths.get(dirPath);
             if (Files.notExists(path)) { Files.createDirectory(path); };
-        } catch (IOException e) { System.err.println("创建文件夹失败: " + e.getMessage()); return false; }
+        } catch (IOException e) { Log.error("创建文件夹失败: {}", e.getMessage()); return false; }
         return true;
     };
 
@@ -191,29 +881,1592 @@ public class File {
     // -------------------------------------------------- 删除文件夹 --------------------------------------------------
 
     /**
-     * 删除文件夹。
+     * 删除文件夹及其全部内容，子文件夹在线程池中并行删除。
      * 
      * @param dirPath 文件夹路径，指定要删除的文件夹。
      * @return 如果删除成功返回 true，否则返回 false。
      */
     public static boolean rmdir(final String dirPath) {
-        final Path directoryPath = Paths.get(dirPath); 
-        try {
-            // 使用walkFileTree递归删除文件夹及其内容
-            Files.walkFileTree(directoryPath, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    Files.delete(file); // 删除文件
-                    return FileVisitResult.CONTINUE;
+        final DeleteStats stats = rmdir(dirPath, false);
+        return stats != null && stats.failed() == 0;
+    };
+
+
+    /**
+     * 并行删除文件夹及其全部内容。
+     *
+     * @param dirPath    文件夹路径，指定要删除的文件夹。
+     * @param background 为 true 时先把文件夹原子重命名为同级的墓碑文件夹后立即返回，删除在后台完成；重命名失败时退回同步删除。
+     * @return 删除统计，可通过 await 等待后台删除完成；文件夹不存在时返回 null。
+     */
+    public static DeleteStats rmdir(final String dirPath, final boolean background) {
+        Path path = Paths.get(dirPath).toAbsolutePath().normalize();
+        if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) { Log.error("删除文件夹失败: 文件夹不存在 {}", dirPath); return null; };
+
+        boolean detached = false;
+        if (background && path.getParent() != null) {
+            final Path tombstone = path.resolveSibling("." + path.getFileName() + ".deleting-" + System.nanoTime());
+            try { path = Files.move(path, tombstone, StandardCopyOption.ATOMIC_MOVE); detached = true; } 
+            catch (IOException | UnsupportedOperationException e) { Log.warn("重命名为墓碑文件夹失败，改为同步删除: {}", e.toString()); }
+        };
+
+        final ForkJoinPool pool = new ForkJoinPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+        final DeleteStats stats = new DeleteStats(pool);
+        pool.execute(new DeleteTask(null, path, null, stats));
+        if (!detached) { stats.await(0); };
+        return stats;
+    };
+
+
+
+
+
+    // 复制文件夹的增量模式
+    public enum Compare { NONE, METADATA, HASH, DELTA };
+
+
+
+    // 复制统计，复制过程中可随时读取
+    public static class CopyStats {
+        private final long start = System.nanoTime();
+        private final LongAdder copied = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+        private final LongAdder directories = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private volatile long end;
+
+        void finish() { end = System.nanoTime(); };
+
+
+        /**
+         * 获取已复制的文件数。
+         *
+         * @return 文件数。
+         */
+        public long copied() { return copied.sum(); };
+
+
+        /**
+         * 获取因未变化而跳过的文件数。
+         *
+         * @return 文件数。
+         */
+        public long skipped() { return skipped.sum(); };
+
+
+        /**
+         * 获取已处理的文件夹数。
+         *
+         * @return 文件夹数。
+         */
+        public long directories() { return directories.sum(); };
+
+
+        /**
+         * 获取已复制的字节数。
+         *
+         * @return 字节数。
+         */
+        public long bytes() { return bytes.sum(); };
+
+
+        /**
+         * 获取复制失败的文件与文件夹数。
+         *
+         * @return 失败数。
+         */
+        public long failed() { return failed.sum(); };
+
+
+        /**
+         * 获取已用时间。
+         *
+         * @return 毫秒数。
+         */
+        public long elapsedMillis() { return TimeUnit.NANOSECONDS.toMillis((end != 0 ? end : System.nanoTime()) - start); };
+
+
+        /**
+         * 获取复制吞吐量。
+         *
+         * @return 每秒字节数。
+         */
+        public double bytesPerSecond() { final long millis = elapsedMillis(); return millis == 0 ? 0 : bytes() * 1000.0 / millis; };
+
+
+        @Override
+        public String toString() {
+            return String.format("复制 %d 个文件，跳过 %d 个，文件夹 %d 个，失败 %d 个，%.1f MB，用时 %d 毫秒，%.1f MB/秒",
+                copied(), skipped(), directories(), failed(), bytes() / 1048576.0, elapsedMillis(), bytesPerSecond() / 1048576.0);
+        };
+    };
+
+
+
+    // 复制任务：文件夹任务先创建目标文件夹，再把子文件夹与文件拆分为子任务交给线程池，不等待子任务，全部子任务完成时父任务随之完成
+    private static class CopyTask extends CountedCompleter<Void> {
+        private static final long serialVersionUID = 1L;
+        private final Path source;
+        private final Path target;
+        private final boolean directory;
+        private final Compare compare;
+        private final CopyStats stats;
+
+        CopyTask(final CopyTask parent, final Path source, final Path target, final boolean directory, final Compare compare, final CopyStats stats) {
+            super(parent);
+            this.source = source;
+            this.target = target;
+            this.directory = directory;
+            this.compare = compare;
+            this.stats = stats;
+        };
+
+        @Override
+        public void compute() {
+            try {
+                if (directory) { copyDirectory(); } 
+                else { copyFile(); };
+            } catch (IOException | RuntimeException e) {
+                stats.failed.increment();
+                Log.error("复制失败: {} -> {}: {}", source, target, e.toString());
+            };
+            tryComplete();
+        };
+
+        private void copyDirectory() throws IOException {
+            Files.createDirectories(target);
+            stats.directories.increment();
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(source)) {
+                for (Path child : children) {
+                    final BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    addToPendingCount(1);
+                    new CopyTask(this, child, target.resolve(child.getFileName().toString()), attrs.isDirectory(), compare, stats).fork();
                 };
+            };
+        };
 
-                @Override
-                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-                    Files.delete(dir); // 删除空目录
-                    return FileVisitResult.CONTINUE;
+        private void copyFile() throws IOException {
+            final BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attrs.isSymbolicLink()) {
+                Files.copy(source, target, LinkOption.NOFOLLOW_LINKS, StandardCopyOption.REPLACE_EXISTING);
+                stats.copied.increment();
+                return;
+            };
+            if (unchanged(attrs)) { stats.skipped.increment(); return; };
+            if (compare == Compare.DELTA && Files.isRegularFile(target, LinkOption.NOFOLLOW_LINKS)) {
+                final SyncStats delta = new SyncStats();
+                patch(source, target, SYNC_BLOCK, false, delta);
+                stats.bytes.add(delta.written());
+                Files.setLastModifiedTime(target, attrs.lastModifiedTime());
+                stats.copied.increment();
+                return;
+            };
+
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                final long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    final long n = in.transferTo(position, size - position, out);
+                    if (n <= 0) { break; };
+                    position += n;
                 };
-            });
-            return true;
-        } catch (IOException e) { System.err.println("删除文件夹时发生错误: " + e.getMessage()); return false; }
+                stats.bytes.add(position);
+            };
+            // 保留修改时间，供下次增量复制比较
+            Files.setLastModifiedTime(target, attrs.lastModifiedTime());
+            stats.copied.increment();
+        };
+
+        private boolean unchanged(final BasicFileAttributes attrs) throws IOException {
+            if (compare == Compare.NONE) { return false; };
+            final BasicFileAttributes existing;
+            try { existing = Files.readAttributes(target, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS); } 
+            catch (NoSuchFileException e) { return false; }
+            if (!existing.isRegularFile() || existing.size() != attrs.size()) { return false; };
+            if (compare == Compare.METADATA || compare == Compare.DELTA) { return existing.lastModifiedTime().toMillis() == attrs.lastModifiedTime().toMillis(); };
+            return Arrays.equals(digest(source), digest(target));
+        };
+
+        private static byte[] digest(final Path file) throws IOException {
+            final MessageDigest digest;
+            try { digest = MessageDigest.getInstance("SHA-256"); } 
+            catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+            final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                while (channel.read(buffer) != -1) { buffer.flip(); digest.update(buffer); buffer.clear(); };
+            };
+            return digest.digest();
+        };
     };
-};
\ No newline at end of file
+
+
+
+    // 增量同步模式
+    public enum Delta { IN_PLACE, REBUILD };
+
+    private static final int SYNC_BLOCK = 64 * 1024;
+    private static final int SYNC_CHUNK = 64;
+
+
+
+    // 增量同步统计
+    public static class SyncStats {
+        private final long start = System.nanoTime();
+        private final LongAdder matched = new LongAdder();
+        private final LongAdder written = new LongAdder();
+        private volatile long end;
+
+        void finish() { end = System.nanoTime(); };
+
+
+        /**
+         * 获取与目标文件相同、未重写的字节数。
+         *
+         * @return 字节数。
+         */
+        public long matched() { return matched.sum(); };
+
+
+        /**
+         * 获取实际写入的字节数。
+         *
+         * @return 字节数。
+         */
+        public long written() { return written.sum(); };
+
+
+        /**
+         * 获取已用时间。
+         *
+         * @return 毫秒数。
+         */
+        public long elapsedMillis() { return TimeUnit.NANOSECONDS.toMillis((end != 0 ? end : System.nanoTime()) - start); };
+
+
+        @Override
+        public String toString() { return String.format("复用 %.1f MB，写入 %.1f MB，用时 %d 毫秒", matched() / 1048576.0, written() / 1048576.0, elapsedMillis()); };
+    };
+
+
+
+    // 目标文件的块签名：弱校验和用开放寻址链表索引，强校验和为 MD5，只对完整的块建立签名
+    private static class Signatures {
+        private final int blockSize;
+        private final int[] weak;
+        private final byte[] strong;
+        private final int[] heads;
+        private final int[] next;
+
+        Signatures(final FileChannel channel, final int blockSize, final boolean parallel) throws IOException {
+            final long count = channel.size() / blockSize;
+            if (count > Integer.MAX_VALUE / 16) { throw new IllegalArgumentException("blockSize is too small for this file"); };
+            this.blockSize = blockSize;
+            this.weak = new int[(int) count];
+            this.strong = new byte[(int) count * 16];
+            this.next = new int[(int) count];
+            this.heads = new int[Integer.highestOneBit(Math.max(1, (int) count)) << 1];
+            Arrays.fill(heads, -1);
+
+            IntStream range = IntStream.range(0, (int) ((count + SYNC_CHUNK - 1) / SYNC_CHUNK));
+            if (parallel) { range = range.parallel(); };
+            range.forEach(chunk -> {
+                final ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+                final MessageDigest md5 = md5();
+                try {
+                    for (int block = chunk * SYNC_CHUNK; block < Math.min(count, (long) (chunk + 1) * SYNC_CHUNK); block++) {
+                        read(channel, buffer, (long) block * blockSize, blockSize);
+                        final byte[] bytes = buffer.array();
+                        int a = 0, b = 0;
+                        for (int i = 0; i < blockSize; i++) { final int x = bytes[i] & 0xff; a += x; b += (blockSize - i) * x; };
+                        weak[block] = (a & 0xffff) | (b << 16);
+                        md5.update(bytes, 0, blockSize);
+                        md5.digest(strong, block * 16, 16);
+                    };
+                } catch (IOException | DigestException e) { throw new UncheckedIOException(new IOException(e)); }
+            });
+            // 倒序插入，使链表按块序号递增，相同内容优先复用靠前的块
+            for (int block = (int) count - 1; block >= 0; block--) {
+                final int slot = weak[block] & (heads.length - 1);
+                next[block] = heads[slot];
+                heads[slot] = block;
+            };
+        };
+
+
+        // 查找与窗口内容相同的块，弱校验和命中后才计算窗口的 MD5，返回块序号，未找到时返回 -1
+        int find(final int checksum, final byte[] window, final int from, final MessageDigest md5, final byte[] digest) {
+            boolean hashed = false;
+            for (int block = heads[checksum & (heads.length - 1)]; block >= 0; block = next[block]) {
+                if (weak[block] != checksum) { continue; };
+                if (!hashed) {
+                    md5.update(window, from, blockSize);
+                    try { md5.digest(digest, 0, 16); } catch (DigestException e) { throw new IllegalStateException(e); }
+                    hashed = true;
+                };
+                boolean same = true;
+                for (int i = 0; i < 16 && same; i++) { same = strong[block * 16 + i] == digest[i]; };
+                if (same) { return block; };
+            };
+            return -1;
+        };
+    };
+
+
+
+    // 内容摘要算法：SHA256 用于需要抗碰撞的场景，XXH64 速度接近内存带宽，用于去重与变化检测
+    public enum Hash { SHA256, XXH64 };
+
+    private static final int HASH_MAGIC = 0x48534831;
+    private static final ThreadLocal<ByteBuffer> HASH_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(1024 * 1024));
+
+
+
+    // 文件夹摘要结果
+    public static class Hashes {
+        private final long start = System.nanoTime();
+        private final Map<String, String> digests = new TreeMap<>();
+        private final LongAdder hashed = new LongAdder();
+        private final LongAdder cached = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private long end;
+
+        void finish() { end = System.nanoTime(); };
+
+
+        /**
+         * 获取所有文件的摘要。
+         *
+         * @return 以相对路径（分隔符为 /）排序的十六进制摘要。
+         */
+        public Map<String, String> digests() { return Collections.unmodifiableMap(digests); };
+
+
+        /**
+         * 查找内容相同的文件。
+         *
+         * @return 摘要到相对路径列表的映射，只包含两个及以上文件共享的摘要。
+         */
+        public Map<String, List<String>> duplicates() {
+            final Map<String, List<String>> groups = new TreeMap<>();
+            for (Map.Entry<String, String> entry : digests.entrySet()) { groups.computeIfAbsent(entry.getValue(), key -> new ArrayList<>()).add(entry.getKey()); };
+            groups.values().removeIf(paths -> paths.size() < 2);
+            return groups;
+        };
+
+
+        /**
+         * 获取本次实际读取并计算的文件数。
+         *
+         * @return 文件数。
+         */
+        public long hashed() { return hashed.sum(); };
+
+
+        /**
+         * 获取直接使用缓存摘要的文件数。
+         *
+         * @return 文件数。
+         */
+        public long cached() { return cached.sum(); };
+
+
+        /**
+         * 获取读取失败的文件数。
+         *
+         * @return 文件数。
+         */
+        public long failed() { return failed.sum(); };
+
+
+        /**
+         * 获取本次读取的字节数。
+         *
+         * @return 字节数。
+         */
+        public long bytes() { return bytes.sum(); };
+
+
+        /**
+         * 获取已用时间。
+         *
+         * @return 毫秒数。
+         */
+        public long elapsedMillis() { return TimeUnit.NANOSECONDS.toMillis(end - start); };
+
+
+        @Override
+        public String toString() {
+            return String.format("计算 %d 个文件，缓存 %d 个，失败 %d 个，读取 %.1f MB，用时 %d 毫秒", hashed(), cached(), failed(), bytes() / 1048576.0, elapsedMillis());
+        };
+    };
+
+
+
+    // 摘要缓存条目
+    private static class HashEntry {
+        private final long size;
+        private final long mtime;
+        private final byte[] digest;
+        HashEntry(final long size, final long mtime, final byte[] digest) { this.size = size; this.mtime = mtime; this.digest = digest; };
+    };
+
+
+
+    // XXH64（种子为 0）：每次 update 只消费完整的 32 字节条带，剩余字节留在缓冲区中，由调用方 compact 后与下一次读取拼接
+    private static class XxHash64 {
+        private static final long P1 = 0x9E3779B185EBCA87L;
+        private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+        private static final long P3 = 0x165667B19E3779F9L;
+        private static final long P4 = 0x85EBCA77C2B2AE63L;
+        private static final long P5 = 0x27D4EB2F165667C5L;
+
+        private long v1 = P1 + P2, v2 = P2, v3 = 0, v4 = -P1;
+        private long total;
+
+        void update(final ByteBuffer buffer) {
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            int position = buffer.position();
+            final int limit = buffer.limit();
+            while (limit - position >= 32) {
+                v1 = round(v1, buffer.getLong(position));
+                v2 = round(v2, buffer.getLong(position + 8));
+                v3 = round(v3, buffer.getLong(position + 16));
+                v4 = round(v4, buffer.getLong(position + 24));
+                position += 32;
+            };
+            total += position - buffer.position();
+            buffer.position(position);
+        };
+
+        long digest(final ByteBuffer tail) {
+            tail.order(ByteOrder.LITTLE_ENDIAN);
+            long h;
+            if (total >= 32) {
+                h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                h = merge(h, v1); h = merge(h, v2); h = merge(h, v3); h = merge(h, v4);
+            } else { h = P5; };
+            h += total + tail.remaining();
+            while (tail.remaining() >= 8) { h ^= round(0, tail.getLong()); h = Long.rotateLeft(h, 27) * P1 + P4; };
+            if (tail.remaining() >= 4) { h ^= (tail.getInt() & 0xFFFFFFFFL) * P1; h = Long.rotateLeft(h, 23) * P2 + P3; };
+            while (tail.hasRemaining()) { h ^= (tail.get() & 0xFF) * P5; h = Long.rotateLeft(h, 11) * P1; };
+            h ^= h >>> 33; h *= P2;
+            h ^= h >>> 29; h *= P3;
+            h ^= h >>> 32;
+            return h;
+        };
+
+        private static long round(final long acc, final long input) { return Long.rotateLeft(acc + input * P2, 31) * P1; };
+
+        private static long merge(final long h, final long v) { return (h ^ round(0, v)) * P1 + P4; };
+    };
+
+
+
+    // 文件变化类型
+    public enum Kind { CREATE, MODIFY, DELETE };
+
+
+
+    // 一条合并后的文件变化
+    public static class Change {
+        /** 变化的绝对路径 */
+        public final Path path;
+        /** 变化类型 */
+        public final Kind kind;
+
+        Change(final Path path, final Kind kind) { this.path = path; this.kind = kind; };
+
+        @Override
+        public String toString() { return kind + " " + path; };
+    };
+
+
+
+    // 文件夹监听：监听线程同时负责接收事件与按防抖时间交付批次；维护文件夹下所有路径的修改时间快照，
+    // 事件溢出时只重新扫描溢出的子文件夹并与快照比较，新建的子文件夹同样通过扫描补齐注册前产生的变化
+    public static class Watcher implements Closeable {
+        private static final long DIRECTORY = Long.MIN_VALUE;
+
+        private final Path root;
+        private final WatchService service;
+        private final long debounceNanos;
+        private final Consumer<List<Change>> listener;
+        private final TreeMap<String, Long> snapshot = new TreeMap<>();
+        private final LinkedHashMap<Path, Kind> pending = new LinkedHashMap<>();
+        private final Thread thread;
+        private long first, last;
+
+        Watcher(final Path root, final long debounceMillis, final Consumer<List<Change>> listener) throws IOException {
+            if (!Files.isDirectory(root)) { throw new NoSuchFileException(root.toString()); };
+            this.root = root;
+            this.service = root.getFileSystem().newWatchService();
+            this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+            this.listener = listener;
+            try { scan(root, false); } 
+            catch (IOException e) { service.close(); throw e; }
+            this.thread = new Thread(this::loop, "file-watch");
+            this.thread.setDaemon(true);
+            this.thread.start();
+        };
+
+
+        /**
+         * 停止监听，尚未交付的变化被丢弃。
+         */
+        @Override
+        public void close() {
+            try { service.close(); } catch (IOException e) { Log.error("关闭文件夹监听失败: {}", e.getMessage()); }
+        };
+
+
+        private void loop() {
+            try {
+                while (true) {
+                    final WatchKey key;
+                    if (pending.isEmpty()) { key = service.take(); } 
+                    else {
+                        final long now = System.nanoTime();
+                        final long due = Math.min(last + debounceNanos, first + 10 * debounceNanos);
+                        key = now - due >= 0 ? null : service.poll(due - now, TimeUnit.NANOSECONDS);
+                        if (key == null) { deliver(); continue; };
+                    };
+                    // 取完本轮已就绪的全部 key，溢出的文件夹先收集起来，合并为最上层的文件夹后各扫描一次
+                    final Set<Path> overflowed = new HashSet<>();
+                    for (WatchKey next = key; next != null; next = service.poll()) {
+                        if (!handle(next, overflowed)) { deliver(); return; };
+                    };
+                    for (Path dir : topmost(overflowed)) { rescan(dir); };
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) { return; }
+        };
+
+
+        // 处理一个 key 的事件，溢出的文件夹记入 overflowed；根文件夹失效时返回 false
+        private boolean handle(final WatchKey key, final Set<Path> overflowed) {
+            final Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) { overflowed.add(dir); continue; };
+                final Path changed = dir.resolve((Path) event.context());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) { removed(changed); continue; };
+                if (!Files.isDirectory(changed, LinkOption.NOFOLLOW_LINKS)) { changed(changed); } 
+                else if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) { rescan(changed); };
+            };
+            return key.reset() || !dir.equals(root);
+        };
+
+
+        // 去掉祖先文件夹也在集合中的文件夹，上层的扫描已经覆盖它们
+        private static List<Path> topmost(final Set<Path> dirs) {
+            if (dirs.size() < 2) { return new ArrayList<>(dirs); };
+            final List<Path> sorted = new ArrayList<>(dirs);
+            sorted.sort((a, b) -> a.getNameCount() - b.getNameCount());
+            final List<Path> top = new ArrayList<>();
+            for (Path dir : sorted) {
+                boolean covered = false;
+                for (Path parent : top) { if (dir.startsWith(parent)) { covered = true; break; }; };
+                if (!covered) { top.add(dir); };
+            };
+            return top;
+        };
+
+
+        // 重新扫描子文件夹：注册其中尚未监听的文件夹，与快照比较得出新建、修改与删除
+        private void rescan(final Path dir) {
+            final String prefix = dir.toString();
+            final Set<String> before = new HashSet<>(under(prefix).keySet());
+            if (snapshot.containsKey(prefix)) { before.add(prefix); };
+            try { before.removeAll(scan(dir, true)); } 
+            catch (IOException e) { Log.warn("扫描文件夹失败: {}: {}", dir, e.toString()); return; }
+            for (String gone : before) { snapshot.remove(gone); record(Paths.get(gone), Kind.DELETE); };
+        };
+
+
+        // 遍历文件夹，注册子文件夹并更新快照，report 为 true 时把与快照不同的路径记为变化；返回遍历到的路径
+        private Set<String> scan(final Path dir, final boolean report) throws IOException {
+            final Set<String> seen = new HashSet<>();
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path subDir, BasicFileAttributes attrs) throws IOException {
+                    subDir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                    update(subDir, DIRECTORY);
+                    return FileVisitResult.CONTINUE;
+                };
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    update(file, attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+                    return FileVisitResult.CONTINUE;
+                };
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) { return FileVisitResult.CONTINUE; };
+
+                private void update(final Path path, final long mtime) {
+                    final String name = path.toString();
+                    seen.add(name);
+                    final Long previous = snapshot.put(name, mtime);
+                    if (!report) { return; };
+                    if (previous == null) { record(path, Kind.CREATE); } 
+                    else if (mtime != DIRECTORY && previous != mtime) { record(path, Kind.MODIFY); };
+                };
+            });
+            return seen;
+        };
+
+
+        private void changed(final Path file) {
+            final long mtime;
+            try { mtime = Files.getLastModifiedTime(file, LinkOption.NOFOLLOW_LINKS).to(TimeUnit.NANOSECONDS); } 
+            catch (IOException e) { return; }
+            final Long previous = snapshot.put(file.toString(), mtime);
+            record(file, previous == null ? Kind.CREATE : Kind.MODIFY);
+        };
+
+
+        // 删除的若是文件夹，其下所有已知路径一并记为删除
+        private void removed(final Path path) {
+            final String name = path.toString();
+            final SortedMap<String, Long> children = under(name);
+            for (String child : children.keySet()) { record(Paths.get(child), Kind.DELETE); };
+            children.clear();
+            if (snapshot.remove(name) != null) { record(path, Kind.DELETE); };
+        };
+
+
+        private SortedMap<String, Long> under(final String dir) {
+            final char separator = root.getFileSystem().getSeparator().charAt(0);
+            return snapshot.subMap(dir + separator, dir + (char) (separator + 1));
+        };
+
+
+        // 合并同一路径的变化：新建后删除相互抵消，删除后新建视为修改，其余保留更早的新建或更晚的删除
+        private void record(final Path path, final Kind kind) {
+            if (pending.isEmpty()) { first = System.nanoTime(); };
+            final Kind previous = pending.get(path);
+            final Kind merged;
+            if (previous == null) { merged = kind; } 
+            else if (previous == Kind.CREATE) { merged = kind == Kind.DELETE ? null : Kind.CREATE; } 
+            else if (previous == Kind.DELETE) { merged = kind == Kind.DELETE ? Kind.DELETE : Kind.MODIFY; } 
+            else { merged = kind; };
+            if (merged == null) { pending.remove(path); } 
+            else { pending.put(path, merged); };
+
+            last = System.nanoTime();
+        };
+
+
+        private void deliver() {
+            if (pending.isEmpty()) { return; };
+            final List<Change> batch = new ArrayList<>(pending.size());
+            for (Map.Entry<Path, Kind> entry : pending.entrySet()) { batch.add(new Change(entry.getKey(), entry.getValue())); };
+            pending.clear();
+            try { listener.accept(batch); } 
+            catch (RuntimeException e) { Log.error("文件夹监听器异常", e); }
+        };
+    };
+
+
+
+    // 查找与内容搜索的统计
+    public static class SearchStats {
+        private final long start = System.nanoTime();
+        private final LongAdder matched = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private volatile long end;
+
+        void finish() { end = System.nanoTime(); };
+
+
+        /**
+         * 获取匹配数，find 为找到的文件数，grep 为匹配的行数。
+         *
+         * @return 匹配数。
+         */
+        public long matched() { return matched.sum(); };
+
+
+        /**
+         * 获取无法读取的文件与文件夹数，不为 0 时结果不完整。
+         *
+         * @return 失败数。
+         */
+        public long failed() { return failed.sum(); };
+
+
+        /**
+         * 获取已用时间。
+         *
+         * @return 毫秒数。
+         */
+        public long elapsedMillis() { return TimeUnit.NANOSECONDS.toMillis((end != 0 ? end : System.nanoTime()) - start); };
+
+
+        @Override
+        public String toString() { return String.format("匹配 %d 个，失败 %d 个，用时 %d 毫秒", matched(), failed(), elapsedMillis()); };
+    };
+
+
+
+    // 内容搜索结果
+    public static class Match {
+        /** 文件路径 */
+        public final Path path;
+        /** 行号，从 1 开始 */
+        public final long line;
+        /** 匹配行的内容，不含换行符 */
+        public final String text;
+
+        Match(final Path path, final long line, final String text) { this.path = path; this.line = line; this.text = text; };
+
+        @Override
+        public String toString() { return path + ":" + line + ":" + text; };
+    };
+
+
+
+    // 查找任务：文件夹任务把子文件夹拆分为子任务；文件在当前任务中处理，或在 forkFiles 时拆分为单独的任务以便内容搜索均衡负载
+    private static class SearchTask extends CountedCompleter<Void> {
+        private static final long serialVersionUID = 1L;
+        private final Path path;
+        private final int depth;
+        private final boolean directory;
+        private final Scope scope;
+
+        SearchTask(final SearchTask parent, final Path path, final int depth, final boolean directory, final Scope scope) {
+            super(parent);
+            this.path = path;
+            this.depth = depth;
+            this.directory = directory;
+            this.scope = scope;
+        };
+
+        @Override
+        public void compute() {
+            if (!directory) { run(path); } 
+            else {
+                try (DirectoryStream<Path> children = Files.newDirectoryStream(path)) {
+                    for (Path child : children) {
+                        final BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        if (attrs.isDirectory()) {
+                            if (depth + 1 < scope.maxDepth) { addToPendingCount(1); new SearchTask(this, child, depth + 1, true, scope).fork(); };
+                        } else if (attrs.isRegularFile() && scope.filter.test(child)) {
+                            if (scope.forkFiles) { addToPendingCount(1); new SearchTask(this, child, depth + 1, false, scope).fork(); } 
+                            else { run(child); };
+                        };
+                    };
+                } catch (IOException | RuntimeException e) {
+                    scope.stats.failed.increment();
+                    Log.error("读取文件夹失败: {}: {}", path, e.toString());
+                };
+            };
+            tryComplete();
+        };
+
+        private void run(final Path file) {
+            try { scope.action.accept(file); } 
+            catch (RuntimeException e) {
+                scope.stats.failed.increment();
+                Log.error("处理文件失败: " + file, e);
+            }
+        };
+
+
+        // 一次查找共享的参数
+        static class Scope {
+            private final Predicate<Path> filter;
+            private final int maxDepth;
+            private final boolean forkFiles;
+            private final SearchStats stats;
+            private final Consumer<Path> action;
+
+            Scope(final Predicate<Path> filter, final int maxDepth, final boolean forkFiles, final SearchStats stats, final Consumer<Path> action) {
+                this.filter = filter;
+                this.maxDepth = maxDepth;
+                this.forkFiles = forkFiles;
+                this.stats = stats;
+                this.action = action;
+            };
+        };
+    };
+
+
+
+    // Boyer-Moore-Horspool 字面查找：直接在文件字节上匹配 UTF-8 编码的查询内容，小文件读入堆缓冲区，大文件映射到内存
+    private static class Horspool {
+        private static final int MAP_THRESHOLD = 256 * 1024;
+        private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(MAP_THRESHOLD));
+        private final byte[] needle;
+        private final int[] shift = new int[256];
+
+        Horspool(final byte[] needle) {
+            if (needle.length == 0) { throw new IllegalArgumentException("needle must not be empty"); };
+            this.needle = needle;
+            Arrays.fill(shift, needle.length);
+            for (int i = 0; i < needle.length - 1; i++) { shift[needle[i] & 0xff] = needle.length - 1 - i; };
+        };
+
+        void search(final Path file, final Consumer<Match> emit) throws IOException {
+            final ByteBuffer bytes;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                final long size = channel.size();
+                if (size < needle.length) { return; };
+                if (size >= MAP_THRESHOLD) { bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size); } 
+                else {
+                    bytes = BUFFER.get();
+                    bytes.clear();
+                    while (bytes.position() < size && channel.read(bytes) > 0) { };
+                    bytes.flip();
+                };
+            };
+            try { scan(file, bytes, emit); } 
+            finally { if (bytes instanceof MappedByteBuffer) { Region.release((MappedByteBuffer) bytes); }; }
+        };
+
+        private void scan(final Path file, final ByteBuffer bytes, final Consumer<Match> emit) {
+            final int length = bytes.limit();
+            if (binary(bytes, length)) { return; };
+
+            final int last = needle.length - 1;
+            final byte tail = needle[last];
+            long line = 1;
+            int counted = 0, i = 0;
+            while (i <= length - needle.length) {
+                final byte b = bytes.get(i + last);
+                if (b == tail && matches(bytes, i)) {
+                    // 与 LineReader 相同的换行规则：\n、\r\n 与单独的 \r 都结束一行
+                    int start = i, end = i + needle.length;
+                    while (start > 0 && !terminator(bytes.get(start - 1))) { start--; };
+                    while (end < length && !terminator(bytes.get(end))) { end++; };
+                    for (int k = counted; k < start; k++) {
+                        final byte c = bytes.get(k);
+                        if (c == '\n' || (c == '\r' && (k + 1 >= length || bytes.get(k + 1) != '\n'))) { line++; };
+                    };
+                    counted = start;
+                    final byte[] text = new byte[end - start];
+                    for (int k = 0; k < text.length; k++) { text[k] = bytes.get(start + k); };
+                    emit.accept(new Match(file, line, new String(text, StandardCharsets.UTF_8)));
+                    // 每行只报告一次，从下一行继续
+                    i = end < length - 1 && bytes.get(end) == '\r' && bytes.get(end + 1) == '\n' ? end + 2 : end + 1;
+                    continue;
+                };
+                i += shift[b & 0xff];
+            };
+        };
+
+        private static boolean terminator(final byte b) { return b == '\n' || b == '\r'; };
+
+        private boolean matches(final ByteBuffer bytes, final int at) {
+            for (int j = needle.length - 2; j >= 0; j--) {
+                if (bytes.get(at + j) != needle[j]) { return false; };
+            };
+            return true;
+        };
+    };
+
+
+
+    // 删除统计，后台删除时可随时读取
+    public static class DeleteStats {
+        private final long start = System.nanoTime();
+        private final LongAdder files = new LongAdder();
+        private final LongAdder directories = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final ForkJoinPool pool;
+        private volatile long end;
+
+        DeleteStats(final ForkJoinPool pool) { this.pool = pool; };
+
+        void finish() { end = System.nanoTime(); pool.shutdown(); done.countDown(); };
+
+
+        /**
+         * 等待删除完成。
+         *
+         * @param timeoutMillis 最长等待时间（毫秒），小于等于 0 表示一直等待。
+         * @return 如果删除已完成返回 true，否则返回 false。
+         */
+        public boolean await(final long timeoutMillis) {
+            try {
+                if (timeoutMillis > 0) { return done.await(timeoutMillis, TimeUnit.MILLISECONDS); };
+                done.await();
+                return true;
+            } catch (InterruptedException e) { Thread.currentThread().interrupt(); return false; }
+        };
+
+
+        /**
+         * 判断删除是否已完成。
+         *
+         * @return 如果已完成返回 true，否则返回 false。
+         */
+        public boolean done() { return done.getCount() == 0; };
+
+
+        /**
+         * 获取已删除的文件数。
+         *
+         * @return 文件数。
+         */
+        public long files() { return files.sum(); };
+
+
+        /**
+         * 获取已删除的文件夹数。
+         *
+         * @return 文件夹数。
+         */
+        public long directories() { return directories.sum(); };
+
+
+        /**
+         * 获取删除失败的文件与文件夹数。
+         *
+         * @return 失败数。
+         */
+        public long failed() { return failed.sum(); };
+
+
+        /**
+         * 获取已用时间，删除完成后不再变化。
+         *
+         * @return 毫秒数。
+         */
+        public long elapsedMillis() { return TimeUnit.NANOSECONDS.toMillis((end != 0 ? end : System.nanoTime()) - start); };
+
+
+        @Override
+        public String toString() {
+            return String.format("删除 %d 个文件，文件夹 %d 个，失败 %d 个，用时 %d 毫秒%s", files(), directories(), failed(), elapsedMillis(), done() ? "" : "（进行中）");
+        };
+    };
+
+
+
+    // 删除任务：文件夹任务删除直接包含的文件，子文件夹与大批文件拆分为子任务，全部子任务完成后在 onCompletion 中删除文件夹本身
+    private static class DeleteTask extends CountedCompleter<Void> {
+        private static final long serialVersionUID = 1L;
+        private static final int BATCH = 512;
+        private final Path directory;
+        private final Path[] batch;
+        private final DeleteStats stats;
+
+        DeleteTask(final DeleteTask parent, final Path directory, final Path[] batch, final DeleteStats stats) {
+            super(parent);
+            this.directory = directory;
+            this.batch = batch;
+            this.stats = stats;
+        };
+
+        @Override
+        public void compute() {
+            if (batch != null) { deleteFiles(batch, batch.length); } 
+            else {
+                final Path[] files = new Path[BATCH];
+                int count = 0;
+                try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+                    for (Path child : children) {
+                        if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) { fork(child, null); continue; };
+                        files[count++] = child;
+                        if (count == BATCH) { fork(null, files.clone()); count = 0; };
+                    };
+                } catch (IOException | RuntimeException e) {
+                    stats.failed.increment();
+                    Log.error("读取文件夹失败: {}: {}", directory, e.toString());
+                };
+                deleteFiles(files, count);
+            };
+            tryComplete();
+        };
+
+        @Override
+        public void onCompletion(final CountedCompleter<?> caller) {
+            if (batch == null) {
+                try { Files.delete(directory); stats.directories.increment(); } 
+                catch (IOException | RuntimeException e) { stats.failed.increment(); Log.error("删除文件夹失败: {}: {}", directory, e.toString()); }
+            };
+            if (getCompleter() == null) { stats.finish(); };
+        };
+
+        private void fork(final Path child, final Path[] files) {
+            addToPendingCount(1);
+            new DeleteTask(this, child, files, stats).fork();
+        };
+
+        private void deleteFiles(final Path[] files, final int count) {
+            for (int i = 0; i < count; i++) {
+                try { Files.delete(files[i]); stats.files.increment(); } 
+                catch (IOException | RuntimeException e) { stats.failed.increment(); Log.error("删除文件失败: {}: {}", files[i], e.toString()); }
+            };
+        };
+    };
+
+
+
+    // 内存映射区域：文件按 1GB 窗口在首次访问时映射，相邻窗口重叠 8 字节，使任何 int/long 都落在单个窗口内；
+    // 读写均为绝对偏移，不改变缓冲区状态，多个线程可以同时读写；字节顺序为大端，与 DataOutputStream 一致
+    public static class Region implements Closeable {
+        private static final int SHIFT = 30;
+        private static final long WINDOW = 1L << SHIFT;
+        private static final int OVERLAP = Long.BYTES;
+        private static final Object UNSAFE = unsafe();
+
+        private final FileChannel channel;
+        private final boolean writable;
+        private final long size;
+        private final AtomicReferenceArray<MappedByteBuffer> windows;
+        private volatile boolean closed;
+
+        Region(final FileChannel channel, final boolean writable, final long size) {
+            this.channel = channel;
+            this.writable = writable;
+            this.size = size;
+            this.windows = new AtomicReferenceArray<>((int) Math.max(1, (size + WINDOW - 1) >>> SHIFT));
+        };
+
+
+        /**
+         * 获取映射区域大小。
+         *
+         * @return 字节数。
+         */
+        public long size() { return size; };
+
+
+        /**
+         * 读取一个字节。
+         *
+         * @param offset 文件内偏移量。
+         * @return 字节值。
+         */
+        public byte getByte(final long offset) { return window(offset, Byte.BYTES).get((int) (offset & (WINDOW - 1))); };
+
+
+        /**
+         * 读取一个 int。
+         *
+         * @param offset 文件内偏移量。
+         * @return int 值。
+         */
+        public int getInt(final long offset) { return window(offset, Integer.BYTES).getInt((int) (offset & (WINDOW - 1))); };
+
+
+        /**
+         * 读取一个 long。
+         *
+         * @param offset 文件内偏移量。
+         * @return long 值。
+         */
+        public long getLong(final long offset) { return window(offset, Long.BYTES).getLong((int) (offset & (WINDOW - 1))); };
+
+
+        /**
+         * 读取一段字节，可以跨越窗口。
+         *
+         * @param offset 文件内偏移量。
+         * @param target 目标数组。
+         * @param from   目标数组起始位置。
+         * @param length 读取长度。
+         */
+        public void get(final long offset, final byte[] target, final int from, final int length) {
+            check(offset, length);
+            long position = offset;
+            int at = from, remaining = length;
+            while (remaining > 0) {
+                final int inWindow = (int) (position & (WINDOW - 1));
+                final int n = (int) Math.min(remaining, WINDOW - inWindow);
+                final ByteBuffer view = window(position, 0).duplicate();
+                view.position(inWindow);
+                view.get(target, at, n);
+                position += n; at += n; remaining -= n;
+            };
+        };
+
+
+        /**
+         * 读取一段字节。
+         *
+         * @param offset 文件内偏移量。
+         * @param length 读取长度。
+         * @return 新数组。
+         */
+        public byte[] get(final long offset, final int length) {
+            final byte[] bytes = new byte[length];
+            get(offset, bytes, 0, length);
+            return bytes;
+        };
+
+
+        /**
+         * 写入一个字节。
+         *
+         * @param offset 文件内偏移量。
+         * @param value  字节值。
+         */
+        public void putByte(final long offset, final byte value) { writableWindow(offset, Byte.BYTES).put((int) (offset & (WINDOW - 1)), value); };
+
+
+        /**
+         * 写入一个 int。
+         *
+         * @param offset 文件内偏移量。
+         * @param value  int 值。
+         */
+        public void putInt(final long offset, final int value) { writableWindow(offset, Integer.BYTES).putInt((int) (offset & (WINDOW - 1)), value); };
+
+
+        /**
+         * 写入一个 long。
+         *
+         * @param offset 文件内偏移量。
+         * @param value  long 值。
+         */
+        public void putLong(final long offset, final long value) { writableWindow(offset, Long.BYTES).putLong((int) (offset & (WINDOW - 1)), value); };
+
+
+        /**
+         * 写入一段字节，可以跨越窗口。
+         *
+         * @param offset 文件内偏移量。
+         * @param source 源数组。
+         * @param from   源数组起始位置。
+         * @param length 写入长度。
+         */
+        public void put(final long offset, final byte[] source, final int from, final int length) {
+            if (!writable) { throw new IllegalStateException("Region is read-only"); };
+            check(offset, length);
+            long position = offset;
+            int at = from, remaining = length;
+            while (remaining > 0) {
+                final int inWindow = (int) (position & (WINDOW - 1));
+                final int n = (int) Math.min(remaining, WINDOW - inWindow);
+                final ByteBuffer view = window(position, 0).duplicate();
+                view.position(inWindow);
+                view.put(source, at, n);
+                position += n; at += n; remaining -= n;
+            };
+        };
+
+
+        /**
+         * 写入一段字节。
+         *
+         * @param offset 文件内偏移量。
+         * @param source 源数组。
+         */
+        public void put(final long offset, final byte[] source) { put(offset, source, 0, source.length); };
+
+
+        /**
+         * 把已映射窗口中的修改写入存储设备。
+         */
+        public void force() {
+            if (!writable || closed) { return; };
+            for (int i = 0; i < windows.length(); i++) {
+                final MappedByteBuffer window = windows.get(i);
+                if (window != null) { window.force(); };
+            };
+        };
+
+
+        /**
+         * 解除所有窗口的映射，之后的访问会按需重新映射；调用方需保证此时没有其他线程正在访问。
+         */
+        public void unmap() {
+            for (int i = 0; i < windows.length(); i++) {
+                final MappedByteBuffer window = windows.getAndSet(i, null);
+                if (window != null) { release(window); };
+            };
+        };
+
+
+        /**
+         * 写入修改、解除映射并关闭文件；调用方需保证此时没有其他线程正在访问。
+         */
+        @Override
+        public void close() {
+            if (closed) { return; };
+            force();
+            closed = true;
+            unmap();
+            try { channel.close(); } catch (IOException e) { Log.error("关闭映射文件失败: {}", e.getMessage()); }
+        };
+
+
+        private ByteBuffer writableWindow(final long offset, final int length) {
+            if (!writable) { throw new IllegalStateException("Region is read-only"); };
+            return window(offset, length);
+        };
+
+
+        // 取出偏移量所在的窗口，未映射时映射；两个线程同时映射同一窗口时保留先写入的一个
+        private MappedByteBuffer window(final long offset, final int length) {
+            check(offset, length);
+            final int index = (int) (offset >>> SHIFT);
+            final MappedByteBuffer window = windows.get(index);
+            if (window != null) { return window; };
+            final long start = (long) index << SHIFT;
+            final MappedByteBuffer mapped;
+            try { mapped = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW + OVERLAP, size - start)); } 
+            catch (IOException e) { throw new UncheckedIOException("映射文件失败", e); }
+            if (windows.compareAndSet(index, null, mapped)) { return mapped; };
+            release(mapped);
+            return windows.get(index);
+        };
+
+
+        private void check(final long offset, final int length) {
+            if (closed) { throw new IllegalStateException("Region is closed"); };
+            if (offset < 0 || length < 0 || offset + length > size) { throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", size " + size); };
+        };
+
+
+        // 立即释放映射而不是等待 GC：Java 9 起使用 Unsafe.invokeCleaner，Java 8 使用 DirectBuffer 的 cleaner
+        private static void release(final MappedByteBuffer buffer) {
+            try {
+                if (UNSAFE != null) { UNSAFE.getClass().getMethod("invokeCleaner", ByteBuffer.class).invoke(UNSAFE, buffer); return; };
+                final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                final Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) { cleaner.getClass().getMethod("clean").invoke(cleaner); };
+            } catch (ReflectiveOperationException | RuntimeException e) { Log.debug("无法立即解除映射，等待 GC 回收: {}", e.toString()); }
+        };
+
+
+        private static Object unsafe() {
+            try {
+                final Class<?> type = Class.forName("sun.misc.Unsafe");
+                type.getMethod("invokeCleaner", ByteBuffer.class);
+                final Field field = type.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                return field.get(null);
+            } catch (ReflectiveOperationException | RuntimeException e) { return null; }
+        };
+    };
+
+
+
+    // 追加器的同步策略
+    public enum Sync { BATCH, INTERVAL, NONE };
+
+
+
+    // 追加器：生产者入队后立即返回，写出线程把队列中的行合并成大块写入，并按策略同步；flush 的调用方共享同一次同步
+    public static class Appender implements Closeable {
+        private static final int CAPACITY = 64 * 1024;
+        private static final byte[] NEW_LINE = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+        private final FileChannel channel;
+        private final Sync sync;
+        private final long intervalNanos;
+        private final ConcurrentLinkedQueue<Object> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicInteger adding = new AtomicInteger();
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+        private final Thread writer;
+        private volatile long written;
+        private volatile long synced;
+        private volatile long syncRequested;
+        private volatile boolean sleeping;
+        private volatile boolean closed;
+        private volatile boolean sealed;
+        private volatile IOException failure;
+        private long lastSync = System.nanoTime();
+
+        Appender(final Path path, final Sync sync, final long intervalMillis) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            this.sync = sync;
+            this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+            this.writer = new Thread(this::drainLoop, "file-appender");
+            this.writer.setDaemon(true);
+            this.writer.start();
+        };
+
+
+        /**
+         * 追加一行，队列已满时等待写出线程腾出空间。
+         *
+         * @param line 要追加的内容，自动添加换行符。
+         * @return 如果已入队返回 true，追加器已关闭或写入失败时返回 false。
+         */
+        public boolean add(final String line) {
+            // adding 与 closed 构成与 close 的握手：close 等到没有正在入队的生产者后才允许写出线程退出
+            adding.incrementAndGet();
+            try {
+                if (closed || failure != null) { return false; };
+                while (pending.incrementAndGet() > CAPACITY) {
+                    pending.decrementAndGet();
+                    LockSupport.unpark(writer);
+                    LockSupport.parkNanos(50_000);
+                    if (closed || failure != null) { return false; };
+                };
+                queue.offer(line);
+                if (sleeping) { LockSupport.unpark(writer); };
+                return true;
+            } finally { adding.decrementAndGet(); }
+        };
+
+
+        /**
+         * 等待此前追加的内容全部写出并同步到磁盘，多个线程同时调用时共享同一次同步。
+         */
+        public void flush() {
+            // 队列先进先出，写出线程取到票据时，调用前追加的所有行都已取出
+            final Ticket ticket = new Ticket();
+            queue.offer(ticket);
+            LockSupport.unpark(writer);
+            while (ticket.at < 0 || synced < ticket.at) {
+                if (failure != null) { throw new UncheckedIOException(failure); };
+                if (!writer.isAlive()) { throw new IllegalStateException("The appender is closed"); };
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(50_000);
+            };
+        };
+
+
+        /**
+         * 获取已写出的行数。
+         *
+         * @return 行数。
+         */
+        public long written() { return written; };
+
+
+        /**
+         * 写出剩余内容、同步并关闭文件。
+         */
+        @Override
+        public void close() {
+            if (closed) { return; };
+            closed = true;
+            while (adding.get() > 0) { LockSupport.parkNanos(10_000); };
+            syncRequested = Long.MAX_VALUE;
+            sealed = true;
+            LockSupport.unpark(writer);
+            try { writer.join(); } 
+            catch (InterruptedException e) { Thread.currentThread().interrupt(); };
+            try { channel.close(); } 
+            catch (IOException e) { Log.warn("关闭追加文件失败: {}", e.getMessage()); }
+        };
+
+
+        // 写出线程：一次取完队列中的所有行，写满缓冲区即写出，队列为空时按策略同步后休眠
+        private void drainLoop() {
+            long count = 0;
+            while (true) {
+                try {
+                    Object item;
+                    while ((item = queue.poll()) != null) {
+                        if (item instanceof Ticket) {
+                            if (syncRequested < count) { syncRequested = count; };
+                            ((Ticket) item).at = count;
+                            continue;
+                        };
+                        pending.decrementAndGet();
+                        put(((String) item).getBytes(StandardCharsets.UTF_8));
+                        put(NEW_LINE);
+                        count++;
+                    };
+                    if (buffer.position() > 0) { write(); written = count; };
+                    maybeSync(count);
+                } catch (IOException e) {
+                    failure = e;
+                    Log.error("追加写入失败: {}", e.getMessage());
+                    return;
+                };
+                if (sealed && queue.isEmpty()) { return; };
+                if (queue.isEmpty()) {
+                    sleeping = true;
+                    if (queue.isEmpty() && !sealed && syncRequested <= synced) { LockSupport.parkNanos(sync == Sync.INTERVAL ? Math.min(intervalNanos, 10_000_000) : 10_000_000); };
+                    sleeping = false;
+                };
+            }
+        };
+
+
+        private void put(final byte[] bytes) throws IOException {
+            if (bytes.length > buffer.remaining()) { write(); };
+            if (bytes.length > buffer.capacity()) { final ByteBuffer large = ByteBuffer.wrap(bytes); while (large.hasRemaining()) { channel.write(large); }; return; };
+            buffer.put(bytes);
+        };
+
+
+        private void write() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) { channel.write(buffer); };
+            buffer.clear();
+        };
+
+
+        // flush 放入队列的票据，写出线程取到时记下此前取出的行数
+        private static class Ticket {
+            private volatile long at = -1;
+        };
+
+
+        // 按策略决定是否同步；有线程在 flush 中等待时总是同步
+        private void maybeSync(final long count) throws IOException {
+            if (synced == count && syncRequested <= count) { return; };
+            final long now = System.nanoTime();
+            final boolean due = syncRequested > synced
+                || (sync == Sync.BATCH && count > synced)
+                || (sync == Sync.INTERVAL && count > synced && now - lastSync >= intervalNanos);
+            if (!due) { return; };
+            if (sync != Sync.NONE || syncRequested > synced) { channel.force(false); };
+            lastSync = now;
+            synced = count;
+        };
+    };
+
+
+
+    // 按行读取器：大文件按窗口内存映射，小文件使用堆缓冲区；解码到可增长的字符缓冲区后按换行切分
+    private static class LineReader implements Closeable {
+        private static final long MAP_THRESHOLD = 16L * 1024 * 1024;
+        private static final long WINDOW = 64L * 1024 * 1024;
+
+        private final FileChannel channel;
+        private final long size;
+        private final boolean mapped;
+        private final CharsetDecoder decoder;
+        private ByteBuffer bytes;
+        private long windowStart;
+        private char[] chars = new char[64 * 1024];
+        private int start, scan, limit;
+        private boolean eof;
+        private final Line line = new Line();
+
+        LineReader(final Path path, final Charset charset) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                this.size = channel.size();
+                this.mapped = size >= MAP_THRESHOLD;
+                this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+                if (mapped) { bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(WINDOW, size)); } 
+                else { bytes = ByteBuffer.allocate(64 * 1024); bytes.flip(); };
+            } catch (IOException | RuntimeException e) { channel.close(); throw e; }
+        };
+
+
+        // 前进到下一行，成功时 line 指向该行内容
+        boolean next() throws IOException {
+            while (true) {
+                int i = scan;
+                for (; i < limit; i++) {
+                    final char c = chars[i];
+                    if (c != '\n' && c != '\r') { continue; };
+                    if (c == '\r' && i + 1 == limit && !eof) { break; };
+                    line.set(chars, start, i - start);
+                    start = i + (c == '\r' && i + 1 < limit && chars[i + 1] == '\n' ? 2 : 1);
+                    scan = start;
+                    return true;
+                };
+                scan = i;
+                if (eof) {
+                    if (start == limit) { return false; };
+                    line.set(chars, start, limit - start);
+                    start = scan = limit;
+                    return true;
+                };
+                fill();
+            }
+        };
+
+
+        // 把未完成的行移到缓冲区开头，再解码更多字符；剩余空间放不下一个代理对、或解码器因空间不足没有进展时扩容
+        private void fill() throws IOException {
+            if (start > 0) {
+                System.arraycopy(chars, start, chars, 0, limit - start);
+                scan -= start;
+                limit -= start;
+                start = 0;
+            };
+            if (chars.length - limit < 2) { grow(); };
+
+            while (true) {
+                final CharBuffer out = CharBuffer.wrap(chars, limit, chars.length - limit);
+                final CoderResult result = decoder.decode(bytes, out, false);
+                if (out.position() > limit) { limit = out.position(); return; };
+                if (result.isOverflow()) { grow(); continue; };
+                if (!refill()) { finish(); return; };
+            }
+        };
+
+
+        // 输入结束：解码剩余字节并冲刷解码器，空间不足时扩容后继续
+        private void finish() {
+            while (true) {
+                final CharBuffer out = CharBuffer.wrap(chars, limit, chars.length - limit);
+                CoderResult result = decoder.decode(bytes, out, true);
+                if (result.isUnderflow()) { result = decoder.flush(out); };
+                limit = out.position();
+                if (!result.isOverflow()) { break; };
+                grow();
+            };
+            eof = true;
+        };
+
+
+        private void grow() { chars = Arrays.copyOf(chars, chars.length * 2); };
+
+
+        // 读取更多字节，未解码完的半个字符保留在新缓冲区开头；只有读到文件末尾才返回 false
+        // 映射新窗口后立即释放旧窗口，否则每个 64MB 窗口都要等 GC 才解除映射
+        private boolean refill() throws IOException {
+            if (mapped) {
+                if (windowStart + bytes.limit() >= size) { return false; };
+                final MappedByteBuffer previous = (MappedByteBuffer) bytes;
+                final long next = windowStart + previous.position();
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, next, Math.min(WINDOW, size - next));
+                windowStart = next;
+                Region.release(previous);
+                return true;
+            };
+            bytes.compact();
+            final int n = channel.read(bytes);
+            bytes.flip();
+            return n != -1;
+        };
+
+
+        @Override
+        public void close() {
+            if (mapped && bytes != null) { Region.release((MappedByteBuffer) bytes); bytes = null; };
+            try { channel.close(); } 
+            catch (IOException e) { Log.warn("关闭文件失败: {}", e.getMessage()); }
+        };
+    };
+
+
+
+    // 指向字符缓冲区中一行的可复用视图
+    private static class Line implements CharSequence {
+        private char[] chars;
+        private int offset;
+        private int length;
+
+        void set(final char[] chars, final int offset, final int length) { this.chars = chars; this.offset = offset; this.length = length; };
+
+        @Override
+        public int length() { return length; };
+
+        @Override
+        public char charAt(final int index) {
+            if (index < 0 || index >= length) { throw new IndexOutOfBoundsException("index: " + index + ", length: " + length); };
+            return chars[offset + index];
+        };
+
+        @Override
+        public CharSequence subSequence(final int from, final int to) {
+            if (from < 0 || to > length || from > to) { throw new IndexOutOfBoundsException("from: " + from + ", to: " + to + ", length: " + length); };
+            return CharBuffer.wrap(chars, offset + from, to - from);
+        };
+
+        @Override
+        public String toString() { return new String(chars, offset, length); };
+    };
+};
+
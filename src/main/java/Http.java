@@ -80,7 +80,7 @@ public class Http {
     public static String get(final String urlStr) {
         try { return sendRequest(urlStr, "GET", null, null); } 
         catch (IOException e) {
-            e.printStackTrace();
+            Log.error("GET 请求失败", e);
             return null;
         }
     };
@@ -101,7 +101,7 @@ public class Http {
     public static String post(final String urlStr, final String urlParameters) {
         try { return sendRequest(urlStr, "POST", urlParameters, null); } 
         catch (IOException e) {
-            e.printStackTrace();
+            Log.error("POST 请求失败", e);
             return null;
         }
     };
@@ -189,7 +189,7 @@ public class Http {
                 // 使用一个单独的线程来接收数据包并处理图像
                 final Thread receiverThread = new Thread(this::receiveData);
                 receiverThread.start();
-            } catch (IOException e) { e.printStackTrace(); };
+            } catch (IOException e) { Log.error("启动监控服务器失败", e); };
         };
     
 
@@ -225,12 +225,12 @@ public class Http {
                             };
                         } catch (IIOException e) {
                             // 处理JPEG文件结构错误
-                            System.err.println("JPEG文件结构错误: " + e.getMessage());
+                            Log.warn("JPEG文件结构错误: {}", e.getMessage());
                             synchronized (lock) { imageBuffer = new byte[0]; } // 清空缓冲区
                         }
                     };
                 }
-            } catch (IOException e) { e.printStackTrace(); };
+            } catch (IOException e) { Log.error("接收图像数据失败", e); };
         };
 
 
@@ -338,7 +338,7 @@ public class Http {
                 screenRect = new Rectangle(0, 0, width, height); // 创建截图区域
 
                 initializeImageWriter();
-            } catch (Exception e) { e.printStackTrace(); }
+            } catch (Exception e) { Log.error("初始化截图区域失败", e); }
         };
 
 
@@ -369,7 +369,7 @@ public class Http {
                 screenRect = new Rectangle(0, 0, width, height); // 创建截图区域
 
                 initializeImageWriter();
-            } catch (Exception e) { e.printStackTrace(); }
+            } catch (Exception e) { Log.error("初始化截图区域失败", e); }
         };
 
 
@@ -387,7 +387,7 @@ public class Http {
                 writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
                 writeParam.setCompressionQuality(compressionQuality);
                 byteArrayOutputStream = new ByteArrayOutputStream();
-            } catch (IOException e) { e.printStackTrace(); };
+            } catch (IOException e) { Log.error("初始化图像编码器失败", e); };
         };
 
 
@@ -420,7 +420,7 @@ public class Http {
                     final long sleepTime = Math.max(0, frameInterval - TimeUnit.NANOSECONDS.toMillis(elapsedTime));  // 计算需要休眠的时间
                     Thread.sleep(sleepTime);  // 控制帧率
                 }
-            } catch (IOException | InterruptedException e) { e.printStackTrace(); }
+            } catch (IOException | InterruptedException e) { Log.error("发送屏幕图像失败", e); }
         };
 
 
@@ -483,7 +483,7 @@ public class Http {
                 try {
                     final DatagramPacket packet = new DatagramPacket(data, data.length, serverAddr, port);
                     socket.send(packet);  // 发送数据包
-                } catch (IOException e) { e.printStackTrace(); };
+                } catch (IOException e) { Log.error("发送数据包失败", e); };
             });
         };
 
@@ -508,7 +508,7 @@ public class Http {
                         socket.send(packet);  // 发送数据包
                         offset += length;
                     }
-                } catch (IOException e) { e.printStackTrace(); }
+                } catch (IOException e) { Log.error("发送数据包失败", e); }
             });
         };
 
@@ -0,0 +1,304 @@
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+
+public class Log {
+    // 日志级别
+    public enum Level { DEBUG, INFO, WARN, ERROR, OFF };
+
+    private static final int CAPACITY = 1 << 14;
+    private static final int MASK = CAPACITY - 1;
+
+    // 环形缓冲区，每个槽位的序号决定当前由生产者还是写出线程持有
+    private static final Record[] ring = new Record[CAPACITY];
+    private static final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private static final AtomicLong tail = new AtomicLong();
+    private static volatile long head;
+    private static final LongAdder dropped = new LongAdder();
+
+    private static volatile Level level = Level.INFO;
+    private static volatile double sampleRate = 1.0;
+    private static final Writer console = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), 64 * 1024);
+    private static volatile Writer target = console;
+    private static volatile boolean sleeping;
+    private static final Thread writer;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) { ring[i] = new Record(); sequences.set(i, i); };
+        writer = new Thread(Log::drainLoop, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::drain, "log-shutdown"));
+    };
+
+
+
+
+
+    // -------------------------------------------------- 配置 --------------------------------------------------
+
+    /**
+     * 设置最低输出级别
+     *
+     * @param value 日志级别，低于该级别的日志直接丢弃
+     */
+    public static void level(final Level value) { level = value; };
+
+
+    /**
+     * 设置访问日志采样率
+     *
+     * @param rate 采样率，范围 0 到 1，例如 0.01 表示每 100 条记录 1 条
+     */
+    public static void sample(final double rate) {
+        if (rate < 0 || rate > 1) { throw new IllegalArgumentException("The sample rate must be between 0 and 1"); };
+        sampleRate = rate;
+    };
+
+
+    /**
+     * 将日志输出到指定文件（追加写入），切换前已提交的日志写入原来的目标，原来的日志文件随后关闭
+     *
+     * @param filePath 日志文件路径
+     * @return 如果切换成功返回 true，否则返回 false
+     */
+    public static boolean to(final String filePath) {
+        final Writer next;
+        try { next = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filePath, true), StandardCharsets.UTF_8), 64 * 1024); } 
+        catch (IOException e) { error("切换日志文件失败", e); return false; }
+
+        final Writer previous;
+        synchronized (Log.class) {
+            drain();
+            previous = target;
+            target = next;
+        };
+        try {
+            if (previous == console) { previous.flush(); } 
+            else { previous.close(); };
+        } catch (IOException e) { error("关闭原日志文件失败", e); }
+        return true;
+    };
+
+
+    /**
+     * 获取因缓冲区已满而丢弃的日志数量
+     *
+     * @return 丢弃数量
+     */
+    public static long dropped() { return dropped.sum(); };
+
+
+
+
+
+    // -------------------------------------------------- 记录日志 --------------------------------------------------
+
+    /**
+     * 记录调试日志，消息中的 {} 依次替换为参数，格式化在写出线程中完成
+     *
+     * @param message 日志消息
+     * @param args 消息参数
+     */
+    public static void debug(final String message, final Object... args) { log(Level.DEBUG, message, args, null); };
+
+
+    /**
+     * 记录普通日志
+     *
+     * @param message 日志消息
+     * @param args 消息参数
+     */
+    public static void info(final String message, final Object... args) { log(Level.INFO, message, args, null); };
+
+
+    /**
+     * 记录警告日志
+     *
+     * @param message 日志消息
+     * @param args 消息参数
+     */
+    public static void warn(final String message, final Object... args) { log(Level.WARN, message, args, null); };
+
+
+    /**
+     * 记录错误日志
+     *
+     * @param message 日志消息
+     * @param args 消息参数
+     */
+    public static void error(final String message, final Object... args) { log(Level.ERROR, message, args, null); };
+
+
+    /**
+     * 记录错误日志及异常堆栈
+     *
+     * @param message 日志消息
+     * @param error 异常
+     */
+    public static void error(final String message, final Throwable error) { log(Level.ERROR, message, null, error); };
+
+
+    /**
+     * 记录一条结构化访问日志，受采样率控制
+     *
+     * @param method 请求方法
+     * @param path 请求路径
+     * @param status 响应状态码
+     * @param bytes 响应字节数，未知时为 -1
+     * @param micros 处理耗时（微秒）
+     * @param remote 客户端地址
+     */
+    public static void access(final String method, final String path, final int status, final long bytes, final long micros, final String remote) {
+        if (Level.INFO.compareTo(level) < 0) { return; };
+        final double rate = sampleRate;
+        if (rate < 1 && ThreadLocalRandom.current().nextDouble() >= rate) { return; };
+        log(Level.INFO, "method={} path={} status={} bytes={} us={} remote={}", new Object[] { method, path, status, bytes, micros, remote }, null);
+    };
+
+
+    /**
+     * 等待已提交的日志全部写出，写出线程已经终止时立即返回
+     */
+    public static void flush() {
+        final long end = tail.get();
+        while (head < end && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(100_000);
+        };
+    };
+
+
+    // 写入环形缓冲区，缓冲区已满时丢弃日志，调用方永远不会阻塞
+    private static void log(final Level recordLevel, final String message, final Object[] args, final Throwable error) {
+        if (recordLevel.compareTo(level) < 0) { return; };
+
+        long position = tail.get();
+        while (true) {
+            final long dif = sequences.get((int) position & MASK) - position;
+            if (dif == 0) {
+                if (tail.compareAndSet(position, position + 1)) { break; };
+                position = tail.get();
+            } else if (dif < 0) {
+                dropped.increment();
+                return;
+            } else { position = tail.get(); };
+        }
+
+        final Record record = ring[(int) position & MASK];
+        record.level = recordLevel;
+        record.time = System.currentTimeMillis();
+        record.thread = Thread.currentThread().getName();
+        record.message = message;
+        record.args = args;
+        record.error = error;
+        sequences.lazySet((int) position & MASK, position + 1);
+        if (sleeping) { LockSupport.unpark(writer); };
+    };
+
+
+
+
+
+    // -------------------------------------------------- 写出线程 --------------------------------------------------
+
+    // 写出线程主循环，缓冲区为空时短暂休眠；任何异常都不能让写出线程退出
+    private static void drainLoop() {
+        while (true) {
+            int count;
+            try { count = drain(); } 
+            catch (Throwable e) { count = 0; };
+            if (count == 0) {
+                sleeping = true;
+                if (sequences.get((int) head & MASK) != head + 1) { LockSupport.parkNanos(10_000_000); };
+                sleeping = false;
+            };
+        }
+    };
+
+
+    // 写出缓冲区中所有已发布的日志，返回处理的条数；单条日志格式化失败时写出占位行，写入失败时丢弃该条，head 总是前进
+    // head 在整批写出并刷新之后才更新，flush 看到 head 前进时日志已经落到目标上
+    private static synchronized int drain() {
+        final Writer out = target;
+        final StringBuilder line = new StringBuilder(256);
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        int count = 0;
+        long position = head;
+        try {
+            while (sequences.get((int) position & MASK) == position + 1) {
+                final Record record = ring[(int) position & MASK];
+                line.setLength(0);
+                try {
+                    line.append(format.format(new Date(record.time))).append(' ').append(record.level).append(" [").append(record.thread).append("] ");
+                    append(line, record.message, record.args);
+                    line.append(System.lineSeparator());
+                    if (record.error != null) {
+                        final StringWriter trace = new StringWriter();
+                        record.error.printStackTrace(new PrintWriter(trace));
+                        line.append(trace);
+                    };
+                } catch (Throwable e) {
+                    line.setLength(0);
+                    line.append(format.format(new Date(record.time))).append(' ').append(record.level).append(" [").append(record.thread).append("] ")
+                        .append("<日志格式化失败: ").append(e.getClass().getName()).append("> ").append(record.message).append(System.lineSeparator());
+                };
+                record.clear();
+                sequences.lazySet((int) position & MASK, position + CAPACITY);
+                position++;
+                count++;
+                try { out.write(line.toString()); } 
+                catch (IOException e) { dropped.increment(); };
+            };
+        } finally {
+            if (count > 0) {
+                try { out.flush(); } catch (IOException e) { };
+            };
+            head = position;
+        };
+        return count;
+    };
+
+
+    // 将消息中的 {} 依次替换为参数
+    private static void append(final StringBuilder line, final String message, final Object[] args) {
+        if (message == null) { line.append("null"); return; };
+        if (args == null || args.length == 0) { line.append(message); return; };
+        int from = 0, index = 0;
+        while (index < args.length) {
+            final int at = message.indexOf("{}", from);
+            if (at < 0) { break; };
+            line.append(message, from, at).append(args[index++]);
+            from = at + 2;
+        };
+        line.append(message, from, message.length());
+    };
+
+
+
+    // 环形缓冲区中的日志记录，槽位对象复用以避免分配
+    private static class Record {
+        private Level level;
+        private long time;
+        private String thread;
+        private String message;
+        private Object[] args;
+        private Throwable error;
+
+        void clear() { thread = null; message = null; args = null; error = null; };
+    };
+};
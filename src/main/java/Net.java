@@ -1,23 +1,119 @@
 
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+import java.io.BufferedOutputStream;
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
 import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 
 @SuppressWarnings("restriction")
 public class Net {
+    private static final String HTML_TYPE = "text/html; charset=UTF-8";
+    // 当前工作线程正在处理的请求进入队列的时间，用于判断排队是否过久
+    private static final ThreadLocal<long[]> QUEUED_AT = ThreadLocal.withInitial(() -> new long[1]);
+    // 工作队列已满时写入 QUEUED_AT 的标记，请求由拒绝线程直接以 503 拒绝
+    private static final long SHED = Long.MIN_VALUE;
+    // 拒绝线程最多积压的请求数，再多时连接直接关闭
+    private static final int MAX_SHED = 64;
+
     private HttpServer server;
+    private final Router router = new Router();
+    private ScheduledExecutorService scheduler;
+    private volatile ThreadPoolExecutor executor;
+    private int maxQueued = 1024;
+    private final List<Closeable> resources = new CopyOnWriteArrayList<>();
 
 
     /**
@@ -33,21 +129,59 @@ public class Net {
      */
     public Net(final int port) {
         if (port < 1 || port > 65535) {  throw new IllegalArgumentException("The port number must be between 1 and 65535"); };
-        try {  this.server = HttpServer.create(new InetSocketAddress(port), 0); } 
-        catch (IOException e) {  System.out.println("服务器创建失败: " + e.getMessage()); };
+        try {
+            this.server = HttpServer.create(new InetSocketAddress(port), 0);
+            this.server.createContext("/", router);
+        } catch (IOException e) {  Log.error("服务器创建失败: {}", e.getMessage()); };
     };
 
 
+    /**
+     * 设置是否关闭 Nagle 算法（TCP_NODELAY），默认不修改
+     * 响应头与响应体分两次写出时，Nagle 算法会与客户端的延迟确认叠加，每个请求多出约 40 毫秒
+     * 该选项通过系统属性 sun.net.httpserver.nodelay 作用于整个 JVM，且只在本进程创建第一个服务器之前调用才生效
+     * 
+     * @param enabled 是否关闭 Nagle 算法
+     */
+    public static void nodelay(final boolean enabled) { System.setProperty("sun.net.httpserver.nodelay", Boolean.toString(enabled)); };
+
+
     /**
      * 启动服务器
      */
     public void start() {
         try {
             final InetAddress inetAddress = InetAddress.getLocalHost();
-            server.setExecutor(Executors.newFixedThreadPool(10));
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(10, 10, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(maxQueued));
+            final ThreadPoolExecutor shedder = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(MAX_SHED), task -> {
+                final Thread thread = new Thread(task, "net-shed");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.executor = executor;
+            resources.add(executor::shutdown);
+            resources.add(shedder::shutdown);
+            server.setExecutor(command -> {
+                final long queuedAt = System.nanoTime();
+                try {
+                    executor.execute(() -> {
+                        QUEUED_AT.get()[0] = queuedAt;
+                        command.run();
+                    });
+                } catch (RejectedExecutionException e) {
+                    if (executor.isShutdown()) { throw e; };
+                    // 队列已满：交给单独的拒绝线程读取请求头并返回 503，分发线程不做任何 I/O，慢客户端拖不住 accept；
+                    // 拒绝线程也积压满时这里抛出异常，分发线程不读取请求直接关闭连接
+                    shedder.execute(() -> {
+                        QUEUED_AT.get()[0] = SHED;
+                        try { command.run(); }
+                        finally { QUEUED_AT.get()[0] = 0; }
+                    });
+                };
+            });
             server.start();
-            System.out.println("服务器地址: http://" + inetAddress.getHostAddress() + ":" + server.getAddress().getPort() + "/");
-        } catch (IOException e) {  System.out.println("服务器启动失败: " + e.getMessage()); };
+            Log.info("服务器地址: http://{}:{}/", inetAddress.getHostAddress(), server.getAddress().getPort());
+        } catch (IOException e) {  Log.error("服务器启动失败: {}", e.getMessage()); };
     };
 
 
@@ -58,7 +192,12 @@ public class Net {
      */
     public void stop(final int delay) {
         server.stop(delay);
-        System.out.println("服务器已停止");
+        for (Closeable resource : resources) {
+            try { resource.close(); }
+            catch (IOException e) { Log.warn("资源释放失败: {}", e.getMessage()); };
+        };
+        resources.clear();
+        Log.info("服务器已停止");
     };
 
 
@@ -71,7 +210,7 @@ public class Net {
         for (String[] route : routes) {
             final String path = route[0];
             final String response = route[1];
-            server.createContext(path, new GetHandler(response));
+            router.add("GET", path, new GetHandler(response));
         };
     };
 
@@ -85,7 +224,7 @@ public class Net {
         for (String[] route : routes) {
             final String path = route[0];
             final String response = route[1];
-            server.createContext(path, new PostHandler(response));
+            router.add("POST", path, new PostHandler(response));
         };
     };
 
@@ -96,7 +235,19 @@ public class Net {
      * @param path 路径
      * @param processor 请求处理器
      */
-    public void get(final String path, final RequestProcessor processor) { server.createContext(path, new CustomGetHandler(processor)); };
+    public void get(final String path, final RequestProcessor processor) { router.add("GET", path, new CustomGetHandler(processor)); };
+
+
+    /**
+     * 处理 GET 请求的自定义逻辑，并在内存中短暂缓存响应
+     * 相同查询参数（与参数顺序无关）在有效期内直接返回缓存，同一时刻只有一个请求会调用处理器
+     * 
+     * @param path 路径
+     * @param processor 请求处理器
+     * @param ttlMillis 缓存有效期（毫秒）
+     * @param maxEntries 最多缓存的查询数量
+     */
+    public void get(final String path, final RequestProcessor processor, final long ttlMillis, final int maxEntries) { router.add("GET", path, new CachedGetHandler(processor, ttlMillis, maxEntries)); };
 
 
     /**
@@ -105,7 +256,259 @@ public class Net {
      * @param path 路径
      * @param processor 请求处理器
      */
-    public void post(final String path, final RequestProcessor processor) { server.createContext(path, new CustomPostHandler(processor)); };
+    public void post(final String path, final RequestProcessor processor) { router.add("POST", path, new CustomPostHandler(processor)); };
+
+
+    /**
+     * 以流的形式处理 POST 请求体，请求体不会被整体读入内存
+     * 
+     * @param path 路径
+     * @param processor 流式请求处理器
+     * @param maxBodySize 请求体最大字节数，超出时返回 413
+     */
+    public void post(final String path, final StreamProcessor processor, final long maxBodySize) { router.add("POST", path, new StreamPostHandler(processor, maxBodySize)); };
+
+
+    /**
+     * 以分块的形式处理 POST 请求体，每读取一块就回调一次处理器
+     * 
+     * @param path 路径
+     * @param processor 分块请求处理器
+     * @param maxBodySize 请求体最大字节数，超出时返回 413
+     */
+    public void post(final String path, final ChunkProcessor processor, final long maxBodySize) { router.add("POST", path, new StreamPostHandler(processor, maxBodySize)); };
+
+
+    /**
+     * 接收上传文件，请求体直接流式写入目标文件夹
+     * 文件名取自查询参数 name，未指定时自动生成
+     * 
+     * @param path 路径
+     * @param directory 保存文件的文件夹
+     * @param maxBodySize 单个文件最大字节数，超出时返回 413
+     */
+    public void upload(final String path, final String directory, final long maxBodySize) { router.add("POST", path, new StreamPostHandler(new UploadProcessor(Paths.get(directory)), maxBodySize)); };
+
+
+    /**
+     * 注册任意方法的路由，路径支持 {name} 参数与末尾的 * 通配符，例如 /users/{id}、/files/*path
+     * 
+     * @param method 请求方法，例如 GET、PUT、DELETE
+     * @param path 路径模式
+     * @param handler 请求处理器
+     */
+    public void route(final String method, final String path, final HttpHandler handler) { router.add(method, path, handler); };
+
+
+    /**
+     * 获取当前请求匹配到的路径参数
+     * 
+     * @param exchange 当前请求
+     * @param name 参数名，通配符未命名时为 *
+     * @return 参数值，不存在时返回 null
+     */
+    public static String param(final HttpExchange exchange, final String name) {
+        final Object params = exchange.getAttribute(Router.PARAMS);
+        return params instanceof Map ? ((Map<?, ?>) params).get(name) == null ? null : ((Map<?, ?>) params).get(name).toString() : null;
+    };
+
+
+    /**
+     * 异步处理 GET 请求，处理器返回的 Future 完成时才写出响应，期间不占用服务器线程
+     * 
+     * @param path 路径
+     * @param processor 异步请求处理器
+     * @param timeoutMillis 超时时间（毫秒），超时返回 504，为 0 时不限时
+     */
+    public void getAsync(final String path, final AsyncRequestProcessor processor, final long timeoutMillis) { router.add("GET", path, new AsyncHandler("GET", processor, timeoutMillis, scheduler())); };
+
+
+    /**
+     * 异步处理 POST 请求，处理器返回的 Future 完成时才写出响应，期间不占用服务器线程
+     * 
+     * @param path 路径
+     * @param processor 异步请求处理器
+     * @param timeoutMillis 超时时间（毫秒），超时返回 504，为 0 时不限时
+     */
+    public void postAsync(final String path, final AsyncRequestProcessor processor, final long timeoutMillis) { router.add("POST", path, new AsyncHandler("POST", processor, timeoutMillis, scheduler())); };
+
+
+    // 获取用于超时控制的定时线程，首次使用时创建
+    private synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "net-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            resources.add(scheduler::shutdownNow);
+        };
+        return scheduler;
+    };
+
+
+    /**
+     * 开启请求监控，并在指定路径以 Prometheus 文本格式输出监控数据
+     * 
+     * @param path 监控数据路径，例如 /metrics
+     * @return 监控实例，可通过 snapshot 获取数据快照
+     */
+    public Metrics metrics(final String path) {
+        final Metrics metrics = metrics();
+        router.add("GET", path, exchange -> {
+            final byte[] body = metrics.prometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) { os.write(body); };
+        });
+        return metrics;
+    };
+
+
+    /**
+     * 开启请求监控
+     * 
+     * @return 监控实例，可通过 snapshot 获取数据快照
+     */
+    public synchronized Metrics metrics() {
+        if (router.metrics == null) { router.metrics = new Metrics(this); };
+        return router.metrics;
+    };
+
+
+    /**
+     * 按客户端 IP 限速，超出速率的请求直接返回 429 与 Retry-After
+     * 
+     * @param permitsPerSecond 每个客户端每秒允许的请求数
+     * @param burst 允许的突发请求数
+     */
+    public void limit(final double permitsPerSecond, final int burst) { router.rateLimiter = new RateLimiter(permitsPerSecond, burst); };
+
+
+    /**
+     * 设置等待工作线程的最大请求数，超出时请求不再排队，直接返回 503 与 Retry-After，需在 start 之前调用
+     * 
+     * @param maxQueued 最大排队请求数，默认 1024
+     */
+    public void queue(final int maxQueued) {
+        if (maxQueued < 1) { throw new IllegalArgumentException("maxQueued must be positive"); };
+        this.maxQueued = maxQueued;
+    };
+
+
+    /**
+     * 开启自适应并发控制，超出并发上限或排队过久的请求直接返回 503 与 Retry-After
+     * 并发上限在 1 与 maxConcurrency 之间按 AIMD 调整：耗时低于目标时缓慢增加，超过目标时成倍减少
+     * 
+     * @param maxConcurrency 最大并发数
+     * @param targetLatencyMillis 目标耗时（毫秒），包含排队时间
+     */
+    public void concurrency(final int maxConcurrency, final long targetLatencyMillis) { router.concurrencyLimiter = new ConcurrencyLimiter(maxConcurrency, targetLatencyMillis); };
+
+
+    /**
+     * 开启响应压缩，默认 1024 字节以上的文本类响应以 gzip 级别 5 压缩
+     */
+    public void compress() { compress(1024, 5); };
+
+
+    /**
+     * 开启响应压缩，客户端接受 gzip 且响应为文本类内容时边写出边压缩
+     * 静态文件已预先压缩，不再重复处理；Server-Sent Events 需要逐条送达，也不压缩
+     * 
+     * @param minBytes 最小压缩字节数，低于该长度的响应原样发送，长度未知的分块响应总是压缩
+     * @param level 压缩级别，1 到 9，越大压缩率越高、CPU 开销越大
+     */
+    public void compress(final int minBytes, final int level) {
+        if (minBytes < 0) { throw new IllegalArgumentException("minBytes must not be negative"); };
+        if (level < 1 || level > 9) { throw new IllegalArgumentException("The compression level must be between 1 and 9"); };
+        router.compression = new Compression(minBytes, level);
+    };
+
+
+    /**
+     * 以分块传输编码流式输出 GET 响应，处理器边生成边写出，无需把完整响应保存在内存中
+     * 
+     * @param path 路径
+     * @param processor 流式响应处理器
+     */
+    public void stream(final String path, final WriterProcessor processor) { router.add("GET", path, new StreamGetHandler(processor)); };
+
+
+    /**
+     * 注册模板渲染的 GET 路径，处理器只需返回模板数据，页面由预编译模板直接写入响应流
+     * 
+     * @param path 路径
+     * @param templates 模板目录
+     * @param name 模板文件相对于模板目录的路径
+     * @param processor 模板数据处理器
+     */
+    public void view(final String path, final Tpl templates, final String name, final ModelProcessor processor) { router.add("GET", path, new TemplateHandler(templates, name, processor)); };
+
+
+    /**
+     * 注册 Server-Sent Events 推送路径，客户端通过 EventSource 订阅
+     * 
+     * @param path 路径
+     * @return 事件流，调用 publish 向所有订阅者推送事件
+     */
+    public EventStream sse(final String path) {
+        final EventStream stream = new EventStream(scheduler());
+        resources.add(stream);
+        router.add("GET", path, stream::subscribe);
+        return stream;
+    };
+
+
+    /**
+     * 在指定端口开启 WebSocket 服务，返回用于广播消息的中心
+     * JDK 自带的 HttpServer 无法在 101 响应后交出底层连接，因此 WebSocket 使用独立端口与 NIO 线程处理
+     * 
+     * @param port WebSocket 端口
+     * @param path 允许升级的路径，例如 /ws
+     * @return WebSocket 中心
+     */
+    public Hub ws(final int port, final String path) {
+        if (port < 1 || port > 65535) {  throw new IllegalArgumentException("The port number must be between 1 and 65535"); };
+        try {
+            final Hub hub = new Hub(port, path);
+            resources.add(hub);
+            return hub;
+        } catch (IOException e) { throw new UncheckedIOException("WebSocket 服务创建失败", e); }
+    };
+
+
+    /**
+     * 在指定端口开启二进制 RPC 服务，随服务器一起关闭
+     * 服务间调用使用长连接与变长整数编码，比以字符串经 HTTP 传输节省大量字节与解析开销
+     * 
+     * @param port RPC 端口
+     * @return RPC 服务端，调用 register 注册服务实现
+     */
+    public Rpc.Server rpc(final int port) {
+        final Rpc.Server server = Rpc.serve(port);
+        resources.add(server);
+        return server;
+    };
+
+
+    /**
+     * 将路径前缀下的请求转发到上游服务器池，请求路径原样转发，请求体与响应体流式传输
+     * 
+     * @param prefix 路径前缀，例如 /api
+     * @param upstreams 上游地址，例如 http://127.0.0.1:8081
+     * @return 代理实例，可设置负载均衡策略、超时与被动健康检查
+     */
+    public Proxy proxy(final String prefix, final String... upstreams) {
+        final Proxy proxy = new Proxy(upstreams);
+        final String base = prefix.endsWith("/") ? prefix.substring(0, prefix.length() - 1) : prefix;
+        for (String method : Proxy.METHODS) {
+            if (!base.isEmpty()) { router.add(method, base, proxy::forward); };
+            router.add(method, base + "/*", proxy::forward);
+        };
+        resources.add(proxy);
+        return proxy;
+    };
 
 
     /**
@@ -114,7 +517,24 @@ public class Net {
      * @param path URL 路径
      * @param directory 文件夹目录
      */
-    public void web(final String path, final String directory) { server.createContext(path, new StaticFileHandler(directory)); };
+    public void web(final String path, final String directory) { web(path, directory, StaticCache.DEFAULT_CAPACITY); };
+
+
+    /**
+     * 托管静态文件夹，并指定内存缓存容量
+     * 
+     * @param path URL 路径
+     * @param directory 文件夹目录
+     * @param cacheBytes 缓存容量（字节），为 0 时不缓存文件内容
+     */
+    public void web(final String path, final String directory, final long cacheBytes) {
+        final StaticCache cache = new StaticCache(Paths.get(directory), cacheBytes);
+        final StaticFileHandler handler = new StaticFileHandler(cache);
+        final String pattern = (path.endsWith("/") ? path : path + "/") + "*";
+        resources.add(cache);
+        router.add("GET", pattern, handler);
+        router.add("HEAD", pattern, handler);
+    };
 
 
     /**
@@ -126,27 +546,352 @@ public class Net {
 
 
 
+    // 路由分发类，所有路由共用一个上下文，由编译后的基数树按路径与方法分发
+    private static class Router implements HttpHandler {
+        private static final String PARAMS = "Net.params";
+        private static final String PENDING = "Net.pending";
+
+        private final List<Route> routes = new ArrayList<>();
+        private final Node staging = new Node("");
+        private volatile Node compiled;
+        private volatile Metrics metrics;
+        private volatile RateLimiter rateLimiter;
+        private volatile ConcurrencyLimiter concurrencyLimiter;
+        private volatile Compression compression;
+
+
+        // 注册路由，路径冲突时立即抛出异常
+        synchronized void add(final String method, final String path, final HttpHandler handler) {
+            if (path == null || !path.startsWith("/")) { throw new IllegalArgumentException("The route path must start with /: " + path); };
+            final Route route = new Route(method.toUpperCase(Locale.ROOT), path, handler);
+            staging.insert(route, 0);
+            routes.add(route);
+            compiled = null;
+        };
+
+
+        // 路由表变化后重新编译一棵只读的树，匹配时无需加锁
+        private synchronized Node compile() {
+            if (compiled == null) {
+                final Node root = new Node("");
+                for (Route route : routes) { root.insert(route, 0); };
+                compiled = root;
+            };
+            return compiled;
+        };
+
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            final long start = System.nanoTime();
+            Node root = compiled;
+            if (root == null) { root = compile(); };
+
+            final Match match = new Match();
+            final String path = exchange.getRequestURI().getPath();
+            Node node = root.match(path, 0, match);
+            if (node == null) { node = match.fallback; match.size = 0; };
+
+            final String method = exchange.getRequestMethod().toUpperCase(Locale.ROOT);
+            Route route = node == null ? null : node.handlers.get(method);
+            final boolean headFallback = route == null && node != null && "HEAD".equals(method) && (route = node.handlers.get("GET")) != null;
+
+            // 开启监控时统计请求体与响应体字节数
+            final Metrics stats = metrics;
+            final RouteStats routeStats = stats == null ? null : stats.route(route);
+            CountingInputStream in = null;
+            CountingOutputStream out = null;
+            if (routeStats != null) {
+                in = new CountingInputStream(exchange.getRequestBody());
+                out = new CountingOutputStream(exchange.getResponseBody());
+                exchange.setStreams(in, out);
+                stats.inFlight.increment();
+            };
+
+            // 准入控制：先按客户端限速，再按自适应并发上限放行
+            final long queuedAt = QUEUED_AT.get()[0];
+            QUEUED_AT.get()[0] = 0;
+            final RateLimiter rates = rateLimiter;
+            final ConcurrencyLimiter limiter = concurrencyLimiter;
+            long retryNanos = 0;
+            int rejectStatus = 0;
+            if (queuedAt == SHED) { rejectStatus = 503; retryNanos = TimeUnit.SECONDS.toNanos(1); };
+            if (rejectStatus == 0 && rates != null) {
+                retryNanos = rates.acquire(clientIp(exchange));
+                if (retryNanos > 0) { rejectStatus = 429; };
+            };
+            boolean admitted = false;
+            if (rejectStatus == 0 && limiter != null) {
+                if (queuedAt != 0 && start - queuedAt > limiter.targetNanos) { rejectStatus = 503; }
+                else if (!limiter.tryAcquire()) { rejectStatus = 503; }
+                else { admitted = true; };
+                retryNanos = limiter.targetNanos;
+            };
+            final ConcurrencyLimiter release = admitted ? limiter : null;
+            final long admittedAt = queuedAt != 0 && queuedAt != SHED ? queuedAt : start;
+
+            try {
+                if (rejectStatus != 0) {
+                    exchange.getResponseHeaders().set("Retry-After", Long.toString(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(retryNanos + 999_999_999L))));
+                    exchange.sendResponseHeaders(rejectStatus, -1);
+                    exchange.close();
+                } else if (node == null) { exchange.sendResponseHeaders(404, -1); exchange.close(); }
+                else if (route == null) {
+                    final Set<String> allow = new LinkedHashSet<>(node.handlers.keySet());
+                    if (allow.contains("GET")) { allow.add("HEAD"); };
+                    methodNotAllowed(exchange, String.join(", ", allow));
+                    exchange.close();
+                } else {
+                    if (match.size > 0) { exchange.setAttribute(PARAMS, match.toMap()); };
+                    final Compression gzip = compression;
+                    final HttpExchange target = gzip == null || headFallback || route.handler instanceof StaticFileHandler ? exchange : new CompressingExchange(exchange, gzip);
+                    route.handler.handle(headFallback ? new HeadExchange(target) : target);
+                };
+            } catch (IOException | RuntimeException e) {
+                finish(exchange, start, stats, routeStats, in, out, release, admittedAt);
+                throw e;
+            };
+
+            // 异步处理器在响应真正写出后才记录访问日志与监控数据
+            final Object pending = exchange.getAttribute(PENDING);
+            if (pending instanceof CompletableFuture) {
+                final CountingInputStream countedIn = in;
+                final CountingOutputStream countedOut = out;
+                ((CompletableFuture<?>) pending).whenComplete((r, e) -> finish(exchange, start, stats, routeStats, countedIn, countedOut, release, admittedAt));
+            } else { finish(exchange, start, stats, routeStats, in, out, release, admittedAt); };
+        };
+
+
+        // 获取客户端 IP
+        private static String clientIp(final HttpExchange exchange) {
+            final InetSocketAddress remote = exchange.getRemoteAddress();
+            return remote == null || remote.getAddress() == null ? "-" : remote.getAddress().getHostAddress();
+        };
+
+
+        // 请求结束时记录访问日志、监控数据并归还并发名额
+        private static void finish(final HttpExchange exchange, final long start, final Metrics stats, final RouteStats routeStats, final CountingInputStream in, final CountingOutputStream out, final ConcurrencyLimiter limiter, final long admittedAt) {
+            final long end = System.nanoTime();
+            final long micros = (end - start) / 1000;
+            if (limiter != null) { limiter.release(end - admittedAt); };
+            final int status = exchange.getResponseCode();
+            long bytes = -1;
+            if (out != null) { bytes = out.count; }
+            else {
+                final String length = exchange.getResponseHeaders().getFirst("Content-length");
+                try { if (length != null) { bytes = Long.parseLong(length); }; }
+                catch (NumberFormatException e) { bytes = -1; }
+            };
+            if (routeStats != null) {
+                routeStats.record(status, in.count, out.count, micros);
+                stats.inFlight.decrement();
+            };
+            Log.access(exchange.getRequestMethod(), exchange.getRequestURI().getPath(), status, bytes, micros, clientIp(exchange));
+        };
+    };
+
+
+
+    // 路由定义
+    private static class Route {
+        private final String method;
+        private final String path;
+        private final HttpHandler handler;
+        private RouteStats stats;
+        Route(final String method, final String path, final HttpHandler handler) { this.method = method; this.path = path; this.handler = handler; };
+    };
+
+
+
+    // 单次匹配过程中收集的路径参数
+    private static class Match {
+        private String[] names;
+        private String[] values;
+        private int size;
+        private Node fallback;
+
+        void push(final String name, final String value) {
+            if (names == null) { names = new String[4]; values = new String[4]; }
+            else if (size == names.length) { names = Arrays.copyOf(names, size * 2); values = Arrays.copyOf(values, size * 2); };
+            names[size] = name;
+            values[size++] = value;
+        };
+
+        Map<String, String> toMap() {
+            final Map<String, String> map = new HashMap<>(size * 2);
+            for (int i = 0; i < size; i++) { map.put(names[i], values[i]); };
+            return map;
+        };
+    };
+
+
+
+    // 基数树节点，静态子节点按首字符索引，参数与通配符子节点单独保存
+    private static class Node {
+        private String prefix;
+        private char[] indices = new char[0];
+        private Node[] children = new Node[0];
+        private Node param;
+        private String paramName;
+        private Node wildcard;
+        private String wildcardName;
+        private Map<String, Route> handlers;
+
+        Node(final String prefix) { this.prefix = prefix; };
+
+
+        // 从 path 的 start 位置起插入路由，当前节点的前缀已经匹配
+        void insert(final Route route, final int start) {
+            final String path = route.path;
+            if (start == path.length()) { setHandler(route); return; };
+
+            final char c = path.charAt(start);
+            if (c == '{') {
+                final int close = path.indexOf('}', start);
+                if (close < 0) { throw new IllegalArgumentException("Unclosed parameter in route: " + path); };
+                final String name = path.substring(start + 1, close);
+                if (param == null) { param = new Node(""); paramName = name; }
+                else if (!paramName.equals(name)) { throw new IllegalArgumentException("Conflicting parameter {" + name + "} and {" + paramName + "} in route: " + path); };
+                param.insert(route, close + 1);
+                return;
+            };
+            if (c == '*') {
+                final String name = start + 1 < path.length() ? path.substring(start + 1) : "*";
+                if (name.indexOf('/') >= 0) { throw new IllegalArgumentException("Wildcard must be the last segment in route: " + path); };
+                if (wildcard == null) { wildcard = new Node(""); wildcardName = name; }
+                else if (!wildcardName.equals(name)) { throw new IllegalArgumentException("Conflicting wildcard *" + name + " and *" + wildcardName + " in route: " + path); };
+                wildcard.setHandler(route);
+                return;
+            };
+
+            // 静态片段直到下一个参数或通配符为止
+            int end = start;
+            while (end < path.length() && path.charAt(end) != '{' && path.charAt(end) != '*') { end++; };
+            final String segment = path.substring(start, end);
+
+            final int index = indexOf(c);
+            if (index < 0) {
+                final Node child = new Node(segment);
+                addChild(child);
+                child.insert(route, end);
+                return;
+            };
+
+            final Node child = children[index];
+            int common = 0;
+            final int max = Math.min(child.prefix.length(), segment.length());
+            while (common < max && child.prefix.charAt(common) == segment.charAt(common)) { common++; };
+
+            // 公共前缀短于已有节点时拆分节点
+            if (common < child.prefix.length()) {
+                final Node split = new Node(child.prefix.substring(0, common));
+                child.prefix = child.prefix.substring(common);
+                split.addChild(child);
+                children[index] = split;
+                split.insert(route, start + common);
+                return;
+            };
+            child.insert(route, start + common);
+        };
+
+
+        // 在当前节点上挂载处理器
+        private void setHandler(final Route route) {
+            if (handlers == null) { handlers = new HashMap<>(4); };
+            if (handlers.containsKey(route.method)) { throw new IllegalArgumentException("Duplicate route: " + route.method + " " + route.path); };
+            handlers.put(route.method, route);
+        };
+
+
+        // 按首字符有序插入子节点
+        private void addChild(final Node child) {
+            final char c = child.prefix.charAt(0);
+            int at = 0;
+            while (at < indices.length && indices[at] < c) { at++; };
+            final char[] newIndices = new char[indices.length + 1];
+            final Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(indices, 0, newIndices, 0, at);
+            System.arraycopy(children, 0, newChildren, 0, at);
+            newIndices[at] = c;
+            newChildren[at] = child;
+            System.arraycopy(indices, at, newIndices, at + 1, indices.length - at);
+            System.arraycopy(children, at, newChildren, at + 1, children.length - at);
+            indices = newIndices;
+            children = newChildren;
+        };
+
+
+        private int indexOf(final char c) {
+            int low = 0, high = indices.length - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                if (indices[mid] < c) { low = mid + 1; }
+                else if (indices[mid] > c) { high = mid - 1; }
+                else { return mid; };
+            };
+            return -1;
+        };
+
+
+        // 从 path 的 start 位置起匹配，优先级为静态 > 参数 > 通配符
+        Node match(final String path, final int start, final Match match) {
+            if (start == path.length()) {
+                if (handlers != null) { return this; };
+                if (wildcard != null) { match.push(wildcardName, ""); return wildcard; };
+                return null;
+            };
+
+            // 记录无参数的最长前缀路由，兼容原先 createContext 的前缀匹配行为
+            if (handlers != null && match.size == 0 && start > 0 && (path.charAt(start) == '/' || path.charAt(start - 1) == '/')) { match.fallback = this; };
+
+            final int index = indexOf(path.charAt(start));
+            if (index >= 0) {
+                final Node child = children[index];
+                if (path.startsWith(child.prefix, start)) {
+                    final Node found = child.match(path, start + child.prefix.length(), match);
+                    if (found != null) { return found; };
+                };
+            };
+
+            if (param != null) {
+                int end = path.indexOf('/', start);
+                if (end < 0) { end = path.length(); };
+                if (end > start) {
+                    final int size = match.size;
+                    match.push(paramName, path.substring(start, end));
+                    final Node found = param.match(path, end, match);
+                    if (found != null) { return found; };
+                    match.size = size;
+                };
+            };
+
+            if (wildcard != null) { match.push(wildcardName, path.substring(start)); return wildcard; };
+            return null;
+        };
+    };
+
+
+
     // GET 请求处理类
     private static class GetHandler implements HttpHandler {
-        private final String response;
-        public GetHandler(final String response) { this.response = response; };
+        private final byte[] responseBytes;
+        public GetHandler(final String response) { this.responseBytes = response.getBytes(StandardCharsets.UTF_8); };
 
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            if ("GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+            if (isGet(exchange)) {
                 try {
                     final URI requestURI = exchange.getRequestURI();
                     final String requestContent = requestURI.getQuery();
-                    System.out.println("收到 GET 请求，内容: " + requestContent);
-                    exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
-                    final byte[] responseBytes = response.getBytes("UTF-8");
+                    Log.debug("收到 GET 请求，内容: {}", requestContent);
+                    exchange.getResponseHeaders().set("Content-Type", HTML_TYPE);
                     exchange.sendResponseHeaders(200, responseBytes.length);
                     try (final OutputStream os = exchange.getResponseBody()) { os.write(responseBytes); };
                 } catch (Exception e) {
                     exchange.sendResponseHeaders(400, -1); 
-                    System.out.println("处理 GET 请求失败: " + e.getMessage());
+                    Log.warn("处理 GET 请求失败: {}", e.getMessage());
                 };
-            } else { exchange.sendResponseHeaders(405, -1); };
+            } else { methodNotAllowed(exchange, "GET, HEAD"); };
         };
     };
 
@@ -154,30 +899,23 @@ public class Net {
 
     // POST 请求处理类
     private static class PostHandler implements HttpHandler {
-        private final String response;
-        public PostHandler(final String response) { this.response = response; };
+        private final byte[] responseBytes;
+        public PostHandler(final String response) { this.responseBytes = response.getBytes(StandardCharsets.UTF_8); };
 
         @Override
         public void handle(HttpExchange exchange) throws IOException {
             if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
                 try {
-                    final InputStream inputStream = exchange.getRequestBody();
-                    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    final byte[] buffer = new byte[1024];
-                    int length;
-                    while ((length = inputStream.read(buffer)) != -1) { baos.write(buffer, 0, length); };
-                    final byte[] requestBody = baos.toByteArray();
-                    final String requestContent = new String(requestBody, "UTF-8");
-                    System.out.println("收到 POST 请求，内容: " + requestContent);
-                    exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
-                    final byte[] responseBytes = response.getBytes("UTF-8");
+                    final String requestContent = new String(readBody(exchange), StandardCharsets.UTF_8);
+                    Log.debug("收到 POST 请求，内容: {}", requestContent);
+                    exchange.getResponseHeaders().set("Content-Type", HTML_TYPE);
                     exchange.sendResponseHeaders(200, responseBytes.length);
                     try (OutputStream os = exchange.getResponseBody()) { os.write(responseBytes); };
                 } catch (Exception e) {
                     exchange.sendResponseHeaders(400, -1); 
-                    System.out.println("处理 POST 请求失败: " + e.getMessage());
+                    Log.warn("处理 POST 请求失败: {}", e.getMessage());
                 };
-            } else { exchange.sendResponseHeaders(405, -1); };
+            } else { methodNotAllowed(exchange, "POST"); };
         };
     };
 
@@ -190,71 +928,2363 @@ public class Net {
 
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            if ("GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+            if (isGet(exchange)) {
                 final String requestContent = exchange.getRequestURI().getQuery();
-                exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", HTML_TYPE);
                 final String response = processor.processRequest(exchange, requestContent);
-                final byte[] responseBytes = response.getBytes("UTF-8");
+                final byte[] responseBytes = response.getBytes(StandardCharsets.UTF_8);
                 exchange.sendResponseHeaders(200, responseBytes.length);
                 try (OutputStream os = exchange.getResponseBody()) { os.write(responseBytes); };
-            } else { exchange.sendResponseHeaders(405, -1); };
+            } else { methodNotAllowed(exchange, "GET, HEAD"); };
         };
     };
 
 
 
-    // 自定义 POST 请求处理类
-    private static class CustomPostHandler implements HttpHandler {
+    // 带微缓存的自定义 GET 请求处理类，按规范化后的查询参数缓存已编码的响应
+    private static class CachedGetHandler implements HttpHandler {
+        // 等待其他请求计算同一键的最长时间，处理器卡住时等待的请求以 503 返回，不会耗尽工作线程
+        private static final long MAX_WAIT_MILLIS = 5000;
         private final RequestProcessor processor;
-        public CustomPostHandler(final RequestProcessor processor) { this.processor = processor; };
+        private final long ttlNanos;
+        private final int maxEntries;
+        private final ConcurrentHashMap<String, CompletableFuture<CachedResponse>> cache = new ConcurrentHashMap<>();
+
+        public CachedGetHandler(final RequestProcessor processor, final long ttlMillis, final int maxEntries) {
+            if (ttlMillis <= 0 || maxEntries <= 0) { throw new IllegalArgumentException("ttlMillis and maxEntries must be positive"); };
+            this.processor = processor;
+            this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+            this.maxEntries = maxEntries;
+        };
 
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
-                try {
-                    final InputStream inputStream = exchange.getRequestBody();
-                    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    final byte[] buffer = new byte[1024];
-                    int length;
-                    while ((length = inputStream.read(buffer)) != -1) { baos.write(buffer, 0, length); };
-                    final byte[] requestBody = baos.toByteArray();
-                    final String requestContent = new String(requestBody, "UTF-8");
-                    exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
-                    final String response = processor.processRequest(exchange, requestContent);
-                    final byte[] responseBytes = response.getBytes("UTF-8");
-                    exchange.sendResponseHeaders(200, responseBytes.length);
-                    try (OutputStream os = exchange.getResponseBody()) { os.write(responseBytes); };
-                } catch (Exception e) {
-                    exchange.sendResponseHeaders(400, -1);
-                    System.out.println("处理 POST 请求失败: " + e.getMessage());
-                };
-            } else { exchange.sendResponseHeaders(405, -1); };
-        };
-    };
+            if (!isGet(exchange)) { methodNotAllowed(exchange, "GET, HEAD"); return; };
 
+            final String requestContent = exchange.getRequestURI().getQuery();
+            final String key = normalize(requestContent);
+            CachedResponse response;
+            try { response = lookup(exchange, key, requestContent); }
+            catch (TimeoutException e) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+                Log.warn("等待缓存计算超时: {}", key);
+                return;
+            } catch (Exception e) {
+                exchange.sendResponseHeaders(500, -1);
+                exchange.close();
+                Log.warn("处理 GET 请求失败: {}", e.getMessage());
+                return;
+            };
 
+            final Headers headers = exchange.getResponseHeaders();
+            for (int i = 0; i < response.headers.length; i += 2) { headers.add(response.headers[i], response.headers[i + 1]); };
+            exchange.sendResponseHeaders(200, response.body.length);
+            try (OutputStream os = exchange.getResponseBody()) { os.write(response.body); };
+        };
 
-    // 静态文件处理类
-    private static class StaticFileHandler implements HttpHandler {
-        private final String directory;
-        public StaticFileHandler(String directory) { this.directory = directory; };
+
+        // 查找缓存，未命中或已过期时由抢到占位的请求计算，其余请求等待同一结果
+        private CachedResponse lookup(final HttpExchange exchange, final String key, final String requestContent) throws Exception {
+            while (true) {
+                final CompletableFuture<CachedResponse> existing = cache.get(key);
+                if (existing != null) {
+                    if (!existing.isDone()) { return await(existing); };
+                    final CachedResponse value = existing.getNow(null);
+                    if (value != null && value.expiresAt - System.nanoTime() > 0) { return value; };
+                };
+
+                final CompletableFuture<CachedResponse> loading = new CompletableFuture<>();
+                final boolean won = existing == null ? cache.putIfAbsent(key, loading) == null : cache.replace(key, existing, loading);
+                if (!won) { continue; };
+
+                // 从占位写入起到完成为止都在 try 中，任何异常都会完成并移除占位，等待的请求不会永远阻塞
+                try {
+                    if (cache.size() > maxEntries) { trim(); };
+                    final Headers headers = new Headers();
+                    headers.set("Content-Type", HTML_TYPE);
+                    final HttpExchange capture = new HeaderCapture(exchange, headers);
+                    final String response = processor.processRequest(capture, requestContent);
+                    final CachedResponse value = new CachedResponse(response.getBytes(StandardCharsets.UTF_8), headers, System.nanoTime() + ttlNanos);
+                    loading.complete(value);
+                    return value;
+                } catch (Exception e) {
+                    cache.remove(key, loading);
+                    loading.completeExceptionally(e);
+                    throw e;
+                }
+            }
+        };
+
+
+        private static CachedResponse await(final CompletableFuture<CachedResponse> future) throws Exception {
+            try { return future.get(MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS); }
+            catch (ExecutionException e) { throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e; }
+        };
+
+
+        // 超出数量上限时先清理过期条目，仍超出则淘汰最早过期的条目
+        private void trim() {
+            final long now = System.nanoTime();
+            for (Map.Entry<String, CompletableFuture<CachedResponse>> e : cache.entrySet()) {
+                final CachedResponse value = e.getValue().getNow(null);
+                if (value != null && value.expiresAt - now <= 0) { cache.remove(e.getKey(), e.getValue()); };
+            };
+            while (cache.size() > maxEntries) {
+                Map.Entry<String, CompletableFuture<CachedResponse>> oldest = null;
+                long oldestExpiry = 0;
+                for (Map.Entry<String, CompletableFuture<CachedResponse>> e : cache.entrySet()) {
+                    final CachedResponse value = e.getValue().getNow(null);
+                    if (value != null && (oldest == null || value.expiresAt - oldestExpiry < 0)) { oldest = e; oldestExpiry = value.expiresAt; };
+                };
+                if (oldest == null) { return; };
+                cache.remove(oldest.getKey(), oldest.getValue());
+            };
+        };
+
+
+        // 规范化查询参数，按参数排序使 a=1&b=2 与 b=2&a=1 命中同一缓存
+        private static String normalize(final String query) {
+            if (query == null || query.isEmpty()) { return ""; };
+            if (query.indexOf('&') < 0) { return query; };
+            final String[] pairs = query.split("&");
+            Arrays.sort(pairs);
+            return String.join("&", pairs);
+        };
+    };
+
+
+
+    // 已编码的缓存响应，处理器设置的响应头预先展开为名称与值交替的数组，命中时直接逐个写入
+    private static class CachedResponse {
+        private final byte[] body;
+        private final String[] headers;
+        private final long expiresAt;
+
+        CachedResponse(final byte[] body, final Headers headers, final long expiresAt) {
+            final List<String> flat = new ArrayList<>();
+            for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                for (String value : entry.getValue()) { flat.add(entry.getKey()); flat.add(value); };
+            };
+            this.body = body;
+            this.headers = flat.toArray(new String[0]);
+            this.expiresAt = expiresAt;
+        };
+    };
+
+
+
+    // 自定义 POST 请求处理类
+    private static class CustomPostHandler implements HttpHandler {
+        private final RequestProcessor processor;
+        public CustomPostHandler(final RequestProcessor processor) { this.processor = processor; };
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                try {
+                    final String requestContent = new String(readBody(exchange), StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", HTML_TYPE);
+                    final String response = processor.processRequest(exchange, requestContent);
+                    final byte[] responseBytes = response.getBytes(StandardCharsets.UTF_8);
+                    exchange.sendResponseHeaders(200, responseBytes.length);
+                    try (OutputStream os = exchange.getResponseBody()) { os.write(responseBytes); };
+                } catch (Exception e) {
+                    exchange.sendResponseHeaders(400, -1);
+                    Log.warn("处理 POST 请求失败: {}", e.getMessage());
+                };
+            } else { methodNotAllowed(exchange, "POST"); };
+        };
+    };
+
+
+
+    // 流式 POST 请求处理类，请求体按块读取，超过长度上限时返回 413
+    private static class StreamPostHandler implements HttpHandler {
+        private static final int CHUNK_SIZE = 16 * 1024;
+        private final StreamProcessor streamProcessor;
+        private final ChunkProcessor chunkProcessor;
+        private final long maxBodySize;
+
+        public StreamPostHandler(final StreamProcessor processor, final long maxBodySize) { this(processor, null, maxBodySize); };
+        public StreamPostHandler(final ChunkProcessor processor, final long maxBodySize) { this(null, processor, maxBodySize); };
+        private StreamPostHandler(final StreamProcessor streamProcessor, final ChunkProcessor chunkProcessor, final long maxBodySize) {
+            if (maxBodySize < 0) { throw new IllegalArgumentException("maxBodySize cannot be negative"); };
+            this.streamProcessor = streamProcessor;
+            this.chunkProcessor = chunkProcessor;
+            this.maxBodySize = maxBodySize;
+        };
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) { methodNotAllowed(exchange, "POST"); return; };
+
+            // 声明的长度已超出上限时不读取请求体，直接拒绝
+            final String declared = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (declared != null) {
+                try { if (Long.parseLong(declared.trim()) > maxBodySize) { exchange.sendResponseHeaders(413, -1); exchange.close(); return; }; }
+                catch (NumberFormatException e) { exchange.sendResponseHeaders(400, -1); exchange.close(); return; }
+            };
+
+            try (InputStream body = new BoundedInputStream(exchange.getRequestBody(), maxBodySize)) {
+                final String response;
+                if (streamProcessor != null) { response = streamProcessor.processRequest(exchange, body); }
+                else {
+                    final byte[] buffer = new byte[CHUNK_SIZE];
+                    int length;
+                    while ((length = body.read(buffer)) != -1) { chunkProcessor.onChunk(exchange, buffer, 0, length); };
+                    response = chunkProcessor.onComplete(exchange);
+                };
+                if (exchange.getResponseHeaders().getFirst("Content-Type") == null) { exchange.getResponseHeaders().set("Content-Type", HTML_TYPE); };
+                final byte[] responseBytes = response == null ? new byte[0] : response.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, responseBytes.length == 0 ? -1 : responseBytes.length);
+                try (OutputStream os = exchange.getResponseBody()) { os.write(responseBytes); };
+            } catch (BodyTooLargeException e) {
+                if (chunkProcessor != null) { chunkProcessor.onAbort(exchange, e); };
+                exchange.sendResponseHeaders(413, -1);
+                exchange.close();
+            } catch (Exception e) {
+                if (chunkProcessor != null) { chunkProcessor.onAbort(exchange, e); };
+                exchange.sendResponseHeaders(400, -1);
+                exchange.close();
+                Log.warn("处理 POST 请求失败: {}", e.getMessage());
+            };
+        };
+    };
+
+
+
+    // 上传处理器，请求体先写入临时文件，完整接收后再移动到目标文件
+    private static class UploadProcessor implements StreamProcessor {
+        private final Path directory;
+        public UploadProcessor(final Path directory) { this.directory = directory.toAbsolutePath().normalize(); };
+
+        @Override
+        public String processRequest(HttpExchange exchange, InputStream body) throws IOException {
+            Files.createDirectories(directory);
+            final String name = fileName(exchange.getRequestURI().getRawQuery());
+            final Path target = directory.resolve(name).normalize();
+            if (!target.getParent().equals(directory)) { throw new IOException("Invalid file name: " + name); };
+
+            final Path temp = Files.createTempFile(directory, ".upload-", ".part");
+            try {
+                Files.copy(body, temp, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally { Files.deleteIfExists(temp); };
+            return name;
+        };
+
+        // 从查询参数中取出文件名，去掉路径部分
+        private static String fileName(final String query) throws IOException {
+            if (query != null) {
+                for (String pair : query.split("&")) {
+                    if (pair.startsWith("name=")) {
+                        final String name = Paths.get(URLDecoder.decode(pair.substring(5), "UTF-8")).getFileName().toString();
+                        if (!name.isEmpty() && !name.equals("..") && !name.equals(".")) { return name; };
+                    };
+                };
+            };
+            return UUID.randomUUID().toString();
+        };
+    };
+
+
+
+    // GET 处理器同样应答 HEAD，响应体由路由套上的 HeadExchange 丢弃
+    private static boolean isGet(final HttpExchange exchange) {
+        final String method = exchange.getRequestMethod();
+        return "GET".equalsIgnoreCase(method) || "HEAD".equalsIgnoreCase(method);
+    };
+
+
+    // 405 响应必须带上 Allow 头列出可用方法
+    private static void methodNotAllowed(final HttpExchange exchange, final String allow) throws IOException {
+        exchange.getResponseHeaders().set("Allow", allow);
+        exchange.sendResponseHeaders(405, -1);
+    };
+
+
+    // 读取完整请求体，按 Content-Length 预分配缓冲区
+    private static byte[] readBody(final HttpExchange exchange) throws IOException {
+        final String declared = exchange.getRequestHeaders().getFirst("Content-Length");
+        int hint = 8192;
+        try { if (declared != null) { hint = (int) Math.max(0, Math.min(Long.parseLong(declared.trim()), 1 << 20)); }; }
+        catch (NumberFormatException e) { hint = 8192; }
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(hint);
+        final byte[] buffer = new byte[8192];
+        int length;
+        try (InputStream inputStream = exchange.getRequestBody()) { while ((length = inputStream.read(buffer)) != -1) { baos.write(buffer, 0, length); }; };
+        return baos.toByteArray();
+    };
+
+
+
+    // 请求体超出长度上限
+    private static class BodyTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+        BodyTooLargeException(final long limit) { super("Request body exceeds " + limit + " bytes"); };
+    };
+
+
+
+    // 限制读取总长度的输入流
+    private static class BoundedInputStream extends FilterInputStream {
+        private final long limit;
+        private long count;
+
+        BoundedInputStream(final InputStream in, final long limit) { super(in); this.limit = limit; };
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1 && ++count > limit) { throw new BodyTooLargeException(limit); };
+            return b;
+        };
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0 && (count += n) > limit) { throw new BodyTooLargeException(limit); };
+            return n;
+        };
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+            if ((count += skipped) > limit) { throw new BodyTooLargeException(limit); };
+            return skipped;
+        };
+    };
+
+
+
+    // 异步请求处理类，Future 完成或超时后写出响应，两者只会生效一个
+    private static class AsyncHandler implements HttpHandler {
+        private final String method;
+        private final AsyncRequestProcessor processor;
+        private final long timeoutMillis;
+        private final ScheduledExecutorService scheduler;
+
+        public AsyncHandler(final String method, final AsyncRequestProcessor processor, final long timeoutMillis, final ScheduledExecutorService scheduler) {
+            if (timeoutMillis < 0) { throw new IllegalArgumentException("time cannot be negative"); };
+            this.method = method;
+            this.processor = processor;
+            this.timeoutMillis = timeoutMillis;
+            this.scheduler = scheduler;
+        };
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            final boolean allowed = "GET".equals(method) ? isGet(exchange) : method.equalsIgnoreCase(exchange.getRequestMethod());
+            if (!allowed) { methodNotAllowed(exchange, "GET".equals(method) ? "GET, HEAD" : method); return; };
+
+            final CompletableFuture<Response> future;
+            try {
+                final String requestContent = "POST".equals(method) ? new String(readBody(exchange), StandardCharsets.UTF_8) : exchange.getRequestURI().getQuery();
+                future = processor.processRequest(exchange, requestContent);
+                if (future == null) { throw new IllegalStateException("processRequest returned null"); };
+            } catch (Exception e) {
+                Log.warn("处理异步请求失败: {}", e.getMessage());
+                write(exchange, null, e);
+                return;
+            };
+
+            final AtomicBoolean done = new AtomicBoolean();
+            final CompletableFuture<Void> written = new CompletableFuture<>();
+            exchange.setAttribute(Router.PENDING, written);
+            final ScheduledFuture<?> timer = timeoutMillis == 0 ? null : scheduler.schedule(() -> {
+                if (done.compareAndSet(false, true)) {
+                    future.cancel(true);
+                    write(exchange, null, new TimeoutException());
+                    written.complete(null);
+                };
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+
+            future.whenComplete((response, error) -> {
+                if (!done.compareAndSet(false, true)) { return; };
+                if (timer != null) { timer.cancel(false); };
+                write(exchange, response, error);
+                written.complete(null);
+            });
+        };
+
+
+        // 写出响应，异常按类型映射为 503、504 或 500
+        private static void write(final HttpExchange exchange, final Response response, final Throwable error) {
+            Response result = response;
+            if (error != null || result == null) {
+                final Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (cause instanceof TimeoutException) { result = new Response(504, "504 Gateway Timeout"); }
+                else if (cause instanceof RejectedExecutionException) { result = new Response(503, "503 Service Unavailable").header("Retry-After", "1"); }
+                else { result = new Response(500, "500 Internal Server Error"); };
+            };
+
+            try {
+                for (Map.Entry<String, String> header : result.headers.entrySet()) { exchange.getResponseHeaders().set(header.getKey(), header.getValue()); };
+                final byte[] body = result.body == null ? new byte[0] : result.body;
+                exchange.sendResponseHeaders(result.status, body.length == 0 ? -1 : body.length);
+                try (OutputStream os = exchange.getResponseBody()) { os.write(body); };
+            } catch (IOException e) { Log.warn("写出异步响应失败: {}", e.getMessage()); }
+            finally { exchange.close(); };
+        };
+    };
+
+
+
+    // 计数输入流
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+        CountingInputStream(final InputStream in) { super(in); };
+
+        @Override
+        public int read() throws IOException { final int b = super.read(); if (b != -1) { count++; }; return b; };
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException { final int n = super.read(b, off, len); if (n > 0) { count += n; }; return n; };
+    };
+
+
+
+    // 计数输出流
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+        CountingOutputStream(final OutputStream out) { super(out); };
+
+        @Override
+        public void write(int b) throws IOException { out.write(b); count++; };
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); count += len; };
+    };
+
+
+
+    // 响应压缩配置，Deflater 占用本地内存，放入池中复用而不是每个请求创建
+    private static class Compression {
+        private static final int POOL_SIZE = 64;
+        private final int minBytes;
+        private final int level;
+        private final ConcurrentLinkedQueue<Deflater> pool = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pooled = new AtomicInteger();
+
+        Compression(final int minBytes, final int level) { this.minBytes = minBytes; this.level = level; };
+
+
+        // 判断响应是否压缩，压缩时改写响应头；可能压缩的响应都带上 Vary 以免缓存串用
+        boolean prepare(final HttpExchange exchange, final int status, final long length) {
+            if (length < 0 || (length > 0 && length < minBytes)) { return false; };
+            if (status < 200 || status == 204 || status == 206 || status == 304) { return false; };
+            if ("HEAD".equalsIgnoreCase(exchange.getRequestMethod())) { return false; };
+            final Headers headers = exchange.getResponseHeaders();
+            final String type = headers.getFirst("Content-Type");
+            if (headers.containsKey("Content-Encoding") || !compressible(type) || type.startsWith("text/event-stream")) { return false; };
+            final List<String> vary = headers.get("Vary");
+            if (vary == null || !vary.contains("Accept-Encoding")) { headers.add("Vary", "Accept-Encoding"); };
+            if (!acceptsGzip(exchange.getRequestHeaders().getFirst("Accept-Encoding"))) { return false; };
+            headers.set("Content-Encoding", "gzip");
+            headers.remove("Content-Length");
+            return true;
+        };
+
+
+        Deflater borrow() {
+            final Deflater deflater = pool.poll();
+            if (deflater == null) { return new Deflater(level, true); };
+            pooled.decrementAndGet();
+            return deflater;
+        };
+
+
+        void release(final Deflater deflater) {
+            deflater.reset();
+            if (pooled.incrementAndGet() <= POOL_SIZE) { pool.offer(deflater); }
+            else { pooled.decrementAndGet(); deflater.end(); };
+        };
+
+
+        // 判断内容类型是否值得压缩
+        static boolean compressible(final String contentType) {
+            if (contentType == null) { return false; };
+            return contentType.startsWith("text/") || contentType.contains("json") || contentType.contains("javascript") || contentType.contains("xml") || contentType.contains("svg");
+        };
+
+
+        // 判断客户端是否接受 gzip 编码：q 值按数值比较，q 为 0 表示拒绝；没有单独列出 gzip 时按 * 的 q 值判断
+        static boolean acceptsGzip(final String acceptEncoding) {
+            if (acceptEncoding == null) { return false; };
+            double gzip = -1, any = -1;
+            for (String part : acceptEncoding.split(",")) {
+                final String[] pieces = part.split(";");
+                final String coding = pieces[0].trim();
+                if (coding.equalsIgnoreCase("gzip") || coding.equalsIgnoreCase("x-gzip")) { gzip = Math.max(gzip, quality(pieces)); }
+                else if (coding.equals("*")) { any = Math.max(any, quality(pieces)); };
+            };
+            return gzip >= 0 ? gzip > 0 : any > 0;
+        };
+
+        // 解析编码项的 q 参数，缺省为 1，无法解析时视为拒绝
+        private static double quality(final String[] pieces) {
+            for (int i = 1; i < pieces.length; i++) {
+                final String param = pieces[i].trim();
+                final int equals = param.indexOf('=');
+                if (equals > 0 && param.substring(0, equals).trim().equalsIgnoreCase("q")) {
+                    try { return Double.parseDouble(param.substring(equals + 1).trim()); }
+                    catch (NumberFormatException e) { return 0; }
+                };
+            };
+            return 1;
+        };
+    };
+
+
+
+    // 流式 gzip 输出流，直接驱动池化的 Deflater 并手工写出 gzip 头与尾
+    private static class GzipStream extends OutputStream {
+        private static final byte[] HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+        private final OutputStream out;
+        private final Compression compression;
+        private final Deflater deflater;
+        private final CRC32 crc = new CRC32();
+        private final byte[] buffer = new byte[8192];
+        private final byte[] single = new byte[1];
+        private boolean closed;
+
+        GzipStream(final OutputStream out, final Compression compression) throws IOException {
+            this.out = out;
+            this.compression = compression;
+            this.deflater = compression.borrow();
+            out.write(HEADER);
+        };
+
+        @Override
+        public void write(int b) throws IOException { single[0] = (byte) b; write(single, 0, 1); };
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) { throw new IOException("Stream closed"); };
+            if (len == 0) { return; };
+            crc.update(b, off, len);
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()) { deflate(Deflater.NO_FLUSH); };
+        };
+
+        // 刷新时同步压缩已写入的数据，保证流式响应能及时送达客户端
+        @Override
+        public void flush() throws IOException {
+            if (closed) { return; };
+            while (deflate(Deflater.SYNC_FLUSH) == buffer.length) {};
+            out.flush();
+        };
+
+        @Override
+        public void close() throws IOException {
+            if (closed) { return; };
+            closed = true;
+            try {
+                deflater.finish();
+                while (!deflater.finished()) { deflate(Deflater.NO_FLUSH); };
+                final long sum = crc.getValue();
+                final long size = deflater.getBytesRead();
+                final byte[] trailer = new byte[8];
+                for (int i = 0; i < 4; i++) { trailer[i] = (byte) (sum >>> (i * 8)); trailer[i + 4] = (byte) (size >>> (i * 8)); };
+                out.write(trailer);
+            } finally {
+                compression.release(deflater);
+                out.close();
+            };
+        };
+
+        private int deflate(final int mode) throws IOException {
+            final int n = deflater.deflate(buffer, 0, buffer.length, mode);
+            if (n > 0) { out.write(buffer, 0, n); };
+            return n;
+        };
+    };
+
+
+
+    // 压缩响应的请求包装，由路由在调用处理器前套上，处理器代码无需改动
+    private static class CompressingExchange extends DelegatingExchange {
+        private final Compression compression;
+        private GzipStream gzip;
+
+        CompressingExchange(final HttpExchange exchange, final Compression compression) { super(exchange); this.compression = compression; };
+
+        @Override
+        public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+            if (gzip == null && compression.prepare(exchange, rCode, responseLength)) {
+                exchange.sendResponseHeaders(rCode, 0);
+                gzip = new GzipStream(exchange.getResponseBody(), compression);
+            } else { exchange.sendResponseHeaders(rCode, responseLength); };
+        };
+
+        @Override
+        public OutputStream getResponseBody() { return gzip != null ? gzip : exchange.getResponseBody(); };
+
+        @Override
+        public void close() {
+            if (gzip != null) {
+                try { gzip.close(); }
+                catch (IOException e) { Log.debug("关闭压缩响应失败: {}", e.getMessage()); }
+            };
+            exchange.close();
+        };
+    };
+
+
+
+    // 缓存处理器计算响应时使用的请求包装，处理器设置的响应头写入单独的 Headers，随响应一起缓存
+    private static class HeaderCapture extends DelegatingExchange {
+        private final Headers headers;
+
+        HeaderCapture(final HttpExchange exchange, final Headers headers) { super(exchange); this.headers = headers; };
+
+        @Override
+        public Headers getResponseHeaders() { return headers; };
+    };
+
+
+
+    // HEAD 请求回退到 GET 路由时的请求包装，保留 Content-Length 并丢弃处理器写出的响应体
+    private static class HeadExchange extends DelegatingExchange {
+        private static final OutputStream DISCARD = new OutputStream() {
+            @Override
+            public void write(int b) {};
+
+            @Override
+            public void write(byte[] b, int off, int len) {};
+        };
+
+        HeadExchange(final HttpExchange exchange) { super(exchange); };
+
+        @Override
+        public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+            if (responseLength > 0 && rCode != 304) { exchange.getResponseHeaders().set("Content-Length", Long.toString(responseLength)); };
+            exchange.sendResponseHeaders(rCode, -1);
+        };
+
+        @Override
+        public OutputStream getResponseBody() { return DISCARD; };
+    };
+
+
+
+    // 请求包装的基类，所有方法转发给原请求
+    private static class DelegatingExchange extends HttpExchange {
+        protected final HttpExchange exchange;
+
+        DelegatingExchange(final HttpExchange exchange) { this.exchange = exchange; };
+
+        @Override
+        public void sendResponseHeaders(int rCode, long responseLength) throws IOException { exchange.sendResponseHeaders(rCode, responseLength); };
+
+        @Override
+        public OutputStream getResponseBody() { return exchange.getResponseBody(); };
+
+        @Override
+        public void close() { exchange.close(); };
+
+        @Override
+        public Headers getRequestHeaders() { return exchange.getRequestHeaders(); };
+
+        @Override
+        public Headers getResponseHeaders() { return exchange.getResponseHeaders(); };
+
+        @Override
+        public URI getRequestURI() { return exchange.getRequestURI(); };
+
+        @Override
+        public String getRequestMethod() { return exchange.getRequestMethod(); };
+
+        @Override
+        public HttpContext getHttpContext() { return exchange.getHttpContext(); };
+
+        @Override
+        public InputStream getRequestBody() { return exchange.getRequestBody(); };
+
+        @Override
+        public InetSocketAddress getRemoteAddress() { return exchange.getRemoteAddress(); };
+
+        @Override
+        public int getResponseCode() { return exchange.getResponseCode(); };
+
+        @Override
+        public InetSocketAddress getLocalAddress() { return exchange.getLocalAddress(); };
+
+        @Override
+        public String getProtocol() { return exchange.getProtocol(); };
+
+        @Override
+        public Object getAttribute(String name) { return exchange.getAttribute(name); };
+
+        @Override
+        public void setAttribute(String name, Object value) { exchange.setAttribute(name, value); };
+
+        @Override
+        public void setStreams(InputStream i, OutputStream o) { exchange.setStreams(i, o); };
+
+        @Override
+        public HttpPrincipal getPrincipal() { return exchange.getPrincipal(); };
+    };
+
+
+
+    // 单个路由的监控数据，全部使用分段计数器，记录时不加锁
+    private static class RouteStats {
+        private final String name;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+        private final LongAdder totalMicros = new LongAdder();
+        private final LongAdder[] buckets = new LongAdder[Metrics.BOUNDS.length + 1];
+        private final ConcurrentHashMap<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+        RouteStats(final String name) {
+            this.name = name;
+            for (int i = 0; i < buckets.length; i++) { buckets[i] = new LongAdder(); };
+        };
+
+        void record(final int status, final long in, final long out, final long micros) {
+            requests.increment();
+            bytesIn.add(in);
+            bytesOut.add(out);
+            totalMicros.add(micros);
+            int bucket = 0;
+            while (bucket < Metrics.BOUNDS.length && micros > Metrics.BOUNDS[bucket]) { bucket++; };
+            buckets[bucket].increment();
+            LongAdder counter = statuses.get(status);
+            if (counter == null) { counter = statuses.computeIfAbsent(status, k -> new LongAdder()); };
+            counter.increment();
+        };
+    };
+
+
+
+    // 请求监控，按路由统计请求数、状态码、字节数与耗时分布，并提供快照与 Prometheus 文本输出
+    public static class Metrics {
+        // 耗时直方图的桶上限（微秒）
+        private static final long[] BOUNDS = { 50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000, 1000000, 2500000, 5000000, 10000000 };
+
+        private final Net net;
+        private final ConcurrentHashMap<String, RouteStats> routes = new ConcurrentHashMap<>();
+        private final RouteStats unmatched = new RouteStats("unmatched");
+        private final LongAdder inFlight = new LongAdder();
+
+        private Metrics(final Net net) { this.net = net; };
+
+
+        // 获取路由对应的监控数据，首次访问后缓存在路由上
+        private RouteStats route(final Route route) {
+            if (route == null) { return unmatched; };
+            RouteStats stats = route.stats;
+            if (stats == null) {
+                stats = routes.computeIfAbsent(route.method + " " + route.path, RouteStats::new);
+                route.stats = stats;
+            };
+            return stats;
+        };
+
+
+        /**
+         * 获取当前监控数据快照
+         * 
+         * @return 监控数据快照
+         */
+        public Snapshot snapshot() {
+            final Map<String, RouteSnapshot> result = new LinkedHashMap<>();
+            for (RouteStats stats : routes.values()) { result.put(stats.name, new RouteSnapshot(stats)); };
+            if (unmatched.requests.sum() > 0) { result.put(unmatched.name, new RouteSnapshot(unmatched)); };
+            final ThreadPoolExecutor executor = net.executor;
+            return new Snapshot(inFlight.sum(), executor == null ? 0 : executor.getQueue().size(), executor == null ? 0 : executor.getActiveCount(), result);
+        };
+
+
+        /**
+         * 以 Prometheus 文本格式输出监控数据
+         * 
+         * @return Prometheus 文本
+         */
+        public String prometheus() {
+            final Snapshot snapshot = snapshot();
+            final StringBuilder sb = new StringBuilder(4096);
+            sb.append("# HELP net_in_flight_requests Requests currently being processed.\n# TYPE net_in_flight_requests gauge\n");
+            sb.append("net_in_flight_requests ").append(snapshot.inFlight).append('\n');
+            sb.append("# HELP net_executor_queue_depth Requests waiting for a worker thread.\n# TYPE net_executor_queue_depth gauge\n");
+            sb.append("net_executor_queue_depth ").append(snapshot.queueDepth).append('\n');
+            sb.append("# HELP net_executor_active_threads Worker threads currently busy.\n# TYPE net_executor_active_threads gauge\n");
+            sb.append("net_executor_active_threads ").append(snapshot.activeThreads).append('\n');
+
+            sb.append("# HELP net_requests_total Requests by route and status code.\n# TYPE net_requests_total counter\n");
+            for (Map.Entry<String, RouteSnapshot> e : snapshot.routes.entrySet()) {
+                for (Map.Entry<Integer, Long> status : e.getValue().statuses.entrySet()) {
+                    sb.append("net_requests_total{route=\"").append(escape(e.getKey())).append("\",status=\"").append(status.getKey()).append("\"} ").append(status.getValue()).append('\n');
+                };
+            };
+            sb.append("# HELP net_request_bytes_total Request body bytes received.\n# TYPE net_request_bytes_total counter\n");
+            for (Map.Entry<String, RouteSnapshot> e : snapshot.routes.entrySet()) { sb.append("net_request_bytes_total{route=\"").append(escape(e.getKey())).append("\"} ").append(e.getValue().bytesIn).append('\n'); };
+            sb.append("# HELP net_response_bytes_total Response body bytes sent.\n# TYPE net_response_bytes_total counter\n");
+            for (Map.Entry<String, RouteSnapshot> e : snapshot.routes.entrySet()) { sb.append("net_response_bytes_total{route=\"").append(escape(e.getKey())).append("\"} ").append(e.getValue().bytesOut).append('\n'); };
+
+            sb.append("# HELP net_request_duration_seconds Request latency.\n# TYPE net_request_duration_seconds histogram\n");
+            for (Map.Entry<String, RouteSnapshot> e : snapshot.routes.entrySet()) {
+                final String route = escape(e.getKey());
+                final RouteSnapshot value = e.getValue();
+                long cumulative = 0;
+                for (int i = 0; i < value.buckets.length; i++) {
+                    cumulative += value.buckets[i];
+                    final String le = i < BOUNDS.length ? Double.toString(BOUNDS[i] / 1e6) : "+Inf";
+                    sb.append("net_request_duration_seconds_bucket{route=\"").append(route).append("\",le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+                };
+                sb.append("net_request_duration_seconds_sum{route=\"").append(route).append("\"} ").append(value.totalMicros / 1e6).append('\n');
+                sb.append("net_request_duration_seconds_count{route=\"").append(route).append("\"} ").append(value.requests).append('\n');
+            };
+            return sb.toString();
+        };
+
+
+        private static String escape(final String value) { return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"); };
+    };
+
+
+
+    // 监控数据快照
+    public static class Snapshot {
+        /** 正在处理的请求数 */
+        public final long inFlight;
+        /** 等待工作线程的请求数 */
+        public final int queueDepth;
+        /** 正在工作的线程数 */
+        public final int activeThreads;
+        /** 各路由的数据，键为“方法 路径” */
+        public final Map<String, RouteSnapshot> routes;
+
+        Snapshot(final long inFlight, final int queueDepth, final int activeThreads, final Map<String, RouteSnapshot> routes) {
+            this.inFlight = inFlight;
+            this.queueDepth = queueDepth;
+            this.activeThreads = activeThreads;
+            this.routes = Collections.unmodifiableMap(routes);
+        };
+    };
+
+
+
+    // 单个路由的监控数据快照
+    public static class RouteSnapshot {
+        /** 请求总数 */
+        public final long requests;
+        /** 请求体总字节数 */
+        public final long bytesIn;
+        /** 响应体总字节数 */
+        public final long bytesOut;
+        /** 总耗时（微秒） */
+        public final long totalMicros;
+        /** 各状态码的请求数 */
+        public final Map<Integer, Long> statuses;
+        private final long[] buckets;
+
+        RouteSnapshot(final RouteStats stats) {
+            this.requests = stats.requests.sum();
+            this.bytesIn = stats.bytesIn.sum();
+            this.bytesOut = stats.bytesOut.sum();
+            this.totalMicros = stats.totalMicros.sum();
+            final Map<Integer, Long> codes = new TreeMap<>();
+            for (Map.Entry<Integer, LongAdder> e : stats.statuses.entrySet()) { codes.put(e.getKey(), e.getValue().sum()); };
+            this.statuses = Collections.unmodifiableMap(codes);
+            this.buckets = new long[stats.buckets.length];
+            for (int i = 0; i < buckets.length; i++) { buckets[i] = stats.buckets[i].sum(); };
+        };
+
+
+        /**
+         * 估算耗时分位数，返回所在桶的上限
+         * 
+         * @param quantile 分位数，范围 0 到 1，例如 0.99
+         * @return 耗时上限（微秒），超过最大桶时返回 Long.MAX_VALUE
+         */
+        public long percentile(final double quantile) {
+            long total = 0;
+            for (long count : buckets) { total += count; };
+            if (total == 0) { return 0; };
+            final long rank = (long) Math.ceil(quantile * total);
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i];
+                if (cumulative >= rank) { return i < Metrics.BOUNDS.length ? Metrics.BOUNDS[i] : Long.MAX_VALUE; };
+            };
+            return Long.MAX_VALUE;
+        };
+    };
+
+
+
+    // 按客户端 IP 划分的令牌桶限速器
+    private static class RateLimiter {
+        private static final int MAX_CLIENTS = 10000;
+        private final double permitsPerNano;
+        private final double burst;
+        private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+        RateLimiter(final double permitsPerSecond, final int burst) {
+            if (permitsPerSecond <= 0 || burst < 1) { throw new IllegalArgumentException("permitsPerSecond and burst must be positive"); };
+            this.permitsPerNano = permitsPerSecond / 1e9;
+            this.burst = burst;
+        };
+
+
+        // 尝试获取一个令牌，成功返回 0，否则返回需要等待的纳秒数
+        long acquire(final String client) {
+            final long now = System.nanoTime();
+            Bucket bucket = buckets.get(client);
+            if (bucket == null) {
+                if (buckets.size() >= MAX_CLIENTS) { sweep(now); };
+                bucket = buckets.computeIfAbsent(client, k -> new Bucket(burst, now));
+            };
+            return bucket.acquire(now, permitsPerNano, burst);
+        };
+
+
+        // 客户端过多时清理已经回满的令牌桶
+        private void sweep(final long now) {
+            for (Map.Entry<String, Bucket> e : buckets.entrySet()) {
+                if (e.getValue().full(now, permitsPerNano, burst)) { buckets.remove(e.getKey(), e.getValue()); };
+            };
+        };
+    };
+
+
+
+    // 令牌桶
+    private static class Bucket {
+        private double tokens;
+        private long last;
+
+        Bucket(final double tokens, final long last) { this.tokens = tokens; this.last = last; };
+
+        synchronized long acquire(final long now, final double permitsPerNano, final double burst) {
+            tokens = Math.min(burst, tokens + (now - last) * permitsPerNano);
+            last = now;
+            if (tokens >= 1) { tokens -= 1; return 0; };
+            return (long) Math.ceil((1 - tokens) / permitsPerNano);
+        };
+
+        synchronized boolean full(final long now, final double permitsPerNano, final double burst) { return tokens + (now - last) * permitsPerNano >= burst; };
+    };
+
+
+
+    // AIMD 自适应并发限制器，以包含排队时间的请求耗时作为拥塞信号
+    private static class ConcurrencyLimiter {
+        private final int maxLimit;
+        private final long targetNanos;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile double limit;
+        private long lastDecrease;
+
+        ConcurrencyLimiter(final int maxLimit, final long targetLatencyMillis) {
+            if (maxLimit < 1 || targetLatencyMillis <= 0) { throw new IllegalArgumentException("maxConcurrency and targetLatencyMillis must be positive"); };
+            this.maxLimit = maxLimit;
+            this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+            this.limit = maxLimit;
+        };
+
+
+        // 并发数未达到当前上限时占用一个名额
+        boolean tryAcquire() {
+            while (true) {
+                final int current = inFlight.get();
+                if (current >= (int) limit) { return false; };
+                if (inFlight.compareAndSet(current, current + 1)) { return true; };
+            }
+        };
+
+
+        // 归还名额并根据耗时调整上限，一个目标耗时周期内最多减少一次，避免同一批慢请求连续压低上限
+        void release(final long latencyNanos) {
+            inFlight.decrementAndGet();
+            synchronized (this) {
+                if (latencyNanos > targetNanos) {
+                    final long now = System.nanoTime();
+                    if (now - lastDecrease > targetNanos) {
+                        limit = Math.max(1, limit * 0.9);
+                        lastDecrease = now;
+                    };
+                } else if (limit < maxLimit) { limit = Math.min(maxLimit, limit + 1 / limit); };
+            };
+        };
+    };
+
+
+
+    // 流式 GET 响应处理类，使用分块传输编码边生成边发送
+    private static class StreamGetHandler implements HttpHandler {
+        private final WriterProcessor processor;
+        public StreamGetHandler(final WriterProcessor processor) { this.processor = processor; };
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!isGet(exchange)) { methodNotAllowed(exchange, "GET, HEAD"); return; };
+            exchange.getResponseHeaders().set("Content-Type", HTML_TYPE);
+            exchange.sendResponseHeaders(200, 0);
+            try (Writer writer = new OutputStreamWriter(new BufferedOutputStream(exchange.getResponseBody(), 8192), StandardCharsets.UTF_8)) {
+                processor.processRequest(exchange, exchange.getRequestURI().getQuery(), writer);
+            } catch (IOException | RuntimeException e) {
+                // 响应头已经发出，只能中断连接
+                Log.warn("流式响应中断: {}", e.getMessage());
+                exchange.close();
+            };
+        };
+    };
+
+
+
+    // 模板渲染处理类，先取得数据与模板，出错时仍可返回 500；之后以分块传输编码边渲染边发送
+    private static class TemplateHandler implements HttpHandler {
+        private final Tpl templates;
+        private final String name;
+        private final ModelProcessor processor;
+        public TemplateHandler(final Tpl templates, final String name, final ModelProcessor processor) { this.templates = templates; this.name = name; this.processor = processor; };
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!isGet(exchange)) { methodNotAllowed(exchange, "GET, HEAD"); return; };
+            final Tpl.Template template;
+            final Map<String, ?> model;
+            try {
+                model = processor.processRequest(exchange, exchange.getRequestURI().getQuery());
+                template = templates.get(name);
+            } catch (IOException | RuntimeException e) {
+                exchange.sendResponseHeaders(500, -1);
+                exchange.close();
+                Log.warn("模板渲染失败: {}", e.getMessage());
+                return;
+            };
+
+            exchange.getResponseHeaders().set("Content-Type", HTML_TYPE);
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream os = exchange.getResponseBody()) { template.render(model, os); }
+            catch (IOException | RuntimeException e) {
+                // 响应头已经发出，只能中断连接
+                Log.warn("模板渲染中断: {}", e.getMessage());
+                exchange.close();
+            };
+        };
+    };
+
+
+
+    // 单个连接的有界发送队列，由共享线程池按需写出，队列满时关闭连接以保护其他订阅者
+    private static class Outbox {
+        private final OutputStream out;
+        private final Executor executor;
+        private final ArrayBlockingQueue<byte[]> queue;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final Runnable onClose;
+
+        Outbox(final OutputStream out, final Executor executor, final int capacity, final Runnable onClose) {
+            this.out = out;
+            this.executor = executor;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.onClose = onClose;
+        };
+
+
+        // 放入一帧数据，队列已满时关闭连接并返回 false
+        boolean offer(final byte[] frame) {
+            if (closed.get()) { return false; };
+            if (!queue.offer(frame)) { close(); return false; };
+            schedule();
+            return true;
+        };
+
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try { executor.execute(this::drain); }
+                catch (RejectedExecutionException e) { close(); };
+            };
+        };
+
+
+        // 写出队列中的所有数据
+        private void drain() {
+            try {
+                byte[] frame;
+                while (!closed.get() && (frame = queue.poll()) != null) { out.write(frame); };
+                out.flush();
+            } catch (IOException e) { close(); }
+            finally { scheduled.set(false); };
+            if (!closed.get() && !queue.isEmpty()) { schedule(); };
+        };
+
+
+        void close() {
+            if (!closed.compareAndSet(false, true)) { return; };
+            queue.clear();
+            try { out.close(); }
+            catch (IOException e) { Log.debug("关闭连接失败: {}", e.getMessage()); };
+            onClose.run();
+        };
+    };
+
+
+
+    // Server-Sent Events 事件流，每个事件只编码一次，同一份字节发送给所有订阅者
+    public static class EventStream implements Closeable {
+        private static final int QUEUE_CAPACITY = 256;
+        private static final byte[] PING = ": ping\n\n".getBytes(StandardCharsets.UTF_8);
+
+        private final Set<Outbox> subscribers = ConcurrentHashMap.newKeySet();
+        private final ExecutorService senders;
+        private final ScheduledFuture<?> heartbeat;
+
+        private EventStream(final ScheduledExecutorService scheduler) {
+            this.senders = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+                final Thread thread = new Thread(r, "net-sse");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.heartbeat = scheduler.scheduleAtFixedRate(() -> broadcast(PING), 15, 15, TimeUnit.SECONDS);
+        };
+
+
+        // 接受新的订阅请求
+        private void subscribe(final HttpExchange exchange) throws IOException {
+            if (!isGet(exchange)) { methodNotAllowed(exchange, "GET, HEAD"); return; };
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=UTF-8");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            if ("HEAD".equalsIgnoreCase(exchange.getRequestMethod())) { exchange.sendResponseHeaders(200, -1); exchange.close(); return; };
+            exchange.sendResponseHeaders(200, 0);
+
+            final AtomicReference<Outbox> self = new AtomicReference<>();
+            final Outbox outbox = new Outbox(exchange.getResponseBody(), senders, QUEUE_CAPACITY, () -> { subscribers.remove(self.get()); exchange.close(); });
+            self.set(outbox);
+            subscribers.add(outbox);
+            outbox.offer("retry: 3000\n\n".getBytes(StandardCharsets.UTF_8));
+        };
+
+
+        /**
+         * 向所有订阅者推送事件
+         * 
+         * @param data 事件数据，多行数据会拆分为多个 data 字段
+         */
+        public void publish(final String data) { publish(null, data); };
+
+
+        /**
+         * 向所有订阅者推送指定类型的事件
+         * 
+         * @param event 事件类型，为 null 时使用默认的 message 类型
+         * @param data 事件数据，多行数据会拆分为多个 data 字段
+         */
+        public void publish(final String event, final String data) {
+            final StringBuilder sb = new StringBuilder(data.length() + 32);
+            if (event != null) { sb.append("event: ").append(event).append('\n'); };
+            for (String line : data.split("\r?\n", -1)) { sb.append("data: ").append(line).append('\n'); };
+            sb.append('\n');
+            broadcast(sb.toString().getBytes(StandardCharsets.UTF_8));
+        };
+
+
+        /**
+         * 获取当前订阅者数量
+         * 
+         * @return 订阅者数量
+         */
+        public int subscribers() { return subscribers.size(); };
+
+
+        private void broadcast(final byte[] frame) { for (Outbox outbox : subscribers) { outbox.offer(frame); }; };
+
+
+        @Override
+        public void close() {
+            heartbeat.cancel(false);
+            for (Outbox outbox : subscribers) { outbox.close(); };
+            senders.shutdown();
+        };
+    };
+
+
+
+    // WebSocket 中心，单个 NIO 线程负责握手、帧解析与写出，广播消息只编码一次
+    public static class Hub implements Closeable {
+        private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+        private static final int MAX_HANDSHAKE = 8192;
+        private static final int MAX_MESSAGE = 1 << 20;
+        private static final long MAX_PENDING = 1 << 20;
+        private static final long PING_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+        private final String path;
+        private final ServerSocketChannel server;
+        private final Selector selector;
+        private final Set<WebSocket> sockets = ConcurrentHashMap.newKeySet();
+        private final ConcurrentLinkedQueue<WebSocket> dirty = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean wakeup = new AtomicBoolean();
+        private volatile boolean running = true;
+        private volatile Consumer<WebSocket> openListener = socket -> {};
+        private volatile Consumer<WebSocket> closeListener = socket -> {};
+        private volatile BiConsumer<WebSocket, String> textListener = (socket, text) -> {};
+        private volatile BiConsumer<WebSocket, byte[]> binaryListener = (socket, data) -> {};
+
+        private Hub(final int port, final String path) throws IOException {
+            this.path = path;
+            this.selector = Selector.open();
+            this.server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            final Thread thread = new Thread(this::loop, "net-ws");
+            thread.setDaemon(true);
+            thread.start();
+        };
+
+
+        /**
+         * 设置连接建立回调，回调在 IO 线程中执行，耗时操作请转交线程池
+         * 
+         * @param listener 回调
+         * @return 当前中心
+         */
+        public Hub onOpen(final Consumer<WebSocket> listener) { openListener = listener; return this; };
+
+
+        /**
+         * 设置连接关闭回调
+         * 
+         * @param listener 回调
+         * @return 当前中心
+         */
+        public Hub onClose(final Consumer<WebSocket> listener) { closeListener = listener; return this; };
+
+
+        /**
+         * 设置文本消息回调
+         * 
+         * @param listener 回调
+         * @return 当前中心
+         */
+        public Hub onMessage(final BiConsumer<WebSocket, String> listener) { textListener = listener; return this; };
+
+
+        /**
+         * 设置二进制消息回调
+         * 
+         * @param listener 回调
+         * @return 当前中心
+         */
+        public Hub onBinary(final BiConsumer<WebSocket, byte[]> listener) { binaryListener = listener; return this; };
+
+
+        /**
+         * 向所有连接广播文本消息，消息只编码一次
+         * 
+         * @param text 文本消息
+         * @return 成功放入发送队列的连接数
+         */
+        public int broadcast(final String text) { return broadcast(frame(0x1, text.getBytes(StandardCharsets.UTF_8))); };
+
+
+        /**
+         * 向所有连接广播二进制消息，消息只编码一次
+         * 
+         * @param data 二进制消息
+         * @return 成功放入发送队列的连接数
+         */
+        public int broadcast(final byte[] data) { return broadcast(frame(0x2, data)); };
+
+
+        /**
+         * 获取当前连接数
+         * 
+         * @return 连接数
+         */
+        public int size() { return sockets.size(); };
+
+
+        private int broadcast(final ByteBuffer frame) {
+            int sent = 0;
+            for (WebSocket socket : sockets) { if (socket.enqueue(frame.duplicate())) { sent++; }; };
+            return sent;
+        };
+
+
+        // 通知 IO 线程处理有待写出数据的连接
+        private void markDirty(final WebSocket socket) {
+            dirty.add(socket);
+            if (wakeup.compareAndSet(false, true)) { selector.wakeup(); };
+        };
+
+
+        // IO 线程主循环
+        private void loop() {
+            long lastCheck = System.nanoTime();
+            while (running) {
+                try {
+                    selector.select(1000);
+                    wakeup.set(false);
+                    WebSocket pending;
+                    while ((pending = dirty.poll()) != null) { flush(pending); };
+
+                    final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        final SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) { continue; };
+                        if (key.isAcceptable()) { accept(); continue; };
+                        final WebSocket socket = (WebSocket) key.attachment();
+                        try {
+                            if (key.isReadable()) { read(socket); };
+                            if (key.isValid() && key.isWritable()) { flush(socket); };
+                        } catch (IOException e) { terminate(socket); };
+                    };
+
+                    final long now = System.nanoTime();
+                    if (now - lastCheck > TimeUnit.SECONDS.toNanos(1)) { keepAlive(now); lastCheck = now; };
+                } catch (IOException | ClosedSelectorException e) {
+                    if (running) { Log.warn("WebSocket IO 异常: {}", e.getMessage()); };
+                };
+            }
+        };
+
+
+        private void accept() throws IOException {
+            final SocketChannel channel = server.accept();
+            if (channel == null) { return; };
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            final WebSocket socket = new WebSocket(this, channel);
+            socket.key = channel.register(selector, SelectionKey.OP_READ, socket);
+        };
+
+
+        // 读取数据：握手阶段解析 HTTP 请求，之后解析 WebSocket 帧
+        private void read(final WebSocket socket) throws IOException {
+            if (socket.channel.read(socket.in) < 0) { terminate(socket); return; };
+            socket.lastSeen = System.nanoTime();
+            socket.in.flip();
+            try {
+                if (!socket.open) { handshake(socket); };
+                if (socket.open) { while (!socket.closing && parse(socket)) { }; };
+            } finally { if (socket.channel.isOpen()) { socket.in.compact(); }; };
+        };
+
+
+        // 处理升级请求
+        private void handshake(final WebSocket socket) throws IOException {
+            final ByteBuffer in = socket.in;
+            int end = -1;
+            for (int i = in.position(); i + 3 < in.limit(); i++) {
+                if (in.get(i) == '\r' && in.get(i + 1) == '\n' && in.get(i + 2) == '\r' && in.get(i + 3) == '\n') { end = i + 4; break; };
+            };
+            if (end < 0) {
+                if (in.remaining() >= MAX_HANDSHAKE) { reject(socket, "431 Request Header Fields Too Large"); };
+                return;
+            };
+
+            final byte[] raw = new byte[end - in.position()];
+            in.get(raw);
+            final String[] lines = new String(raw, StandardCharsets.ISO_8859_1).split("\r\n");
+            final String[] request = lines[0].split(" ");
+            final Map<String, String> headers = new HashMap<>();
+            for (int i = 1; i < lines.length; i++) {
+                final int colon = lines[i].indexOf(':');
+                if (colon > 0) { headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT), lines[i].substring(colon + 1).trim()); };
+            };
+
+            final String target = request.length > 1 ? request[1] : "";
+            final int query = target.indexOf('?');
+            if (request.length < 3 || !"GET".equals(request[0]) || !(query < 0 ? target : target.substring(0, query)).equals(path)) { reject(socket, "404 Not Found"); return; };
+            final String key = headers.get("sec-websocket-key");
+            if (key == null || !"websocket".equalsIgnoreCase(headers.get("upgrade")) || !"13".equals(headers.get("sec-websocket-version"))) { reject(socket, "400 Bad Request"); return; };
+
+            final String accept;
+            try { accept = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-1").digest((key + GUID).getBytes(StandardCharsets.ISO_8859_1))); }
+            catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+            final String response = "HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Accept: " + accept + "\r\n\r\n";
+            socket.open = true;
+            socket.enqueue(ByteBuffer.wrap(response.getBytes(StandardCharsets.ISO_8859_1)));
+            sockets.add(socket);
+            openListener.accept(socket);
+        };
+
+
+        private void reject(final WebSocket socket, final String status) {
+            socket.enqueue(ByteBuffer.wrap(("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1)));
+            socket.closing = true;
+        };
+
+
+        // 解析一帧，数据不足时返回 false
+        private boolean parse(final WebSocket socket) throws IOException {
+            final ByteBuffer in = socket.in;
+            final int start = in.position();
+            if (in.remaining() < 2) { return false; };
+            final int b0 = in.get(start) & 0xFF;
+            final int b1 = in.get(start + 1) & 0xFF;
+            final boolean fin = (b0 & 0x80) != 0;
+            final int opcode = b0 & 0x0F;
+            long length = b1 & 0x7F;
+            int header = 2;
+            if (length == 126) {
+                if (in.remaining() < 4) { return false; };
+                length = in.getShort(start + 2) & 0xFFFF;
+                header = 4;
+            } else if (length == 127) {
+                if (in.remaining() < 10) { return false; };
+                length = in.getLong(start + 2);
+                header = 10;
+            };
+            // 客户端发出的帧必须带掩码
+            if ((b1 & 0x80) == 0) { fail(socket, 1002); return false; };
+            if (length < 0 || length > MAX_MESSAGE) { fail(socket, 1009); return false; };
+            final int total = header + 4 + (int) length;
+            if (in.remaining() < total) {
+                // 缓冲区不足以容纳整帧时扩容
+                if (in.capacity() < total) { socket.grow(total); };
+                return false;
+            };
+
+            final byte[] payload = new byte[(int) length];
+            final int maskAt = start + header;
+            for (int i = 0; i < payload.length; i++) { payload[i] = (byte) (in.get(maskAt + 4 + i) ^ in.get(maskAt + (i & 3))); };
+            in.position(start + total);
+            handleFrame(socket, fin, opcode, payload);
+            return true;
+        };
+
+
+        private void handleFrame(final WebSocket socket, final boolean fin, final int opcode, final byte[] payload) {
+            switch (opcode) {
+                case 0x0:
+                case 0x1:
+                case 0x2:
+                    if (opcode != 0) {
+                        if (socket.fragments != null) { fail(socket, 1002); return; };
+                        socket.fragmentOpcode = opcode;
+                        if (fin) { deliver(socket, opcode, payload); return; };
+                        socket.fragments = new ByteArrayOutputStream();
+                    } else if (socket.fragments == null) { fail(socket, 1002); return; };
+                    if (socket.fragments.size() + payload.length > MAX_MESSAGE) { fail(socket, 1009); return; };
+                    socket.fragments.write(payload, 0, payload.length);
+                    if (fin) {
+                        final byte[] message = socket.fragments.toByteArray();
+                        socket.fragments = null;
+                        deliver(socket, socket.fragmentOpcode, message);
+                    };
+                    return;
+                case 0x8:
+                    if (!socket.closing) { socket.enqueue(frame(0x8, payload.length >= 2 ? Arrays.copyOf(payload, 2) : new byte[0])); };
+                    socket.closing = true;
+                    return;
+                case 0x9:
+                    socket.enqueue(frame(0xA, payload));
+                    return;
+                case 0xA:
+                    return;
+                default:
+                    fail(socket, 1002);
+            }
+        };
+
+
+        private void deliver(final WebSocket socket, final int opcode, final byte[] message) {
+            try {
+                if (opcode == 0x1) { textListener.accept(socket, new String(message, StandardCharsets.UTF_8)); }
+                else { binaryListener.accept(socket, message); };
+            } catch (RuntimeException e) { Log.error("WebSocket 消息处理失败", e); };
+        };
+
+
+        // 协议错误时发送关闭帧并断开
+        private void fail(final WebSocket socket, final int code) {
+            socket.enqueue(frame(0x8, new byte[] { (byte) (code >> 8), (byte) code }));
+            socket.closing = true;
+        };
+
+
+        // 写出连接的待发送数据，写不完时关注可写事件
+        private void flush(final WebSocket socket) {
+            if (!socket.channel.isOpen()) { return; };
+            if (socket.dropped) { terminate(socket); return; };
+            try {
+                synchronized (socket) {
+                    while (!socket.out.isEmpty()) {
+                        final ByteBuffer buffer = socket.out.peek();
+                        socket.channel.write(buffer);
+                        if (buffer.hasRemaining()) { break; };
+                        socket.out.poll();
+                        socket.pending -= buffer.limit();
+                    };
+                    if (socket.out.isEmpty() && socket.closing) { terminate(socket); return; };
+                    socket.key.interestOps(socket.out.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                };
+            } catch (IOException | CancelledKeyException e) { terminate(socket); };
+        };
+
+
+        // 定期发送 ping，长时间无响应的连接直接断开
+        private void keepAlive(final long now) {
+            for (WebSocket socket : sockets) {
+                if (now - socket.lastSeen > 2 * PING_NANOS) { terminate(socket); }
+                else if (now - socket.lastPing > PING_NANOS) { socket.lastPing = now; socket.enqueue(frame(0x9, new byte[0])); };
+            };
+        };
+
+
+        // 立即关闭连接
+        private void terminate(final WebSocket socket) {
+            if (!socket.channel.isOpen()) { return; };
+            try { socket.channel.close(); }
+            catch (IOException e) { Log.debug("关闭 WebSocket 失败: {}", e.getMessage()); };
+            synchronized (socket) { socket.out.clear(); socket.pending = 0; };
+            if (sockets.remove(socket)) {
+                try { closeListener.accept(socket); }
+                catch (RuntimeException e) { Log.error("WebSocket 关闭回调失败", e); };
+            };
+        };
+
+
+        // 编码服务端帧，服务端帧不带掩码
+        private static ByteBuffer frame(final int opcode, final byte[] payload) {
+            final int length = payload.length;
+            final int header = length < 126 ? 2 : length <= 0xFFFF ? 4 : 10;
+            final ByteBuffer frame = ByteBuffer.allocate(header + length);
+            frame.put((byte) (0x80 | opcode));
+            if (length < 126) { frame.put((byte) length); }
+            else if (length <= 0xFFFF) { frame.put((byte) 126).putShort((short) length); }
+            else { frame.put((byte) 127).putLong(length); };
+            frame.put(payload);
+            frame.flip();
+            return frame;
+        };
+
+
+        @Override
+        public void close() throws IOException {
+            running = false;
+            for (WebSocket socket : sockets) { terminate(socket); };
+            selector.close();
+            server.close();
+        };
+    };
+
+
+
+    // 单个 WebSocket 连接，发送队列按字节数限制，超出时连接被丢弃
+    public static class WebSocket {
+        private final Hub hub;
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(8192);
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        private long pending;
+        private boolean open;
+        private volatile boolean closing;
+        private volatile boolean dropped;
+        private volatile long lastSeen = System.nanoTime();
+        private long lastPing = System.nanoTime();
+        private ByteArrayOutputStream fragments;
+        private int fragmentOpcode;
+
+        private WebSocket(final Hub hub, final SocketChannel channel) { this.hub = hub; this.channel = channel; };
+
+
+        /**
+         * 发送文本消息
+         * 
+         * @param text 文本消息
+         * @return 如果放入发送队列返回 true，连接已关闭或队列已满返回 false
+         */
+        public boolean send(final String text) { return enqueue(Hub.frame(0x1, text.getBytes(StandardCharsets.UTF_8))); };
+
+
+        /**
+         * 发送二进制消息
+         * 
+         * @param data 二进制消息
+         * @return 如果放入发送队列返回 true，连接已关闭或队列已满返回 false
+         */
+        public boolean send(final byte[] data) { return enqueue(Hub.frame(0x2, data)); };
+
+
+        /**
+         * 发送关闭帧并在写出后断开连接
+         */
+        public void close() {
+            if (closing) { return; };
+            enqueue(Hub.frame(0x8, new byte[] { (byte) (1000 >> 8), (byte) 1000 }));
+            closing = true;
+            hub.markDirty(this);
+        };
+
+
+        /**
+         * 获取客户端地址
+         * 
+         * @return 客户端地址，连接已关闭时返回 null
+         */
+        public InetSocketAddress remoteAddress() {
+            try { return (InetSocketAddress) channel.getRemoteAddress(); }
+            catch (IOException e) { return null; }
+        };
+
+
+        // 放入发送队列，超过上限时标记为丢弃
+        private boolean enqueue(final ByteBuffer frame) {
+            synchronized (this) {
+                if (closing || dropped || !channel.isOpen()) { return false; };
+                if (pending + frame.remaining() > Hub.MAX_PENDING) { dropped = true; }
+                else {
+                    out.add(frame);
+                    pending += frame.remaining();
+                };
+            };
+            hub.markDirty(this);
+            return !dropped;
+        };
+
+
+        // 扩大读缓冲区以容纳大帧
+        private void grow(final int size) {
+            final ByteBuffer bigger = ByteBuffer.allocate(Integer.highestOneBit(size - 1) << 1);
+            bigger.put(in);
+            bigger.flip();
+            in = bigger;
+        };
+    };
+
+
+
+    // 反向代理，将请求流式转发到上游服务器池，每个上游维护一组长连接并按连续失败次数被动摘除
+    public static class Proxy implements Closeable {
+        private static final String[] METHODS = { "GET", "POST", "PUT", "DELETE", "PATCH", "OPTIONS" };
+        // 逐跳头部只在单个连接上有效，不能转发
+        private static final Set<String> HOP_HEADERS = new HashSet<>(Arrays.asList("connection", "keep-alive", "proxy-connection", "proxy-authenticate", "proxy-authorization", "te", "trailer", "transfer-encoding", "upgrade", "host", "content-length", "expect"));
+        // 空闲连接的最长保留时间，需短于上游的空闲超时，JDK HttpServer 默认为 30 秒
+        private static final long IDLE_NANOS = TimeUnit.SECONDS.toNanos(20);
+        private static final int MAX_IDLE = 32;
+        private static final long MAX_BUFFERED_BODY = 64 * 1024;
+        private static final byte[] CRLF = { '\r', '\n' };
+        private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+        private final Upstream[] upstreams;
+        private final AtomicInteger next = new AtomicInteger();
+        private volatile boolean leastOutstanding;
+        private volatile int connectTimeout = 2000;
+        private volatile int readTimeout = 30000;
+        private volatile int maxFails = 3;
+        private volatile long ejectNanos = TimeUnit.SECONDS.toNanos(10);
+        private volatile boolean closed;
+
+        Proxy(final String[] urls) {
+            if (urls == null || urls.length == 0) { throw new IllegalArgumentException("At least one upstream is required"); };
+            upstreams = new Upstream[urls.length];
+            for (int i = 0; i < urls.length; i++) { upstreams[i] = new Upstream(urls[i]); };
+        };
+
+
+        /**
+         * 按轮询选择上游（默认）
+         * 
+         * @return 当前代理
+         */
+        public Proxy roundRobin() { leastOutstanding = false; return this; };
+
+
+        /**
+         * 选择未完成请求最少的上游，适合各请求耗时差异较大的场景
+         * 
+         * @return 当前代理
+         */
+        public Proxy leastOutstanding() { leastOutstanding = true; return this; };
+
+
+        /**
+         * 设置连接与读取超时，读取超时返回 504
+         * 
+         * @param connectMillis 连接超时（毫秒）
+         * @param readMillis 等待上游数据的超时（毫秒）
+         * @return 当前代理
+         */
+        public Proxy timeout(final int connectMillis, final int readMillis) {
+            if (connectMillis <= 0 || readMillis <= 0) { throw new IllegalArgumentException("Timeouts must be positive"); };
+            connectTimeout = connectMillis;
+            readTimeout = readMillis;
+            return this;
+        };
+
+
+        /**
+         * 设置被动健康检查，上游连续失败 maxFails 次后暂停转发 ejectMillis 毫秒，之后放行一个试探请求，失败则再次暂停
+         * 
+         * @param maxFails 连续失败次数
+         * @param ejectMillis 暂停时长（毫秒）
+         * @return 当前代理
+         */
+        public Proxy health(final int maxFails, final long ejectMillis) {
+            if (maxFails <= 0 || ejectMillis <= 0) { throw new IllegalArgumentException("maxFails and ejectMillis must be positive"); };
+            this.maxFails = maxFails;
+            this.ejectNanos = TimeUnit.MILLISECONDS.toNanos(ejectMillis);
+            return this;
+        };
+
+
+        /**
+         * 获取当前参与转发的上游数量
+         * 
+         * @return 未被摘除的上游数量
+         */
+        public int healthy() {
+            final long now = System.nanoTime();
+            int count = 0;
+            for (Upstream upstream : upstreams) { if (upstream.available(now)) { count++; }; };
+            return count;
+        };
+
+
+        @Override
+        public void close() {
+            closed = true;
+            for (Upstream upstream : upstreams) { upstream.drain(); };
+        };
+
+
+        // 选择上游，全部被摘除时选择最早恢复的一个，而不是直接拒绝
+        private Upstream choose() {
+            final long now = System.nanoTime();
+            final int start = Math.floorMod(next.getAndIncrement(), upstreams.length);
+            Upstream best = null, soonest = null;
+            for (int i = 0; i < upstreams.length; i++) {
+                final Upstream upstream = upstreams[(start + i) % upstreams.length];
+                if (!upstream.available(now)) {
+                    if (soonest == null || upstream.ejectedUntil - soonest.ejectedUntil < 0) { soonest = upstream; };
+                    continue;
+                };
+                if (!leastOutstanding) { return upstream; };
+                if (best == null || upstream.outstanding.get() < best.outstanding.get()) { best = upstream; };
+            };
+            return best != null ? best : soonest;
+        };
+
+
+        // 转发一个请求，请求体与响应体均边读边写，不在内存中缓存；连接失败时请求尚未发出，可换一个上游重试
+        void forward(final HttpExchange exchange) throws IOException {
+            for (int attempt = 1; ; attempt++) {
+                final Upstream upstream = choose();
+                upstream.outstanding.incrementAndGet();
+                try { if (relay(upstream, exchange, attempt < upstreams.length)) { return; }; }
+                finally { upstream.outstanding.decrementAndGet(); };
+            }
+        };
+
+
+        // 转发到指定上游，连接失败且允许重试时返回 false
+        private boolean relay(final Upstream upstream, final HttpExchange exchange, final boolean retry) throws IOException {
+            final Headers requestHeaders = exchange.getRequestHeaders();
+            final String declared = requestHeaders.getFirst("Content-Length");
+            final boolean chunked = requestHeaders.containsKey("Transfer-Encoding");
+            final long length;
+            try { length = declared == null ? -1 : Long.parseLong(declared.trim()); }
+            catch (NumberFormatException e) { exchange.sendResponseHeaders(400, -1); exchange.close(); return true; }
+            final boolean hasBody = chunked || length > 0;
+            // 长度已知的小请求体先读入内存，复用连接失效时可以在新连接上重发
+            final byte[] buffered = hasBody && !chunked && length <= MAX_BUFFERED_BODY ? readBody(exchange) : null;
+            final boolean replayable = !hasBody || buffered != null;
+
+            // 复用的连接可能已被上游关闭（keep-alive 竞争），这不是上游故障：可重发时改用新连接重试一次，否则返回 502 但不计入失败次数
+            Link link;
+            boolean fresh = false;
+            while (true) {
+                link = fresh ? null : upstream.acquire();
+                final boolean reused = link != null;
+                try {
+                    if (link == null) {
+                        try { link = upstream.connect(connectTimeout, readTimeout); }
+                        catch (IOException e) {
+                            upstream.fail(this, e.toString());
+                            if (retry) { return false; };
+                            throw e;
+                        }
+                    };
+                    writeRequest(link, exchange, upstream, hasBody, buffered != null ? buffered.length : chunked ? -1 : length, buffered);
+                    link.readHead();
+                    break;
+                } catch (IOException e) {
+                    if (link == null) { exchange.sendResponseHeaders(502, -1); exchange.close(); return true; };
+                    link.close();
+                    final boolean stale = reused && !(e instanceof SocketTimeoutException);
+                    if (stale && replayable) { fresh = true; continue; };
+                    if (!stale) { upstream.fail(this, e.toString()); };
+                    exchange.sendResponseHeaders(e instanceof SocketTimeoutException ? 504 : 502, -1);
+                    exchange.close();
+                    return true;
+                }
+            };
+            upstream.succeed();
+
+            final Headers responseHeaders = exchange.getResponseHeaders();
+            final List<String> connection = new ArrayList<>();
+            for (String[] header : link.headers) {
+                if (header[0].equalsIgnoreCase("Connection")) { connection.add(header[1]); };
+            };
+            final Set<String> hop = hopHeaders(connection);
+            for (String[] header : link.headers) {
+                if (!hop.contains(header[0].toLowerCase(Locale.ROOT))) { responseHeaders.add(header[0], header[1]); };
+            };
+            final int status = link.status;
+            final boolean noBody = "HEAD".equalsIgnoreCase(exchange.getRequestMethod()) || status == 204 || status == 304;
+            try {
+                if (noBody || (!link.chunked && link.length == 0)) {
+                    exchange.sendResponseHeaders(status, -1);
+                    exchange.close();
+                } else if (link.chunked) {
+                    exchange.sendResponseHeaders(status, 0);
+                    try (OutputStream os = exchange.getResponseBody()) { link.copyChunked(os); };
+                } else if (link.length > 0) {
+                    exchange.sendResponseHeaders(status, link.length);
+                    try (OutputStream os = exchange.getResponseBody()) { link.copy(os, link.length); };
+                } else {
+                    // 没有长度的响应以关闭连接结束，连接不能复用
+                    link.reusable = false;
+                    exchange.sendResponseHeaders(status, 0);
+                    try (OutputStream os = exchange.getResponseBody()) { link.copy(os, Long.MAX_VALUE); };
+                };
+            } catch (IOException e) {
+                // 响应头已经发出，只能中断两端连接
+                link.close();
+                exchange.close();
+                Log.debug("代理响应中断: {}", e.getMessage());
+                return true;
+            };
+            if (link.reusable && !closed) { upstream.release(link); }
+            else { link.close(); };
+            return true;
+        };
+
+
+        // 本条消息的逐跳头部：固定集合加上 Connection 头列出的名称（RFC 7230 6.1），发送方借此声明仅对本连接有效的扩展头部
+        private static Set<String> hopHeaders(final List<String> connection) {
+            if (connection == null || connection.isEmpty()) { return HOP_HEADERS; };
+            final Set<String> hop = new HashSet<>(HOP_HEADERS);
+            for (String value : connection) {
+                for (String token : value.split(",")) {
+                    final String name = token.trim();
+                    if (!name.isEmpty()) { hop.add(name.toLowerCase(Locale.ROOT)); };
+                };
+            };
+            return hop;
+        };
+
+
+        // 写出请求行、请求头与请求体
+        private static void writeRequest(final Link link, final HttpExchange exchange, final Upstream upstream, final boolean hasBody, final long length, final byte[] buffered) throws IOException {
+            final URI uri = exchange.getRequestURI();
+            final StringBuilder head = new StringBuilder(512);
+            head.append(exchange.getRequestMethod()).append(' ').append(uri.getRawPath());
+            if (uri.getRawQuery() != null) { head.append('?').append(uri.getRawQuery()); };
+            head.append(" HTTP/1.1\r\nHost: ").append(upstream.host).append("\r\n");
+
+            String forwardedFor = null;
+            final Set<String> hop = hopHeaders(exchange.getRequestHeaders().get("Connection"));
+            for (Map.Entry<String, List<String>> entry : exchange.getRequestHeaders().entrySet()) {
+                final String name = entry.getKey();
+                if (name == null || hop.contains(name.toLowerCase(Locale.ROOT))) { continue; };
+                if (name.equalsIgnoreCase("X-Forwarded-For")) { forwardedFor = String.join(", ", entry.getValue()); continue; };
+                for (String value : entry.getValue()) { head.append(name).append(": ").append(value).append("\r\n"); };
+            };
+            final String client = Router.clientIp(exchange);
+            head.append("X-Forwarded-For: ").append(forwardedFor == null ? client : forwardedFor + ", " + client).append("\r\n");
+            final String host = exchange.getRequestHeaders().getFirst("Host");
+            if (host != null) { head.append("X-Forwarded-Host: ").append(host).append("\r\n"); };
+            if (hasBody) { head.append(length >= 0 ? "Content-Length: " + length : "Transfer-Encoding: chunked").append("\r\n"); };
+            head.append("\r\n");
+            link.out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+
+            if (buffered != null) { link.out.write(buffered); }
+            else if (hasBody) {
+                final InputStream body = exchange.getRequestBody();
+                final byte[] buffer = link.buffer;
+                int n;
+                while ((n = body.read(buffer)) != -1) {
+                    if (n == 0) { continue; };
+                    if (length < 0) { link.out.write((Integer.toHexString(n) + "\r\n").getBytes(StandardCharsets.ISO_8859_1)); };
+                    link.out.write(buffer, 0, n);
+                    if (length < 0) { link.out.write(CRLF); };
+                };
+                if (length < 0) { link.out.write(LAST_CHUNK); };
+            };
+            link.out.flush();
+        };
+    };
+
+
+
+    // 上游服务器，记录未完成请求数、连续失败次数与空闲连接池
+    private static class Upstream {
+        private final String name;
+        private final String host;
+        private final InetSocketAddress address;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final ConcurrentLinkedDeque<Link> idle = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger idleCount = new AtomicInteger();
+        private volatile long ejectedUntil;
+
+        Upstream(final String url) {
+            final URI uri = URI.create(url);
+            if (!"http".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null) { throw new IllegalArgumentException("Upstream must be an http URL: " + url); };
+            final int port = uri.getPort() == -1 ? 80 : uri.getPort();
+            this.name = url;
+            this.host = port == 80 ? uri.getHost() : uri.getHost() + ":" + port;
+            this.address = new InetSocketAddress(uri.getHost(), port);
+        };
+
+        boolean available(final long now) {
+            final long until = ejectedUntil;
+            return until == 0 || now - until >= 0;
+        };
+
+        // 连续失败达到上限，或试探请求失败时暂停转发
+        void fail(final Proxy proxy, final String reason) {
+            if (ejectedUntil != 0 || failures.incrementAndGet() >= proxy.maxFails) {
+                final long until = System.nanoTime() + proxy.ejectNanos;
+                ejectedUntil = until == 0 ? 1 : until;
+                failures.set(0);
+                drain();
+                Log.warn("上游 {} 暂停转发 {} 毫秒: {}", name, TimeUnit.NANOSECONDS.toMillis(proxy.ejectNanos), reason);
+            };
+        };
+
+        void succeed() {
+            if (failures.get() != 0) { failures.set(0); };
+            if (ejectedUntil != 0) { ejectedUntil = 0; Log.info("上游 {} 恢复转发", name); };
+        };
+
+        Link connect(final int connectTimeout, final int readTimeout) throws IOException {
+            final Socket socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.connect(address, connectTimeout);
+                socket.setSoTimeout(readTimeout);
+                return new Link(socket);
+            } catch (IOException e) { socket.close(); throw e; }
+        };
+
+        // 取出最近归还的空闲连接，过期的直接关闭
+        Link acquire() {
+            final long now = System.nanoTime();
+            Link link;
+            while ((link = idle.pollFirst()) != null) {
+                idleCount.decrementAndGet();
+                if (now - link.lastUsed < Proxy.IDLE_NANOS && !link.socket.isClosed()) { return link; };
+                link.close();
+            };
+            return null;
+        };
+
+        void release(final Link link) {
+            link.lastUsed = System.nanoTime();
+            if (idleCount.incrementAndGet() <= Proxy.MAX_IDLE) { idle.offerFirst(link); }
+            else { idleCount.decrementAndGet(); link.close(); };
+        };
+
+        void drain() {
+            Link link;
+            while ((link = idle.pollFirst()) != null) { idleCount.decrementAndGet(); link.close(); };
+        };
+    };
+
+
+
+    // 到上游的一条 HTTP/1.1 连接，负责解析响应头并按长度或分块转发响应体
+    private static class Link {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final byte[] buffer = new byte[16 * 1024];
+        private final StringBuilder line = new StringBuilder(128);
+        private final List<String[]> headers = new ArrayList<>();
+        private long lastUsed;
+        private int status;
+        private long length;
+        private boolean chunked;
+        private boolean reusable;
+
+        Link(final Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+        };
+
+        // 读取状态行与响应头，跳过 1xx 临时响应
+        void readHead() throws IOException {
+            do {
+                final String statusLine = readLine();
+                if (statusLine == null) { throw new EOFException("Upstream closed the connection"); };
+                final String[] parts = statusLine.split(" ", 3);
+                if (parts.length < 2 || !parts[0].startsWith("HTTP/")) { throw new IOException("Malformed status line: " + statusLine); };
+                try { status = Integer.parseInt(parts[1]); }
+                catch (NumberFormatException e) { throw new IOException("Malformed status line: " + statusLine); }
+                reusable = !parts[0].equals("HTTP/1.0");
+                headers.clear();
+                length = -1;
+                chunked = false;
+                String header;
+                while ((header = readLine()) != null && !header.isEmpty()) {
+                    final int colon = header.indexOf(':');
+                    if (colon <= 0) { continue; };
+                    final String name = header.substring(0, colon).trim();
+                    final String value = header.substring(colon + 1).trim();
+                    if (name.equalsIgnoreCase("Content-Length")) { length = parseLength(value, 10); }
+                    else if (name.equalsIgnoreCase("Transfer-Encoding")) { chunked = value.toLowerCase(Locale.ROOT).contains("chunked"); }
+                    else if (name.equalsIgnoreCase("Connection")) { reusable = value.equalsIgnoreCase("keep-alive") || (reusable && !value.equalsIgnoreCase("close")); };
+                    headers.add(new String[] { name, value });
+                };
+                if (header == null) { throw new EOFException("Upstream closed the connection"); };
+            } while (status >= 100 && status < 200);
+        };
+
+        void copy(final OutputStream os, long remaining) throws IOException {
+            while (remaining > 0) {
+                final int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n == -1) {
+                    if (remaining == Long.MAX_VALUE) { return; };
+                    throw new EOFException("Upstream closed the connection mid-body");
+                };
+                os.write(buffer, 0, n);
+                if (remaining != Long.MAX_VALUE) { remaining -= n; };
+            };
+        };
+
+        void copyChunked(final OutputStream os) throws IOException {
+            while (true) {
+                final String sizeLine = readLine();
+                if (sizeLine == null) { throw new EOFException("Upstream closed the connection mid-body"); };
+                final int semicolon = sizeLine.indexOf(';');
+                final long size = parseLength((semicolon < 0 ? sizeLine : sizeLine.substring(0, semicolon)).trim(), 16);
+                if (size == 0) {
+                    String trailer;
+                    while ((trailer = readLine()) != null && !trailer.isEmpty()) {};
+                    return;
+                };
+                copy(os, size);
+                readLine();
+            }
+        };
+
+        // 上游给出的长度不合法时按协议错误处理，由调用方返回 502
+        private static long parseLength(final String value, final int radix) throws IOException {
+            try {
+                final long length = Long.parseLong(value, radix);
+                if (length < 0) { throw new NumberFormatException(); };
+                return length;
+            } catch (NumberFormatException e) { throw new IOException("Malformed length from upstream: " + value); }
+        };
+
+        private String readLine() throws IOException {
+            line.setLength(0);
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b == '\n') {
+                    final int end = line.length();
+                    if (end > 0 && line.charAt(end - 1) == '\r') { line.setLength(end - 1); };
+                    return line.toString();
+                };
+                if (line.length() >= 64 * 1024) { throw new IOException("Header line too long"); };
+                line.append((char) b);
+            };
+            return line.length() == 0 ? null : line.toString();
+        };
+
+        void close() {
+            try { socket.close(); }
+            catch (IOException e) { Log.debug("关闭上游连接失败: {}", e.getMessage()); }
+        };
+    };
+
+
+
+    // 静态文件处理类
+    private static class StaticFileHandler implements HttpHandler {
+        private static final byte[] NOT_FOUND = "404 Not Found".getBytes(StandardCharsets.UTF_8);
+        private final StaticCache cache;
+        public StaticFileHandler(final StaticCache cache) { this.cache = cache; };
 
         @Override
         public void handle(HttpExchange exchange) throws IOException {
             final URI requestURI = exchange.getRequestURI();
-            final String path = requestURI.getPath();
-            final Path filePath = Paths.get(directory, path);
+            final StaticEntry entry = cache.get(requestURI.getPath());
+
+            if (entry == null) {
+                if ("HEAD".equalsIgnoreCase(exchange.getRequestMethod())) { exchange.sendResponseHeaders(404, -1); exchange.close(); return; };
+                exchange.sendResponseHeaders(404, NOT_FOUND.length);
+                try (OutputStream os = exchange.getResponseBody()) { os.write(NOT_FOUND); };
+                return;
+            };
+
+            // 先选定编码，gzip 变体使用自己的 ETag，304 也要带上所选变体的 ETag
+            final boolean gzip = entry.gzip != null && Compression.acceptsGzip(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+            final Headers headers = exchange.getResponseHeaders();
+            if (entry.contentType != null) { headers.set("Content-Type", entry.contentType); };
+            headers.set("ETag", gzip ? entry.gzipEtag : entry.etag);
+            headers.set("Last-Modified", entry.lastModifiedText);
+            if (entry.gzip != null) { headers.set("Vary", "Accept-Encoding"); };
+
+            // 条件请求命中时直接返回 304
+            if (entry.notModified(exchange.getRequestHeaders().getFirst("If-None-Match"), exchange.getRequestHeaders().getFirst("If-Modified-Since"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            };
+
+            final boolean head = "HEAD".equalsIgnoreCase(exchange.getRequestMethod());
+            if (entry.bytes == null) {
+                // 未缓存的文件直接从磁盘流式发送
+                if (head) { headers.set("Content-Length", Long.toString(entry.size)); };
+                exchange.sendResponseHeaders(200, head ? -1 : entry.size);
+                if (head) { exchange.close(); return; };
+                try (OutputStream os = exchange.getResponseBody()) { Files.copy(entry.file, os); };
+                return;
+            };
+
+            final byte[] body;
+            if (gzip) {
+                headers.set("Content-Encoding", "gzip");
+                body = entry.gzip;
+            } else { body = entry.bytes; };
+            // HEAD 响应不带响应体，长度头需要手动设置
+            if (head) { headers.set("Content-Length", Integer.toString(body.length)); };
+            exchange.sendResponseHeaders(200, head ? -1 : body.length);
+            if (head) { exchange.close(); return; };
+            try (OutputStream os = exchange.getResponseBody()) { os.write(body); };
+        };
+    };
+
+
+
+    // 静态文件缓存条目，保存原始内容、gzip 内容与校验信息
+    private static class StaticEntry {
+        private final Path file;
+        private final long size;
+        private final byte[] bytes;
+        private final byte[] gzip;
+        private final String contentType;
+        private final String etag;
+        private final String gzipEtag;
+        private final long lastModified;
+        private final String lastModifiedText;
+        private volatile long lastAccess;
+
+        StaticEntry(final Path file, final long size, final byte[] bytes, final byte[] gzip, final String contentType, final String etag, final long lastModified) {
+            this.file = file;
+            this.size = size;
+            this.bytes = bytes;
+            this.gzip = gzip;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.gzipEtag = gzip == null ? etag : etag.substring(0, etag.length() - 1) + "-gz\"";
+            this.lastModified = lastModified / 1000 * 1000;
+            this.lastModifiedText = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(lastModified), ZoneOffset.UTC));
+        };
+
+        // 缓存占用的字节数
+        long weight() { return (bytes == null ? 0 : bytes.length) + (gzip == null ? 0 : gzip.length); };
+
+        // 判断条件请求是否可以返回 304，If-None-Match 优先于 If-Modified-Since；两种编码变体的 ETag 都视为命中
+        boolean notModified(final String ifNoneMatch, final String ifModifiedSince) {
+            if (ifNoneMatch != null) {
+                for (String tag : ifNoneMatch.split(",")) {
+                    final String value = tag.trim();
+                    final String opaque = value.startsWith("W/") ? value.substring(2) : value;
+                    if (value.equals("*") || opaque.equals(etag) || opaque.equals(gzipEtag)) { return true; };
+                };
+                return false;
+            };
+            if (ifModifiedSince != null) {
+                try { return ZonedDateTime.parse(ifModifiedSince.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli() >= lastModified; }
+                catch (Exception e) { return false; }
+            };
+            return false;
+        };
+    };
+
+
+
+    // 静态文件内存缓存，按容量淘汰最久未访问的条目，并通过 WatchService 监听目录变化使条目失效
+    // 访问顺序记录在以访问戳为键的跳表中，淘汰时从头部取出最旧的条目，不再全表扫描
+    private static class StaticCache implements Closeable {
+        private static final long DEFAULT_CAPACITY = 64L * 1024 * 1024;
+        private static final int MIN_GZIP_SIZE = 256;
+
+        private final Path root;
+        private final long capacity;
+        private final long maxEntrySize;
+        private final Map<Path, StaticEntry> entries = new ConcurrentHashMap<>();
+        private final ConcurrentSkipListMap<Long, StaticEntry> order = new ConcurrentSkipListMap<>();
+        private final AtomicLong used = new AtomicLong();
+        private final AtomicLong clock = new AtomicLong();
+        private final AtomicLong version = new AtomicLong();
+        private WatchService watcher;
+
+        StaticCache(final Path root, final long capacity) {
+            this.root = root.toAbsolutePath().normalize();
+            this.capacity = Math.max(0, capacity);
+            this.maxEntrySize = Math.min(this.capacity / 8, 8L * 1024 * 1024);
+            if (this.capacity > 0) { watch(); };
+        };
+
+
+        // 根据请求路径获取缓存条目，文件不存在时返回 null
+        StaticEntry get(final String requestPath) throws IOException {
+            final Path file = root.resolve(requestPath.startsWith("/") ? requestPath.substring(1) : requestPath).normalize();
+            if (!file.startsWith(root)) { return null; };
+
+            final StaticEntry cached = entries.get(file);
+            if (cached != null) { touch(cached); return cached; };
+
+            final long loadVersion = version.get();
+            final StaticEntry entry = load(file);
+            if (entry == null || entry.bytes == null) { return entry; };
+
+            // 加载期间目录发生变化时不写入缓存，避免缓存过期内容
+            if (watcher != null && version.get() == loadVersion) {
+                touch(entry);
+                final StaticEntry previous = entries.put(file, entry);
+                if (previous != null) { order.remove(previous.lastAccess, previous); };
+                used.addAndGet(entry.weight() - (previous == null ? 0 : previous.weight()));
+                evict();
+            };
+            return entry;
+        };
 
-            if (Files.exists(filePath) && Files.isRegularFile(filePath)) {
-                exchange.getResponseHeaders().set("Content-Type", Files.probeContentType(filePath));
-                final byte[] fileContent = Files.readAllBytes(filePath);
-                exchange.sendResponseHeaders(200, fileContent.length);
-                try (OutputStream os = exchange.getResponseBody()) { os.write(fileContent); };
-            } else {
-                final String notFoundResponse = "404 Not Found";
-                exchange.sendResponseHeaders(404, notFoundResponse.length());
-                try (OutputStream os = exchange.getResponseBody()) { os.write(notFoundResponse.getBytes()); };
+
+        // 从磁盘读取文件并生成缓存条目
+        private StaticEntry load(final Path file) throws IOException {
+            final BasicFileAttributes attrs;
+            try { attrs = Files.readAttributes(file, BasicFileAttributes.class); }
+            catch (IOException e) { return null; }
+            if (!attrs.isRegularFile()) { return null; };
+
+            final long size = attrs.size();
+            final long modified = attrs.lastModifiedTime().toMillis();
+            final String contentType = Files.probeContentType(file);
+            // 不缓存时（未监听目录或文件过大）不读入内容，不做压缩与摘要，直接流式发送并用大小与修改时间作为 ETag
+            if (watcher == null || size > maxEntrySize) { return new StaticEntry(file, size, null, null, contentType, "\"" + Long.toHexString(size) + "-" + Long.toHexString(modified) + "\"", modified); };
+
+            final byte[] bytes = Files.readAllBytes(file);
+            final byte[] gzip = bytes.length >= MIN_GZIP_SIZE && Compression.compressible(contentType) ? gzip(bytes) : null;
+            return new StaticEntry(file, bytes.length, bytes, gzip, contentType, "\"" + digest(bytes) + "\"", modified);
+        };
+
+
+        // 记录一次访问：换上新的访问戳，并移除旧戳在跳表中的位置
+        private void touch(final StaticEntry entry) {
+            final long stamp = clock.incrementAndGet();
+            final long previous = entry.lastAccess;
+            entry.lastAccess = stamp;
+            order.put(stamp, entry);
+            order.remove(previous, entry);
+        };
+
+
+        // 超出容量时从跳表头部淘汰最久未访问的条目；访问戳已被更新的是并发访问留下的旧位置，直接丢弃
+        private void evict() {
+            while (used.get() > capacity) {
+                final Map.Entry<Long, StaticEntry> oldest = order.pollFirstEntry();
+                if (oldest == null) { return; };
+                final StaticEntry entry = oldest.getValue();
+                if (entry.lastAccess != oldest.getKey()) { continue; };
+                if (entries.remove(entry.file, entry)) { used.addAndGet(-entry.weight()); };
+            };
+        };
+
+
+        // 使指定路径及其子路径下的条目失效
+        private void invalidate(final Path path) {
+            version.incrementAndGet();
+            for (Map.Entry<Path, StaticEntry> e : entries.entrySet()) {
+                if (e.getKey().startsWith(path) && entries.remove(e.getKey(), e.getValue())) {
+                    order.remove(e.getValue().lastAccess, e.getValue());
+                    used.addAndGet(-e.getValue().weight());
+                };
+            };
+        };
+
+
+        // 启动目录监听线程
+        private void watch() {
+            if (!Files.isDirectory(root)) { return; };
+            try {
+                watcher = FileSystems.getDefault().newWatchService();
+                register(root);
+            } catch (IOException e) {
+                Log.warn("静态目录监听失败，缓存已禁用: {}", e.getMessage());
+                watcher = null;
+                return;
             };
+
+            final Thread thread = new Thread(this::poll, "net-static-watch");
+            thread.setDaemon(true);
+            thread.start();
+        };
+
+
+        // 递归注册目录及其子目录
+        private void register(final Path dir) throws IOException {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path subDir, BasicFileAttributes attrs) throws IOException {
+                    subDir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                    return FileVisitResult.CONTINUE;
+                };
+            });
+        };
+
+
+        // 处理目录变化事件
+        private void poll() {
+            try {
+                while (true) {
+                    final WatchKey key = watcher.take();
+                    final Path dir = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) { invalidate(root); continue; };
+                        final Path changed = dir.resolve((Path) event.context());
+                        invalidate(changed);
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+                            try { register(changed); }
+                            catch (IOException e) { Log.warn("注册子目录监听失败: {}", e.getMessage()); };
+                        };
+                    };
+                    if (!key.reset()) { invalidate(dir); };
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) { invalidate(root); };
+        };
+
+
+        @Override
+        public void close() throws IOException { if (watcher != null) { watcher.close(); }; };
+
+
+        // 预先压缩内容，压缩后未变小时不保留
+        private static byte[] gzip(final byte[] bytes) throws IOException {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream(bytes.length / 2);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(baos)) { gzip.write(bytes); };
+            return baos.size() < bytes.length ? baos.toByteArray() : null;
+        };
+
+
+        // 计算内容摘要作为强 ETag
+        private static String digest(final byte[] bytes) {
+            try {
+                final byte[] hash = MessageDigest.getInstance("SHA-1").digest(bytes);
+                final StringBuilder sb = new StringBuilder(hash.length * 2);
+                for (byte b : hash) { sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16)); };
+                return sb.toString();
+            } catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
         };
     };
 
@@ -262,4 +3292,84 @@ public class Net {
 
     // 定义一个接口，用户可以实现该接口来自定义如何处理请求
     public interface RequestProcessor { String processRequest(HttpExchange exchange, String requestContent) throws IOException; };
+
+
+
+    // 流式请求处理接口，请求体以输入流的形式交给处理器，超出长度上限时读取会抛出异常
+    public interface StreamProcessor { String processRequest(HttpExchange exchange, InputStream body) throws IOException; };
+
+
+
+    // 分块请求处理接口，请求体每读取一块回调一次 onChunk，全部读完后调用 onComplete 生成响应
+    public interface ChunkProcessor {
+        void onChunk(HttpExchange exchange, byte[] buffer, int offset, int length) throws IOException;
+        String onComplete(HttpExchange exchange) throws IOException;
+        default void onAbort(HttpExchange exchange, Exception cause) {};
+    };
+
+
+
+    // 流式响应处理接口，处理器直接向 writer 写出响应内容
+    public interface WriterProcessor { void processRequest(HttpExchange exchange, String requestContent, Writer writer) throws IOException; };
+
+
+
+    // 模板数据处理接口，返回的数据交给模板渲染
+    public interface ModelProcessor { Map<String, ?> processRequest(HttpExchange exchange, String requestContent) throws IOException; };
+
+
+
+    // 异步请求处理接口，返回的 Future 完成时写出响应
+    public interface AsyncRequestProcessor { CompletableFuture<Response> processRequest(HttpExchange exchange, String requestContent) throws IOException; };
+
+
+
+    // 异步处理器返回的响应，状态码、响应头与响应体均由处理器决定
+    public static class Response {
+        private final int status;
+        private final byte[] body;
+        private final Map<String, String> headers = new LinkedHashMap<>();
+
+        /**
+         * 构造函数，返回 200 与 HTML 文本
+         * 
+         * @param body 响应内容
+         */
+        public Response(final String body) { this(200, body); };
+
+
+        /**
+         * 构造函数，指定状态码与 HTML 文本
+         * 
+         * @param status 状态码
+         * @param body 响应内容
+         */
+        public Response(final int status, final String body) {
+            this(status, body == null ? null : body.getBytes(StandardCharsets.UTF_8));
+            headers.put("Content-Type", HTML_TYPE);
+        };
+
+
+        /**
+         * 构造函数，指定状态码与原始字节
+         * 
+         * @param status 状态码
+         * @param body 响应字节
+         */
+        public Response(final int status, final byte[] body) {
+            if (status < 100 || status > 999) { throw new IllegalArgumentException("Invalid status code: " + status); };
+            this.status = status;
+            this.body = body;
+        };
+
+
+        /**
+         * 设置响应头
+         * 
+         * @param name 响应头名称
+         * @param value 响应头值
+         * @return 当前响应
+         */
+        public Response header(final String name, final String value) { headers.put(name, value); return this; };
+    };
 };
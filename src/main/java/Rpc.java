@@ -0,0 +1,714 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class Rpc {
+    // 帧类型：首次调用某个方法时使用 DEFINE 帧携带方法签名，之后只发送方法编号
+    private static final int CALL = 1;
+    private static final int DEFINE = 2;
+    private static final int RESULT = 3;
+    private static final int ERROR = 4;
+
+    // 值类型标记
+    private static final int NULL = 0;
+    private static final int FALSE = 1;
+    private static final int TRUE = 2;
+    private static final int INT = 3;
+    private static final int LONG = 4;
+    private static final int DOUBLE = 5;
+    private static final int FLOAT = 6;
+    private static final int STRING = 7;
+    private static final int BYTES = 8;
+    private static final int LIST = 9;
+    private static final int MAP = 10;
+
+    private static final int MAX_FRAME = 16 * 1024 * 1024;
+    // 列表与映射的最大嵌套层数，防止恶意帧耗尽读取线程的栈
+    private static final int MAX_DEPTH = 64;
+    private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+
+
+
+
+    // -------------------------------------------------- 创建服务端与客户端 --------------------------------------------------
+
+    /**
+     * 在指定端口启动 RPC 服务端
+     *
+     * @param port 端口
+     * @return 服务端，调用 register 注册服务实现
+     */
+    public static Server serve(final int port) {
+        if (port < 1 || port > 65535) { throw new IllegalArgumentException("The port number must be between 1 and 65535"); };
+        try { return new Server(port); }
+        catch (IOException e) { throw new UncheckedIOException("RPC 服务创建失败", e); }
+    };
+
+
+    /**
+     * 连接 RPC 服务端，所有调用复用同一条长连接，请求可乱序返回
+     *
+     * @param host 主机
+     * @param port 端口
+     * @return 客户端，调用 proxy 获取服务代理
+     */
+    public static Client connect(final String host, final int port) {
+        try { return new Client(host, port); }
+        catch (IOException e) { throw new UncheckedIOException("RPC 连接失败: " + host + ":" + port, e); }
+    };
+
+
+    // 方法签名，同一接口中参数个数相同的重载方法无法区分
+    private static String signature(final Class<?> service, final Method method) { return service.getName() + "#" + method.getName() + "/" + method.getParameterCount(); };
+
+
+
+
+
+    // -------------------------------------------------- 服务端 --------------------------------------------------
+
+    // RPC 服务端，每个连接一个读取线程，调用交给工作线程池执行，结果按完成顺序写回
+    public static class Server implements Closeable {
+        private final ServerSocket serverSocket;
+        private final Map<String, Invoker> methods = new ConcurrentHashMap<>();
+        private final Set<Channel> channels = ConcurrentHashMap.newKeySet();
+        private final ExecutorService workers;
+        private volatile boolean closed;
+
+        Server(final int port) throws IOException {
+            serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(port));
+            final AtomicInteger count = new AtomicInteger();
+            workers = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2), task -> {
+                final Thread thread = new Thread(task, "rpc-worker-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            final Thread acceptor = new Thread(this::accept, "rpc-accept");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        };
+
+
+        /**
+         * 注册服务实现，接口中的方法可返回普通值或 CompletableFuture
+         *
+         * @param service 服务接口
+         * @param implementation 服务实现
+         * @return 当前服务端
+         */
+        public <T> Server register(final Class<T> service, final T implementation) {
+            if (!service.isInterface()) { throw new IllegalArgumentException("The service must be an interface: " + service.getName()); };
+            for (Method method : service.getMethods()) {
+                if (method.isDefault() || Modifier.isStatic(method.getModifiers())) { continue; };
+                method.setAccessible(true);
+                if (methods.putIfAbsent(signature(service, method), new Invoker(method, implementation)) != null) {
+                    throw new IllegalArgumentException("Duplicate or overloaded method: " + signature(service, method));
+                };
+            };
+            return this;
+        };
+
+
+        @Override
+        public void close() {
+            closed = true;
+            try { serverSocket.close(); }
+            catch (IOException e) { Log.debug("关闭 RPC 服务失败: {}", e.getMessage()); }
+            for (Channel channel : channels) { channel.close(); };
+            workers.shutdownNow();
+        };
+
+
+        private void accept() {
+            while (!closed) {
+                try {
+                    final Channel channel = new Channel(serverSocket.accept());
+                    channels.add(channel);
+                    final Thread reader = new Thread(() -> serve(channel), "rpc-conn");
+                    reader.setDaemon(true);
+                    reader.start();
+                } catch (IOException e) { if (!closed) { Log.warn("RPC 接受连接失败: {}", e.getMessage()); }; }
+            }
+        };
+
+
+        // 连接读取循环，方法编号表只由本线程访问
+        private void serve(final Channel channel) {
+            final Map<Integer, Invoker> table = new HashMap<>();
+            try {
+                while (true) {
+                    final Reader frame = channel.read();
+                    if (frame == null) { break; };
+                    final int type = frame.readByte();
+                    final int id = frame.readVarint();
+                    final int methodId = frame.readVarint();
+                    if (type == DEFINE) {
+                        final String signature = frame.readString();
+                        final Invoker invoker = methods.get(signature);
+                        if (invoker == null) { channel.reply(id, null, "No such method: " + signature); continue; };
+                        table.put(methodId, invoker);
+                    } else if (type != CALL) { throw new IOException("Unexpected frame type: " + type); };
+
+                    final Invoker invoker = table.get(methodId);
+                    if (invoker == null) { channel.reply(id, null, "Undefined method id: " + methodId); continue; };
+                    final Object[] args = new Object[invoker.types.length];
+                    final int count = frame.readVarint();
+                    for (int i = 0; i < count; i++) {
+                        final Object value = frame.readValue();
+                        if (i < args.length) { args[i] = coerce(value, invoker.types[i]); };
+                    };
+                    for (int i = count; i < args.length; i++) { args[i] = coerce(null, invoker.types[i]); };
+                    workers.execute(() -> invoker.invoke(channel, id, args));
+                }
+            } catch (IOException | RuntimeException e) { if (!closed) { Log.debug("RPC 连接断开: {}", e.getMessage()); }; }
+            channels.remove(channel);
+            channel.close();
+        };
+    };
+
+
+
+    // 服务方法
+    private static class Invoker {
+        private final Method method;
+        private final Object target;
+        private final Class<?>[] types;
+        Invoker(final Method method, final Object target) { this.method = method; this.target = target; this.types = method.getParameterTypes(); };
+
+        void invoke(final Channel channel, final int id, final Object[] args) {
+            try {
+                final Object result = method.invoke(target, args);
+                if (result instanceof CompletableFuture) {
+                    ((CompletableFuture<?>) result).whenComplete((value, error) -> {
+                        if (error == null) { channel.reply(id, value, null); }
+                        else { channel.reply(id, null, describe(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error)); };
+                    });
+                } else { channel.reply(id, result, null); };
+            } catch (InvocationTargetException e) { channel.reply(id, null, describe(e.getCause())); }
+            catch (IllegalAccessException | RuntimeException e) { channel.reply(id, null, describe(e)); }
+        };
+
+        private static String describe(final Throwable error) { return error.getClass().getName() + ": " + error.getMessage(); };
+    };
+
+
+
+
+
+    // -------------------------------------------------- 客户端 --------------------------------------------------
+
+    // RPC 客户端，多个线程的调用在同一连接上并发进行，按调用编号匹配返回结果
+    public static class Client implements Closeable {
+        private final Channel channel;
+        private final Map<Integer, CompletableFuture<Object>> pending = new ConcurrentHashMap<>();
+        private final Map<Method, MethodRef> refs = new ConcurrentHashMap<>();
+        private final AtomicInteger callIds = new AtomicInteger();
+        private final AtomicInteger methodIds = new AtomicInteger();
+        private volatile long timeoutMillis = 30000;
+        private volatile IOException failure;
+
+        Client(final String host, final int port) throws IOException {
+            final Socket socket = new Socket();
+            try { socket.connect(new InetSocketAddress(host, port), 5000); }
+            catch (IOException e) { socket.close(); throw e; }
+            channel = new Channel(socket);
+            final Thread reader = new Thread(this::receive, "rpc-client");
+            reader.setDaemon(true);
+            reader.start();
+        };
+
+
+        /**
+         * 获取服务代理，返回 CompletableFuture 的方法异步调用，其余方法阻塞等待结果
+         *
+         * @param service 服务接口
+         * @return 服务代理
+         */
+        @SuppressWarnings("unchecked")
+        public <T> T proxy(final Class<T> service) {
+            if (!service.isInterface()) { throw new IllegalArgumentException("The service must be an interface: " + service.getName()); };
+            return (T) Proxy.newProxyInstance(service.getClassLoader(), new Class<?>[] { service }, (proxy, method, args) -> {
+                if (method.getDeclaringClass() == Object.class) {
+                    switch (method.getName()) {
+                        case "equals": return proxy == args[0];
+                        case "hashCode": return System.identityHashCode(proxy);
+                        default: return "Rpc.proxy(" + service.getName() + ")";
+                    }
+                };
+                final MethodRef ref = refs.computeIfAbsent(method, m -> new MethodRef(methodIds.incrementAndGet(), signature(service, m)));
+                final int id = callIds.incrementAndGet();
+                final CompletableFuture<Object> future = call(ref, id, args);
+                if (method.getReturnType() == CompletableFuture.class) { return future; };
+                return coerce(await(id, future), method.getReturnType());
+            });
+        };
+
+
+        /**
+         * 设置同步调用的超时时间
+         *
+         * @param millis 超时时间（毫秒）
+         * @return 当前客户端
+         */
+        public Client timeout(final long millis) {
+            if (millis <= 0) { throw new IllegalArgumentException("The timeout must be positive"); };
+            timeoutMillis = millis;
+            return this;
+        };
+
+
+        /**
+         * 获取已发送的字节数
+         *
+         * @return 字节数
+         */
+        public long bytesSent() { return channel.bytesOut; };
+
+
+        /**
+         * 获取已接收的字节数
+         *
+         * @return 字节数
+         */
+        public long bytesReceived() { return channel.bytesIn; };
+
+
+        @Override
+        public void close() {
+            channel.close();
+            fail(new IOException("RPC client closed"));
+        };
+
+
+        // 参数先编码再登记 Future，参数类型不受支持时异常直接抛给调用方，pending 中不留条目
+        private CompletableFuture<Object> call(final MethodRef ref, final int id, final Object[] args) {
+            final CompletableFuture<Object> future = new CompletableFuture<>();
+            final IOException error = failure;
+            if (error != null) { future.completeExceptionally(new UncheckedIOException(error)); return future; };
+
+            final Buffer body = BUFFERS.get();
+            body.reset();
+            final int count = args == null ? 0 : args.length;
+            body.writeVarint(count);
+            for (int i = 0; i < count; i++) { body.writeValue(args[i]); };
+
+            pending.put(id, future);
+            // fail 可能在上面的检查之后、put 之前完成了遍历，再检查一次避免 Future 永远挂起
+            final IOException late = failure;
+            if (late != null) {
+                pending.remove(id);
+                future.completeExceptionally(new UncheckedIOException(late));
+                return future;
+            };
+            try { channel.call(ref, id, body); }
+            catch (IOException e) {
+                pending.remove(id);
+                future.completeExceptionally(new UncheckedIOException(e));
+            };
+            return future;
+        };
+
+
+        // 超时后移除登记，服务端迟到的结果按未知编号丢弃
+        private Object await(final int id, final CompletableFuture<Object> future) {
+            try { return future.get(timeoutMillis, TimeUnit.MILLISECONDS); }
+            catch (TimeoutException e) {
+                pending.remove(id);
+                throw new UncheckedIOException(new SocketTimeoutException("RPC call timed out after " + timeoutMillis + " ms"));
+            } catch (InterruptedException e) {
+                pending.remove(id);
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("RPC call interrupted", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) { throw (RuntimeException) e.getCause(); };
+                throw new IllegalStateException(e.getCause());
+            }
+        };
+
+
+        // 读取线程，按调用编号完成对应的 Future
+        private void receive() {
+            try {
+                while (true) {
+                    final Reader frame = channel.read();
+                    if (frame == null) { break; };
+                    final int type = frame.readByte();
+                    final CompletableFuture<Object> future = pending.remove(frame.readVarint());
+                    if (type == RESULT) {
+                        final Object value = frame.readValue();
+                        if (future != null) { future.complete(value); };
+                    } else if (type == ERROR) {
+                        final String message = frame.readString();
+                        if (future != null) { future.completeExceptionally(new RemoteException(message)); };
+                    } else { throw new IOException("Unexpected frame type: " + type); };
+                }
+                fail(new EOFException("RPC connection closed by server"));
+            } catch (IOException | RuntimeException e) { fail(e instanceof IOException ? (IOException) e : new IOException(e)); }
+        };
+
+
+        private void fail(final IOException error) {
+            if (failure == null) { failure = error; };
+            for (Integer id : pending.keySet()) {
+                final CompletableFuture<Object> future = pending.remove(id);
+                if (future != null) { future.completeExceptionally(new UncheckedIOException(error)); };
+            };
+        };
+    };
+
+
+
+    // 客户端侧的方法编号，defined 只在持有写锁时读写
+    private static class MethodRef {
+        private final int id;
+        private final String signature;
+        private boolean defined;
+        MethodRef(final int id, final String signature) { this.id = id; this.signature = signature; };
+    };
+
+
+
+    // 远程方法抛出的异常
+    public static class RemoteException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        RemoteException(final String message) { super(message); };
+    };
+
+
+
+
+
+    // -------------------------------------------------- 连接与编码 --------------------------------------------------
+
+    // 一条 RPC 连接，帧格式为 varint 长度 + 帧内容；多个线程写出时由最后一个写完的线程刷新，合并小帧
+    private static class Channel {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final AtomicInteger writers = new AtomicInteger();
+        private final Buffer header = new Buffer();
+        private byte[] frame = new byte[256];
+        private volatile long bytesIn;
+        private volatile long bytesOut;
+
+        Channel(final Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            this.in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+        };
+
+
+        // 读取一帧，连接关闭时返回 null；返回的读取器在下次调用前有效
+        Reader read() throws IOException {
+            int length = 0, shift = 0, b;
+            do {
+                b = in.read();
+                if (b == -1) { if (shift == 0) { return null; }; throw new EOFException("Truncated frame"); };
+                length |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0 && shift < 35);
+            if (length < 0 || length > MAX_FRAME) { throw new IOException("Frame too large: " + length); };
+            if (frame.length < length) { frame = new byte[Math.max(length, frame.length * 2)]; };
+            int read = 0;
+            while (read < length) {
+                final int n = in.read(frame, read, length - read);
+                if (n == -1) { throw new EOFException("Truncated frame"); };
+                read += n;
+            };
+            bytesIn += length + shift / 7;
+            return new Reader(frame, length);
+        };
+
+
+        // 写出调用帧，方法首次调用时改用 DEFINE 帧附带签名
+        void call(final MethodRef ref, final int id, final Buffer body) throws IOException {
+            writers.incrementAndGet();
+            synchronized (this) {
+                try {
+                    header.reset();
+                    header.writeByte(ref.defined ? CALL : DEFINE);
+                    header.writeVarint(id);
+                    header.writeVarint(ref.id);
+                    if (!ref.defined) { header.writeString(ref.signature); };
+                    write(header, body);
+                    ref.defined = true;
+                } finally { release(); };
+            }
+        };
+
+
+        // 写出调用结果或错误，连接已断开时丢弃
+        void reply(final int id, final Object value, final String error) {
+            final Buffer body = BUFFERS.get();
+            body.reset();
+            body.writeByte(error == null ? RESULT : ERROR);
+            body.writeVarint(id);
+            try {
+                if (error == null) { body.writeValue(value); } else { body.writeString(error); };
+            } catch (IllegalArgumentException e) {
+                body.reset();
+                body.writeByte(ERROR);
+                body.writeVarint(id);
+                body.writeString(e.getMessage());
+            };
+            writers.incrementAndGet();
+            try {
+                synchronized (this) {
+                    try { write(null, body); }
+                    finally { release(); };
+                }
+            } catch (IOException e) { Log.debug("RPC 写出结果失败: {}", e.getMessage()); close(); }
+        };
+
+
+        private void write(final Buffer head, final Buffer body) throws IOException {
+            final int length = (head == null ? 0 : head.size) + body.size;
+            int value = length, varint = 1;
+            while ((value & ~0x7F) != 0) { out.write((value & 0x7F) | 0x80); value >>>= 7; varint++; };
+            out.write(value);
+            if (head != null) { out.write(head.bytes, 0, head.size); };
+            out.write(body.bytes, 0, body.size);
+            bytesOut += length + varint;
+        };
+
+
+        // 最后一个写完的线程负责刷新
+        private void release() throws IOException { if (writers.decrementAndGet() == 0) { out.flush(); }; };
+
+
+        void close() {
+            try { socket.close(); }
+            catch (IOException e) { Log.debug("关闭 RPC 连接失败: {}", e.getMessage()); }
+        };
+    };
+
+
+
+    // 可增长的写缓冲区
+    private static class Buffer {
+        private byte[] bytes = new byte[256];
+        private int size;
+
+        void reset() { size = 0; };
+
+        private void ensure(final int extra) { if (size + extra > bytes.length) { bytes = Arrays.copyOf(bytes, Math.max(size + extra, bytes.length * 2)); }; };
+
+        void writeByte(final int b) { ensure(1); bytes[size++] = (byte) b; };
+
+        void writeVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) { bytes[size++] = (byte) ((value & 0x7F) | 0x80); value >>>= 7; };
+            bytes[size++] = (byte) value;
+        };
+
+        void writeVarlong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) { bytes[size++] = (byte) ((value & 0x7F) | 0x80); value >>>= 7; };
+            bytes[size++] = (byte) value;
+        };
+
+        void writeString(final String value) { writeBytes(value.getBytes(StandardCharsets.UTF_8)); };
+
+        void writeBytes(final byte[] value) {
+            writeVarint(value.length);
+            ensure(value.length);
+            System.arraycopy(value, 0, bytes, size, value.length);
+            size += value.length;
+        };
+
+        void writeFixed(final long value, final int count) {
+            ensure(count);
+            for (int i = 0; i < count; i++) { bytes[size++] = (byte) (value >>> (i * 8)); };
+        };
+
+
+        // 按类型标记写出一个值，整数使用 zigzag varint
+        void writeValue(final Object value) {
+            if (value == null) { writeByte(NULL); }
+            else if (value instanceof Boolean) { writeByte((Boolean) value ? TRUE : FALSE); }
+            else if (value instanceof Integer || value instanceof Short || value instanceof Byte) { writeByte(INT); final int v = ((Number) value).intValue(); writeVarint((v << 1) ^ (v >> 31)); }
+            else if (value instanceof Long) { writeByte(LONG); final long v = (Long) value; writeVarlong((v << 1) ^ (v >> 63)); }
+            else if (value instanceof Double) { writeByte(DOUBLE); writeFixed(Double.doubleToRawLongBits((Double) value), 8); }
+            else if (value instanceof Float) { writeByte(FLOAT); writeFixed(Float.floatToRawIntBits((Float) value), 4); }
+            else if (value instanceof String || value instanceof Character) { writeByte(STRING); writeString(value.toString()); }
+            else if (value instanceof byte[]) { writeByte(BYTES); writeBytes((byte[]) value); }
+            else if (value instanceof List) {
+                final List<?> list = (List<?>) value;
+                writeByte(LIST);
+                writeVarint(list.size());
+                for (Object item : list) { writeValue(item); };
+            } else if (value.getClass().isArray()) {
+                final int length = Array.getLength(value);
+                writeByte(LIST);
+                writeVarint(length);
+                for (int i = 0; i < length; i++) { writeValue(Array.get(value, i)); };
+            } else if (value instanceof Map) {
+                final Map<?, ?> map = (Map<?, ?>) value;
+                writeByte(MAP);
+                writeVarint(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) { writeValue(entry.getKey()); writeValue(entry.getValue()); };
+            } else { throw new IllegalArgumentException("Unsupported RPC value type: " + value.getClass().getName()); };
+        };
+    };
+
+
+
+    // 帧内容读取器
+    private static class Reader {
+        private final byte[] bytes;
+        private final int limit;
+        private int position;
+        private int depth;
+        Reader(final byte[] bytes, final int limit) { this.bytes = bytes; this.limit = limit; };
+
+        int readByte() throws IOException {
+            if (position >= limit) { throw new EOFException("Truncated frame"); };
+            return bytes[position++] & 0xFF;
+        };
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                final int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) { return value; };
+            };
+            throw new IOException("Malformed varint");
+        };
+
+        long readVarlong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                final int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) { return value; };
+            };
+            throw new IOException("Malformed varint");
+        };
+
+        long readFixed(final int count) throws IOException {
+            long value = 0;
+            for (int i = 0; i < count; i++) { value |= (long) readByte() << (i * 8); };
+            return value;
+        };
+
+        byte[] readBytes() throws IOException {
+            final int length = readVarint();
+            if (length < 0 || length > limit - position) { throw new EOFException("Truncated frame"); };
+            final byte[] value = Arrays.copyOfRange(bytes, position, position + length);
+            position += length;
+            return value;
+        };
+
+        String readString() throws IOException {
+            final int length = readVarint();
+            if (length < 0 || length > limit - position) { throw new EOFException("Truncated frame"); };
+            final String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        };
+
+        Object readValue() throws IOException {
+            final int tag = readByte();
+            switch (tag) {
+                case NULL: return null;
+                case FALSE: return Boolean.FALSE;
+                case TRUE: return Boolean.TRUE;
+                case INT: { final int v = readVarint(); return (v >>> 1) ^ -(v & 1); }
+                case LONG: { final long v = readVarlong(); return (v >>> 1) ^ -(v & 1); }
+                case DOUBLE: return Double.longBitsToDouble(readFixed(8));
+                case FLOAT: return Float.intBitsToFloat((int) readFixed(4));
+                case STRING: return readString();
+                case BYTES: return readBytes();
+                case LIST: {
+                    final int size = readVarint();
+                    if (size < 0 || size > limit - position) { throw new IOException("Malformed list size: " + size); };
+                    enter();
+                    final List<Object> list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) { list.add(readValue()); };
+                    depth--;
+                    return list;
+                }
+                case MAP: {
+                    final int size = readVarint();
+                    if (size < 0 || size > limit - position) { throw new IOException("Malformed map size: " + size); };
+                    enter();
+                    final Map<Object, Object> map = new LinkedHashMap<>(size * 2);
+                    for (int i = 0; i < size; i++) { map.put(readValue(), readValue()); };
+                    depth--;
+                    return map;
+                }
+                default: throw new IOException("Unknown value tag: " + tag);
+            }
+        };
+
+        private void enter() throws IOException {
+            if (++depth > MAX_DEPTH) { throw new IOException("Value nested deeper than " + MAX_DEPTH + " levels"); };
+        };
+    };
+
+
+    // 将解码后的值转换为声明的参数或返回值类型
+    private static Object coerce(final Object value, final Class<?> type) {
+        if (type == void.class || type == Void.class) { return null; };
+        if (value == null) {
+            if (!type.isPrimitive()) { return null; };
+            if (type == boolean.class) { return false; };
+            if (type == char.class) { return '\0'; };
+            return coerce(0, type);
+        };
+        if (value instanceof Number) {
+            final Number number = (Number) value;
+            if (type == int.class || type == Integer.class) { return number.intValue(); };
+            if (type == long.class || type == Long.class) { return number.longValue(); };
+            if (type == double.class || type == Double.class) { return number.doubleValue(); };
+            if (type == float.class || type == Float.class) { return number.floatValue(); };
+            if (type == short.class || type == Short.class) { return number.shortValue(); };
+            if (type == byte.class || type == Byte.class) { return number.byteValue(); };
+        };
+        if ((type == char.class || type == Character.class) && value instanceof String && ((String) value).length() == 1) { return ((String) value).charAt(0); };
+        if (type.isArray() && type != byte[].class && value instanceof List) {
+            final List<?> list = (List<?>) value;
+            final Object array = Array.newInstance(type.getComponentType(), list.size());
+            for (int i = 0; i < list.size(); i++) { Array.set(array, i, coerce(list.get(i), type.getComponentType())); };
+            return array;
+        };
+        return value;
+    };
+};
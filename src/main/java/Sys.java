@@ -32,7 +32,7 @@ public class Sys {
                 if (currentTime >= endTime) {  scheduler.shutdown(); } 
                 else {
                     try {  task.run();  } 
-                    catch (Exception e) {  System.err.println("任务执行异常: " + e.getMessage());  }
+                    catch (Exception e) {  Log.error("任务执行异常: {}", e.getMessage());  }
                 };
             };
         };
@@ -59,7 +59,7 @@ public class Sys {
             public void run() {
                 if (isRunning.get()) {
                     try { task.run(); } 
-                    catch (Exception e) { System.err.println("任务执行异常: " + e.getMessage()); }
+                    catch (Exception e) { Log.error("任务执行异常: {}", e.getMessage()); }
                 } else { scheduler.shutdown(); };
             };
         };
@@ -103,7 +103,7 @@ public class Sys {
         try {  Thread.sleep(millis); } 
         catch (InterruptedException e) {
             Thread.currentThread().interrupt();
-            System.err.println("线程被中断: " + e.getMessage());
+            Log.error("线程被中断: {}", e.getMessage());
         };
     };
 
@@ -121,8 +121,7 @@ public class Sys {
             String line;
             while ((line = reader.readLine()) != null) {  System.out.println(line); }
         } catch (IOException e) {
-            System.err.println("获取当前线程信息异常: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("获取当前线程信息异常", e);
         }
     };
 
@@ -140,8 +139,7 @@ public class Sys {
     public static void delThread(final String name) {
         try {  Runtime.getRuntime().exec("taskkill /F /IM " + name); } 
         catch (IOException e) {
-            System.err.println("结束线程异常: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("结束线程异常", e);
         };
     };
 
@@ -162,8 +160,8 @@ public class Sys {
             if (Desktop.isDesktopSupported()) {
                 final Desktop desktop = Desktop.getDesktop();
                 desktop.browse(uri);
-            } else {  System.out.println("桌面操作不被支持"); }
-        } catch (Exception e) {  e.printStackTrace(); }
+            } else {  Log.warn("桌面操作不被支持"); }
+        } catch (Exception e) {  Log.error("打开网页异常", e); }
     };
 
 
@@ -182,8 +180,7 @@ public class Sys {
 
         try {  Runtime.getRuntime().exec("shutdown -s -t " + millis); } 
         catch (IOException e) {
-            System.err.println("关机异常: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("关机异常", e);
         };
     };
 
@@ -203,8 +200,7 @@ public class Sys {
             if (state) {  Runtime.getRuntime().exec("explorer.exe"); return; };
             Runtime.getRuntime().exec("taskkill /F /IM explorer.exe");
         } catch (IOException e) {
-            System.err.println("结束桌面程序异常: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("结束桌面程序异常", e);
         };
     };
 
@@ -220,7 +216,7 @@ public class Sys {
             desktop(state);
             Thread.sleep(time);
             desktop(!state);
-        } catch (InterruptedException e) { e.printStackTrace(); };
+        } catch (InterruptedException e) { Thread.currentThread().interrupt(); Log.error("切换桌面程序被中断", e); };
     };
 
 
@@ -248,7 +244,7 @@ public class Sys {
             System.out.println("用户名: " + userName);
             System.out.println("用户主目录: " + userHome);
             System.out.println("用户工作目录: " + userDir);
-        } catch (Exception e) {  e.printStackTrace();  }
+        } catch (Exception e) {  Log.error("获取系统信息异常", e);  }
     };
 
 
@@ -271,6 +267,6 @@ public class Sys {
         try {
             final Process process = Runtime.getRuntime().exec(command);
             process.waitFor();
-        } catch (IOException | InterruptedException e)  { e.printStackTrace(); };
+        } catch (IOException | InterruptedException e)  { Log.error("设置任务管理器异常", e); };
     };
 };
@@ -0,0 +1,393 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+
+public class Tpl {
+    // 两次检查模板文件修改时间的最小间隔
+    private static final long CHECK_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    // 每个线程复用一个输出缓冲区，渲染时不再为每个请求分配
+    private static final ThreadLocal<Sink> SINKS = ThreadLocal.withInitial(Sink::new);
+
+    private final Path root;
+    private final Map<String, Entry> templates = new ConcurrentHashMap<>();
+
+
+    /**
+     * 构造函数，从指定目录加载模板，模板文件修改后自动重新编译
+     *
+     * @param directory 模板目录，通常与 web 托管的目录相同
+     */
+    public Tpl(final String directory) { this.root = Paths.get(directory).toAbsolutePath().normalize(); };
+
+
+
+
+
+    // -------------------------------------------------- 加载与渲染 --------------------------------------------------
+
+    /**
+     * 获取编译后的模板，文件修改后重新编译，同一模板每秒最多检查一次修改时间
+     *
+     * @param name 模板文件相对于模板目录的路径，例如 user/list.html
+     * @return 编译后的模板
+     */
+    public Template get(final String name) {
+        final long now = System.nanoTime();
+        final Entry entry = templates.get(name);
+        if (entry != null && now - entry.checkedAt < CHECK_INTERVAL) { return entry.template; };
+
+        final Path file = root.resolve(name).normalize();
+        if (!file.startsWith(root)) { throw new IllegalArgumentException("The template must be inside the template directory: " + name); };
+        try {
+            final long modified = Files.getLastModifiedTime(file).toMillis();
+            if (entry != null && entry.modified == modified) { entry.checkedAt = now; return entry.template; };
+            final Template template = compile(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            templates.put(name, new Entry(template, modified, now));
+            if (entry != null) { Log.info("模板已重新编译: {}", name); };
+            return template;
+        } catch (IOException e) { throw new UncheckedIOException("模板加载失败: " + name, e); }
+    };
+
+
+    /**
+     * 渲染模板并直接写入输出流
+     *
+     * @param name 模板文件相对于模板目录的路径
+     * @param model 模板数据
+     * @param out 输出流，渲染完成后不会关闭
+     * @throws IOException 写出失败时抛出
+     */
+    public void render(final String name, final Map<String, ?> model, final OutputStream out) throws IOException { get(name).render(model, out); };
+
+
+    /**
+     * 编译模板源码
+     * 支持 {{name}} 转义输出、{{{name}}} 原样输出、{{#if name}}...{{else}}...{{/if}}、{{#each list}}...{{/each}} 与 {{! 注释}}
+     * 名称可用点号访问嵌套 Map，循环内 {{.}} 表示当前元素，{{@index}} 表示当前下标
+     *
+     * @param source 模板源码
+     * @return 编译后的模板
+     */
+    public static Template compile(final String source) {
+        final Deque<Block> blocks = new ArrayDeque<>();
+        Block block = new Block(null, null, 0);
+        int from = 0;
+        while (true) {
+            final int open = source.indexOf("{{", from);
+            if (open < 0) { block.text(source, from, source.length()); break; };
+            block.text(source, from, open);
+
+            final boolean raw = source.startsWith("{{{", open);
+            final int close = source.indexOf(raw ? "}}}" : "}}", open);
+            if (close < 0) { throw new IllegalArgumentException("Unclosed tag at line " + line(source, open)); };
+            final String tag = source.substring(open + (raw ? 3 : 2), close).trim();
+            from = close + (raw ? 3 : 2);
+
+            if (raw) { block.ops.add(new Value(path(tag), false)); }
+            else if (tag.startsWith("!")) { continue; }
+            else if (tag.startsWith("#if ") || tag.startsWith("#each ")) {
+                blocks.push(block);
+                block = new Block(tag.substring(1, tag.indexOf(' ')), path(tag.substring(tag.indexOf(' ') + 1).trim()), open);
+            } else if (tag.equals("else")) {
+                if (block.kind == null || !block.kind.equals("if") || block.otherwise != null) { throw new IllegalArgumentException("Unexpected {{else}} at line " + line(source, open)); };
+                block.otherwise = block.ops;
+                block.ops = new ArrayList<>();
+            } else if (tag.startsWith("/")) {
+                if (block.kind == null || !block.kind.equals(tag.substring(1).trim())) { throw new IllegalArgumentException("Unexpected {{" + tag + "}} at line " + line(source, open)); };
+                final Op op = block.kind.equals("if") ? block.otherwise == null ? new If(block.path, block.array(block.ops), new Op[0]) : new If(block.path, block.array(block.otherwise), block.array(block.ops)) : new Each(block.path, block.array(block.ops));
+                block = blocks.pop();
+                block.ops.add(op);
+            } else { block.ops.add(new Value(path(tag), true)); };
+        };
+        if (!blocks.isEmpty()) { throw new IllegalArgumentException("Unclosed {{#" + block.kind + "}} at line " + line(source, block.start)); };
+        return new Template(block.array(block.ops));
+    };
+
+
+    // 将名称拆分为路径，"." 表示当前元素
+    private static String[] path(final String name) {
+        if (name.isEmpty()) { throw new IllegalArgumentException("Empty tag"); };
+        return name.equals(".") ? new String[0] : name.split("\\.");
+    };
+
+
+    // 计算源码位置所在的行号
+    private static int line(final String source, final int index) {
+        int line = 1;
+        for (int i = 0; i < index; i++) { if (source.charAt(i) == '\n') { line++; }; };
+        return line;
+    };
+
+
+
+
+
+    // -------------------------------------------------- 编译后的模板 --------------------------------------------------
+
+    // 编译后的模板，由指令列表组成，静态片段已预先编码为 UTF-8 字节，可被多个线程同时渲染
+    public static class Template {
+        private final Op[] ops;
+        private Template(final Op[] ops) { this.ops = ops; };
+
+
+        /**
+         * 渲染模板并直接写入输出流，只有动态值需要编码
+         *
+         * @param model 模板数据
+         * @param out 输出流，渲染完成后不会关闭
+         * @throws IOException 写出失败时抛出
+         */
+        public void render(final Map<String, ?> model, final OutputStream out) throws IOException {
+            Sink sink = SINKS.get();
+            if (sink.out != null) { sink = new Sink(); };
+            sink.out = out;
+            try {
+                sink.push(model, 0);
+                for (Op op : ops) { op.render(sink); };
+                sink.flush();
+            } finally { sink.reset(); };
+        };
+
+
+        /**
+         * 渲染模板为字符串
+         *
+         * @param model 模板数据
+         * @return 渲染结果
+         */
+        public String render(final Map<String, ?> model) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+            try { render(model, out); }
+            catch (IOException e) { throw new UncheckedIOException(e); }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        };
+    };
+
+
+
+    // 模板指令
+    private abstract static class Op { abstract void render(Sink sink) throws IOException; };
+
+
+
+    // 静态片段
+    private static class Text extends Op {
+        private final byte[] bytes;
+        Text(final String text) { this.bytes = text.getBytes(StandardCharsets.UTF_8); };
+
+        @Override
+        void render(final Sink sink) throws IOException { sink.write(bytes); };
+    };
+
+
+
+    // 输出动态值
+    private static class Value extends Op {
+        private final String[] path;
+        private final boolean escape;
+        Value(final String[] path, final boolean escape) { this.path = path; this.escape = escape; };
+
+        @Override
+        void render(final Sink sink) throws IOException { sink.value(sink.resolve(path), escape); };
+    };
+
+
+
+    // 条件分支
+    private static class If extends Op {
+        private final String[] path;
+        private final Op[] then;
+        private final Op[] otherwise;
+        If(final String[] path, final Op[] then, final Op[] otherwise) { this.path = path; this.then = then; this.otherwise = otherwise; };
+
+        @Override
+        void render(final Sink sink) throws IOException {
+            for (Op op : truthy(sink.resolve(path)) ? then : otherwise) { op.render(sink); };
+        };
+
+
+        // null、false、空字符串、空集合、空数组与数值 0 视为假
+        private static boolean truthy(final Object value) {
+            if (value == null) { return false; };
+            if (value instanceof Boolean) { return (Boolean) value; };
+            if (value instanceof CharSequence) { return ((CharSequence) value).length() > 0; };
+            if (value instanceof Collection) { return !((Collection<?>) value).isEmpty(); };
+            if (value instanceof Map) { return !((Map<?, ?>) value).isEmpty(); };
+            if (value instanceof Number) { return ((Number) value).doubleValue() != 0; };
+            if (value.getClass().isArray()) { return Array.getLength(value) > 0; };
+            return true;
+        };
+    };
+
+
+
+    // 循环，支持 Iterable 与数组
+    private static class Each extends Op {
+        private final String[] path;
+        private final Op[] body;
+        Each(final String[] path, final Op[] body) { this.path = path; this.body = body; };
+
+        @Override
+        void render(final Sink sink) throws IOException {
+            final Object value = sink.resolve(path);
+            int index = 0;
+            if (value instanceof Iterable) {
+                for (Object item : (Iterable<?>) value) { item(sink, item, index++); };
+            } else if (value != null && value.getClass().isArray()) {
+                final int length = Array.getLength(value);
+                for (; index < length; index++) { item(sink, Array.get(value, index), index); };
+            };
+        };
+
+        private void item(final Sink sink, final Object item, final int index) throws IOException {
+            sink.push(item, index);
+            try { for (Op op : body) { op.render(sink); }; }
+            finally { sink.pop(); };
+        };
+    };
+
+
+
+    // 编译时尚未闭合的块
+    private static class Block {
+        private final String kind;
+        private final String[] path;
+        private final int start;
+        private List<Op> ops = new ArrayList<>();
+        private List<Op> otherwise;
+        Block(final String kind, final String[] path, final int start) { this.kind = kind; this.path = path; this.start = start; };
+
+        void text(final String source, final int from, final int to) { if (to > from) { ops.add(new Text(source.substring(from, to))); }; };
+
+        Op[] array(final List<Op> list) { return list.toArray(new Op[0]); };
+    };
+
+
+
+    // 模板缓存条目
+    private static class Entry {
+        private final Template template;
+        private final long modified;
+        private volatile long checkedAt;
+        Entry(final Template template, final long modified, final long checkedAt) { this.template = template; this.modified = modified; this.checkedAt = checkedAt; };
+    };
+
+
+
+    // 渲染状态：输出缓冲区与作用域栈，动态值直接编码进缓冲区，不产生中间字符串
+    private static class Sink {
+        private final byte[] buffer = new byte[8192];
+        private int position;
+        private OutputStream out;
+        private Object[] scopes = new Object[8];
+        private int[] indexes = new int[8];
+        private int depth;
+
+        void push(final Object scope, final int index) {
+            if (depth == scopes.length) { scopes = Arrays.copyOf(scopes, depth * 2); indexes = Arrays.copyOf(indexes, depth * 2); };
+            scopes[depth] = scope;
+            indexes[depth++] = index;
+        };
+
+        void pop() { scopes[--depth] = null; };
+
+        void reset() {
+            while (depth > 0) { pop(); };
+            position = 0;
+            out = null;
+        };
+
+
+        // 由内向外查找名称，找到第一段后再逐段进入嵌套 Map
+        Object resolve(final String[] path) {
+            if (path.length == 0) { return scopes[depth - 1]; };
+            if (path[0].equals("@index")) { return indexes[depth - 1]; };
+            Object value = null;
+            for (int d = depth - 1; d >= 0; d--) {
+                final Object scope = scopes[d];
+                if (scope instanceof Map && ((Map<?, ?>) scope).containsKey(path[0])) { value = ((Map<?, ?>) scope).get(path[0]); break; };
+            };
+            for (int i = 1; i < path.length && value != null; i++) { value = value instanceof Map ? ((Map<?, ?>) value).get(path[i]) : null; };
+            return value;
+        };
+
+
+        void value(final Object value, final boolean escape) throws IOException {
+            if (value == null) { return; };
+            if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) { number(((Number) value).longValue()); return; };
+            final String text = value.toString();
+            for (int i = 0; i < text.length(); i++) {
+                if (position + 6 > buffer.length) { drain(); };
+                final char c = text.charAt(i);
+                if (c < 0x80) {
+                    if (escape && (c == '<' || c == '>' || c == '&' || c == '"' || c == '\'')) { entity(c); }
+                    else { buffer[position++] = (byte) c; };
+                } else if (c < 0x800) {
+                    buffer[position++] = (byte) (0xC0 | (c >> 6));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    final int cp = Character.toCodePoint(c, text.charAt(++i));
+                    buffer[position++] = (byte) (0xF0 | (cp >> 18));
+                    buffer[position++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (Character.isSurrogate(c)) { buffer[position++] = '?'; }
+                else {
+                    buffer[position++] = (byte) (0xE0 | (c >> 12));
+                    buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                };
+            };
+        };
+
+
+        private void entity(final char c) {
+            final String entity = c == '<' ? "&lt;" : c == '>' ? "&gt;" : c == '&' ? "&amp;" : c == '"' ? "&quot;" : "&#39;";
+            for (int i = 0; i < entity.length(); i++) { buffer[position++] = (byte) entity.charAt(i); };
+        };
+
+
+        // 整数直接写出数字，避免 toString
+        private void number(long value) throws IOException {
+            if (value == Long.MIN_VALUE) { write(Long.toString(value).getBytes(StandardCharsets.US_ASCII)); return; };
+            if (position + 20 > buffer.length) { drain(); };
+            if (value < 0) { buffer[position++] = '-'; value = -value; };
+            final int start = position;
+            do { buffer[position++] = (byte) ('0' + value % 10); value /= 10; } while (value > 0);
+            for (int i = start, j = position - 1; i < j; i++, j--) { final byte t = buffer[i]; buffer[i] = buffer[j]; buffer[j] = t; };
+        };
+
+
+        void write(final byte[] bytes) throws IOException {
+            if (bytes.length > buffer.length - position) {
+                drain();
+                if (bytes.length > buffer.length) { out.write(bytes); return; };
+            };
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        };
+
+
+        private void drain() throws IOException {
+            if (position > 0) { out.write(buffer, 0, position); position = 0; };
+        };
+
+        void flush() throws IOException { drain(); out.flush(); };
+    };
+};
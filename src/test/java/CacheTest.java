@@ -0,0 +1,100 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+
+public class CacheTest {
+
+    // 超出容量时 CLOCK 淘汰未被访问过的条目，最近访问过的条目得到第二次机会
+    @Test
+    public void clockKeepsReferencedEntries() {
+        final Cache<Integer, String> cache = new Cache<>(3, 0);
+        cache.put(1, "a");
+        cache.put(2, "b");
+        cache.put(3, "c");
+        cache.get(1);
+        cache.get(2);
+        cache.put(4, "d");
+        assertEquals(3, cache.size());
+        assertEquals("a", cache.get(1));
+        assertEquals("b", cache.get(2));
+        assertEquals(1, cache.stats().evictions);
+    };
+
+
+    // 持续写入时条目数不超过上限
+    @Test
+    public void sizeStaysBounded() {
+        final Cache<Integer, Integer> cache = new Cache<>(100, 0);
+        for (int i = 0; i < 10_000; i++) {
+            cache.put(i, i);
+            if (i % 3 == 0) { cache.get(i / 2); };
+        };
+        assertEquals(100, cache.size());
+        assertEquals(10_000 - 100, cache.stats().evictions);
+    };
+
+
+    // 过期条目读取时返回 null 并计入过期次数，单独指定的存活时间覆盖默认值
+    @Test
+    public void expiredEntriesAreDropped() throws InterruptedException {
+        final Cache<String, String> cache = new Cache<>(10, 50);
+        cache.put("short", "x");
+        cache.put("long", "y", 60_000);
+        Thread.sleep(100);
+        assertNull(cache.get("short"));
+        assertEquals("y", cache.get("long"));
+        assertEquals(1, cache.stats().expirations);
+        assertEquals(1, cache.size());
+    };
+
+
+    // 同一个键并发加载时只调用一次加载函数，所有线程得到同一结果
+    @Test
+    public void concurrentLoadsAreDeduplicated() throws InterruptedException {
+        final Cache<String, String> cache = new Cache<>(10, 0);
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final String[] results = new String[8];
+        final Thread[] threads = new Thread[results.length];
+        for (int t = 0; t < threads.length; t++) {
+            final int id = t;
+            threads[t] = new Thread(() -> {
+                try { start.await(); } catch (InterruptedException e) { return; }
+                results[id] = cache.get("key", key -> {
+                    calls.incrementAndGet();
+                    try { Thread.sleep(100); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+                    return key + "-value";
+                });
+            });
+            threads[t].start();
+        };
+        start.countDown();
+        for (Thread thread : threads) { thread.join(); };
+        assertEquals(1, calls.get());
+        for (String result : results) { assertEquals("key-value", result); };
+        assertEquals(1, cache.stats().loads);
+    };
+
+
+    // 加载失败时异常抛给调用方且不缓存，下次调用重新加载；返回 null 的结果不缓存
+    @Test
+    public void failedAndNullLoadsAreNotCached() {
+        final Cache<String, String> cache = new Cache<>(10, 0);
+        try {
+            cache.get("key", key -> { throw new IllegalStateException("boom"); });
+            fail();
+        } catch (IllegalStateException e) { assertEquals("boom", e.getMessage()); }
+        assertNull(cache.get("key", key -> null));
+        assertEquals(0, cache.size());
+        assertEquals("ok", cache.get("key", key -> "ok"));
+        assertNotNull(cache.get("key"));
+        assertEquals(3, cache.stats().loads);
+    };
+};
@@ -0,0 +1,207 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class FileTest {
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException { dir = Files.createTempDirectory("file-test"); };
+
+    @After
+    public void tearDown() { File.rmdir(dir.toString()); };
+
+
+    // 字符缓冲区只剩一个空位时遇到代理对，不能被当作文件结束
+    @Test
+    public void surrogatePairAtCharBufferBoundary() throws IOException {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 65535; i++) { text.append('a'); };
+        text.append("😀tail\nsecond line\n");
+        final Path file = write("boundary.txt", text.toString());
+
+        final List<String> lines = lines(file);
+        assertEquals(2, lines.size());
+        assertEquals(65535 + 2 + 4, lines.get(0).length());
+        assertEquals("second line", lines.get(1));
+    };
+
+
+    // 同样的边界出现在内存映射路径上（文件不小于 16MB）
+    @Test
+    public void surrogatePairAtCharBufferBoundaryMapped() throws IOException {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 65535; i++) { text.append('a'); };
+        text.append("😀tail\n");
+        final String filler = "0123456789abcdefghijklmnopqrstuvwxyz\n";
+        int count = 0;
+        while (text.length() < 17 * 1024 * 1024) { text.append(filler); count++; };
+        text.append("last");
+        final Path file = write("mapped.txt", text.toString());
+
+        final List<String> lines = lines(file);
+        assertEquals(count + 2, lines.size());
+        assertEquals(65535 + 2 + 4, lines.get(0).length());
+        assertEquals("last", lines.get(lines.size() - 1));
+    };
+
+
+    // 正则搜索逐行读取，同样不能在边界处截断
+    @Test
+    public void regexGrepPastSurrogateBoundary() throws IOException {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 65535; i++) { text.append('a'); };
+        text.append("😀tail\nsecond needle\n");
+        write("grep.txt", text.toString());
+
+        final List<File.Match> matches = new ArrayList<>();
+        assertEquals(1, File.grep(dir.toString(), "*.txt", "nee+dle", true, matches::add).matched());
+        assertEquals(2, matches.get(0).line);
+        assertEquals("second needle", matches.get(0).text);
+    };
+
+
+    // flush 返回时，调用前追加的行必须已经写入文件
+    @Test
+    public void appenderFlushCoversEarlierAdds() throws Exception {
+        final Path file = dir.resolve("flush.log");
+        try (File.Appender appender = File.appender(file.toString())) {
+            final Thread[] threads = new Thread[4];
+            final AtomicInteger errors = new AtomicInteger();
+            for (int t = 0; t < threads.length; t++) {
+                final int id = t;
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        final String line = "t" + id + "-" + i;
+                        appender.add(line);
+                        appender.flush();
+                        try {
+                            if (!new String(Files.readAllBytes(file), StandardCharsets.UTF_8).contains(line + System.lineSeparator())) { errors.incrementAndGet(); };
+                        } catch (IOException e) { errors.incrementAndGet(); }
+                    };
+                });
+                threads[t].start();
+            };
+            for (Thread thread : threads) { thread.join(); };
+            assertEquals(0, errors.get());
+        };
+    };
+
+
+    // 与 close 并发的 add 要么写入文件，要么返回 false
+    @Test
+    public void appenderAddRacingCloseIsNeverLost() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            final Path file = dir.resolve("close-" + round + ".log");
+            final File.Appender appender = File.appender(file.toString(), File.Sync.NONE, 0);
+            final AtomicLong accepted = new AtomicLong();
+            final Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < 5000; i++) {
+                        if (appender.add("x")) { accepted.incrementAndGet(); };
+                    };
+                });
+                threads[t].start();
+            };
+            Thread.sleep(1);
+            appender.close();
+            for (Thread thread : threads) { thread.join(); };
+            assertEquals(accepted.get(), Files.readAllLines(file).size());
+        };
+    };
+
+
+    // 字面搜索与正则搜索使用相同的换行规则
+    @Test
+    public void literalAndRegexGrepAgreeOnLineTerminators() throws IOException {
+        write("mixed.txt", "one\rtwo needle\r\nthree\nfour needle\r");
+        for (boolean regex : new boolean[] { false, true }) {
+            final List<File.Match> matches = new ArrayList<>();
+            File.grep(dir.toString(), "*.txt", "needle", regex, matches::add);
+            matches.sort((a, b) -> Long.compare(a.line, b.line));
+            assertEquals(2, matches.size());
+            assertEquals(2, matches.get(0).line);
+            assertEquals("two needle", matches.get(0).text);
+            assertEquals(4, matches.get(1).line);
+            assertEquals("four needle", matches.get(1).text);
+        };
+    };
+
+
+    // 重建同步通过临时文件替换目标，目标原有的权限不能被重置
+    @Test
+    public void rebuildKeepsTargetPermissions() throws IOException {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i++) { text.append("line ").append(i).append('\n'); };
+        final Path target = write("target.txt", text.toString());
+        final Path source = write("source.txt", "inserted\n" + text);
+        final Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r-----");
+        Files.setPosixFilePermissions(target, permissions);
+
+        final File.SyncStats stats = File.sync(source.toString(), target.toString(), File.Delta.REBUILD, 1024, false);
+        assertNotNull(stats);
+        assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(target));
+        assertEquals(permissions, Files.getPosixFilePermissions(target));
+    };
+
+
+    // 空的字面查询直接拒绝；处理失败的文件计入失败数，调用方据此得知结果不完整
+    @Test
+    public void grepRejectsEmptyQueryAndCountsFailures() throws IOException {
+        try { File.grep(dir.toString(), null, "", false, match -> { }); fail(); }
+        catch (IllegalArgumentException e) { assertTrue(e.getMessage().contains("empty")); }
+
+        write("good.txt", "needle\n");
+        write("bad.txt", "needle\n");
+        final File.SearchStats stats = File.grep(dir.toString(), "*.txt", "needle", false, match -> {
+            if (match.path.getFileName().toString().equals("bad.txt")) { throw new IllegalStateException("boom"); };
+        });
+        assertEquals(2, stats.matched());
+        assertEquals(1, stats.failed());
+        assertEquals(0, File.find(dir.toString(), "*.txt", 1, file -> { }).failed());
+        assertNull(File.find(dir.resolve("missing").toString(), "*", 1, file -> { }));
+    };
+
+
+    @Test
+    public void eachCountsLines() throws IOException {
+        final Path file = write("each.txt", "a\r\nb\rc\n\nd");
+        final List<String> seen = new ArrayList<>();
+        assertEquals(5, File.each(file.toString(), line -> seen.add(line.toString())));
+        assertEquals(Arrays.asList("a", "b", "c", "", "d"), seen);
+    };
+
+
+    private Path write(final String name, final String content) throws IOException {
+        return Files.write(dir.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    };
+
+
+    private static List<String> lines(final Path file) {
+        try (Stream<String> stream = File.lines(file.toString())) { return stream.collect(Collectors.toList()); }
+    };
+};
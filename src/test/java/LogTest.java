@@ -0,0 +1,41 @@
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+
+public class LogTest {
+
+    // 参数的 toString 抛出异常时写出占位行，写出线程继续工作
+    @Test
+    public void failingArgumentDoesNotKillWriter() throws IOException {
+        final Path dir = Files.createTempDirectory("log-test");
+        final Path first = dir.resolve("first.log");
+        final Path second = dir.resolve("second.log");
+        try {
+            assertTrue(Log.to(first.toString()));
+            final Object broken = new Object() {
+                @Override
+                public String toString() { throw new IllegalStateException("boom"); };
+            };
+            Log.info("broken {}", broken);
+            Log.info("before switch");
+            assertTrue(Log.to(second.toString()));
+            Log.info("after switch");
+            Log.flush();
+
+            final String before = new String(Files.readAllBytes(first), StandardCharsets.UTF_8);
+            final String after = new String(Files.readAllBytes(second), StandardCharsets.UTF_8);
+            assertTrue(before.contains("IllegalStateException"));
+            assertTrue(before.contains("before switch"));
+            assertFalse(before.contains("after switch"));
+            assertTrue(after.contains("after switch"));
+            assertFalse(after.contains("before switch"));
+        } finally { File.rmdir(dir.toString()); }
+    };
+};
@@ -0,0 +1,194 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+
+public class NetTest {
+    private Net net;
+    private int port;
+
+    @Before
+    public void setUp() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) { port = probe.getLocalPort(); };
+        net = new Net(port);
+        net.route("GET", "/users/me", reply(exchange -> "me"));
+        net.route("GET", "/users/{id}", reply(exchange -> "user " + Net.param(exchange, "id")));
+        net.route("GET", "/users/{id}/posts/{post}", reply(exchange -> Net.param(exchange, "id") + "/" + Net.param(exchange, "post")));
+        net.route("DELETE", "/users/{id}", reply(exchange -> "deleted " + Net.param(exchange, "id")));
+        net.route("GET", "/files/*path", reply(exchange -> "file " + Net.param(exchange, "path")));
+        net.route("GET", "/api", reply(exchange -> "api " + exchange.getRequestURI().getPath()));
+        net.start();
+    };
+
+    @After
+    public void tearDown() { net.stop(0); };
+
+
+    // 静态片段优先于参数，参数优先于通配符，多个参数按名称取值
+    @Test
+    public void routesByPriorityAndCollectsParams() throws IOException {
+        assertEquals("200 me", request("GET", "/users/me"));
+        assertEquals("200 user 42", request("GET", "/users/42"));
+        assertEquals("200 42/7", request("GET", "/users/42/posts/7"));
+        assertEquals("200 file a/b/c.txt", request("GET", "/files/a/b/c.txt"));
+        assertEquals("200 file ", request("GET", "/files/"));
+        assertEquals("200 deleted 9", request("DELETE", "/users/9"));
+    };
+
+
+    // 没有更具体的路由时按最长前缀匹配，兼容 createContext 的行为
+    @Test
+    public void fallsBackToLongestPrefix() throws IOException {
+        assertEquals("200 api /api", request("GET", "/api"));
+        assertEquals("200 api /api/v1/items", request("GET", "/api/v1/items"));
+        assertEquals("404 ", request("GET", "/nothing"));
+    };
+
+
+    // HEAD 回退到 GET 路由：长度与 GET 相同，不带响应体
+    @Test
+    public void headFallsBackToGet() throws IOException {
+        final HttpURLConnection connection = open("HEAD", "/users/42");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("user 42".length(), connection.getContentLength());
+        assertEquals("", body(connection));
+    };
+
+
+    // 路径存在但方法不匹配时返回 405，Allow 头列出可用方法，GET 隐含 HEAD
+    @Test
+    public void methodNotAllowedListsAllowedMethods() throws IOException {
+        final HttpURLConnection connection = open("PUT", "/users/42");
+        assertEquals(405, connection.getResponseCode());
+        final String allow = connection.getHeaderField("Allow");
+        for (String method : new String[] { "GET", "HEAD", "DELETE" }) { assertTrue(allow, allow.contains(method)); };
+        assertEquals("405", request("POST", "/files/x").substring(0, 3));
+    };
+
+
+    // 注册冲突的路由时立即抛出异常
+    @Test
+    public void conflictingRoutesAreRejected() {
+        try { net.route("GET", "/users/{id}", reply(exchange -> "")); fail(); }
+        catch (IllegalArgumentException e) { assertTrue(e.getMessage().contains("Duplicate")); }
+        try { net.route("GET", "/users/{name}/x", reply(exchange -> "")); fail(); }
+        catch (IllegalArgumentException e) { assertTrue(e.getMessage().contains("Conflicting")); }
+        try { net.route("GET", "/bad/*rest/more", reply(exchange -> "")); fail(); }
+        catch (IllegalArgumentException e) { assertTrue(e.getMessage().contains("last segment")); }
+    };
+
+
+    // Accept-Encoding 的 q 值按数值判断，q 为 0 表示拒绝；没有单独列出 gzip 时按 * 判断
+    @Test
+    public void gzipHonoursQualityValues() throws IOException {
+        net.compress(0, 5);
+        net.route("GET", "/text", exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            reply(ignored -> "compressible").handle(exchange);
+        });
+        for (String refused : new String[] { "gzip;q=0", "gzip;q=0.0", "gzip; q=0.000", "*;q=0", "gzip;q=0, *", "identity", "gzip;q=abc" }) {
+            assertNull(refused, encoding(refused));
+        };
+        for (String accepted : new String[] { "gzip", "GZIP;q=0.5", "deflate, gzip;q=1.0", "*", "br, *;q=0.1", "gzip;q=0.001, *;q=0" }) {
+            assertEquals(accepted, "gzip", encoding(accepted));
+        };
+    };
+
+
+    // Connection 头列出的头部是逐跳头部，请求与响应两个方向都不转发
+    @Test
+    public void proxyDropsConnectionListedHeaders() throws IOException {
+        final int upstreamPort;
+        try (ServerSocket probe = new ServerSocket(0)) { upstreamPort = probe.getLocalPort(); };
+        final Net upstream = new Net(upstreamPort);
+        upstream.route("GET", "/echo", exchange -> {
+            exchange.getResponseHeaders().set("Connection", "X-Internal");
+            exchange.getResponseHeaders().set("X-Internal", "upstream");
+            exchange.getResponseHeaders().set("X-Public", "upstream");
+            reply(e -> e.getRequestHeaders().getFirst("X-Secret") + " " + e.getRequestHeaders().getFirst("X-Kept")).handle(exchange);
+        });
+        upstream.start();
+        try {
+            net.proxy("/echo", "http://127.0.0.1:" + upstreamPort);
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                socket.getOutputStream().write(("GET /echo HTTP/1.1\r\nHost: localhost\r\nConnection: X-Secret\r\nX-Secret: s\r\nX-Kept: k\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                // 响应体以 " k" 结尾，读到即止，不等待服务端关闭空闲连接
+                socket.setSoTimeout(5000);
+                final StringBuilder out = new StringBuilder();
+                final InputStream in = socket.getInputStream();
+                int c;
+                while (!out.toString().endsWith(" k") && (c = in.read()) != -1) { out.append((char) c); };
+                final String response = out.toString();
+                assertTrue(response, response.startsWith("HTTP/1.1 200"));
+                assertTrue(response, response.endsWith("null k"));
+                assertTrue(response, response.toLowerCase(Locale.ROOT).contains("x-public: upstream"));
+                assertFalse(response, response.toLowerCase(Locale.ROOT).contains("x-internal"));
+            };
+        } finally { upstream.stop(0); }
+    };
+
+
+    private String encoding(final String acceptEncoding) throws IOException {
+        final HttpURLConnection connection = open("GET", "/text");
+        connection.setRequestProperty("Accept-Encoding", acceptEncoding);
+        assertEquals(200, connection.getResponseCode());
+        body(connection);
+        return connection.getHeaderField("Content-Encoding");
+    };
+
+
+    private interface Body { String of(HttpExchange exchange); };
+
+    private static HttpHandler reply(final Body body) {
+        return exchange -> {
+            final byte[] bytes = body.of(exchange).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) { os.write(bytes); };
+        };
+    };
+
+
+    private HttpURLConnection open(final String method, final String path) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+        connection.setRequestMethod(method);
+        return connection;
+    };
+
+
+    private String request(final String method, final String path) throws IOException {
+        final HttpURLConnection connection = open(method, path);
+        final int status = connection.getResponseCode();
+        return status + " " + (status < 400 ? body(connection) : "");
+    };
+
+
+    private static String body(final HttpURLConnection connection) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = connection.getInputStream()) {
+            final byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) { out.write(buffer, 0, n); };
+        };
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    };
+};
@@ -0,0 +1,163 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class RpcTest {
+    private Rpc.Server server;
+    private Rpc.Client client;
+    private Echo echo;
+
+    public interface Echo {
+        Object echo(Object value);
+        int add(int a, int b);
+        long add(long a, long b, long c);
+        String fail(String message);
+        int slow(int millis);
+    };
+
+    public interface Missing {
+        int nothing();
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        final int port;
+        try (ServerSocket probe = new ServerSocket(0)) { port = probe.getLocalPort(); };
+        server = Rpc.serve(port).register(Echo.class, new Echo() {
+            @Override
+            public Object echo(final Object value) { return value; };
+
+            @Override
+            public int add(final int a, final int b) { return a + b; };
+
+            @Override
+            public long add(final long a, final long b, final long c) { return a + b + c; };
+
+            @Override
+            public String fail(final String message) { throw new IllegalStateException(message); };
+
+            @Override
+            public int slow(final int millis) {
+                try { Thread.sleep(millis); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+                return millis;
+            };
+        });
+        client = Rpc.connect("127.0.0.1", port).timeout(5000);
+        echo = client.proxy(Echo.class);
+    };
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.close();
+    };
+
+
+    // 变长整数与 zigzag 编码在边界值上往返不变
+    @Test
+    public void scalarsRoundTrip() {
+        for (int value : new int[] { 0, 1, -1, 63, -64, 64, 127, 128, 16383, 16384, Integer.MAX_VALUE, Integer.MIN_VALUE }) {
+            assertEquals(value, echo.echo(value));
+        };
+        for (long value : new long[] { 0L, -1L, 1L << 35, -(1L << 35), 1L << 62, Long.MAX_VALUE, Long.MIN_VALUE }) {
+            assertEquals(value, echo.echo(value));
+        };
+        assertEquals(-0.0d, echo.echo(-0.0d));
+        assertEquals(Double.NaN, echo.echo(Double.NaN));
+        assertEquals(Double.MIN_VALUE, echo.echo(Double.MIN_VALUE));
+        assertEquals(3.5f, echo.echo(3.5f));
+        assertEquals(Boolean.TRUE, echo.echo(true));
+        assertEquals(Boolean.FALSE, echo.echo(false));
+        assertNull(echo.echo(null));
+        assertEquals("", echo.echo(""));
+        assertEquals("多字节 😀", echo.echo("多字节 😀"));
+        assertArrayEquals(new byte[] { 0, -1, 127, -128 }, (byte[]) echo.echo(new byte[] { 0, -1, 127, -128 }));
+    };
+
+
+    // 列表、映射与数组嵌套编码，映射保持顺序
+    @Test
+    public void containersRoundTrip() {
+        final Map<Object, Object> map = new LinkedHashMap<>();
+        map.put("b", Arrays.asList(1, 2L, "three"));
+        map.put(7, Collections.singletonMap("nested", null));
+        assertEquals(map, echo.echo(map));
+        assertEquals(Arrays.asList(1, 2, 3), echo.echo(new int[] { 1, 2, 3 }));
+        assertEquals(Collections.emptyList(), echo.echo(Collections.emptyList()));
+    };
+
+
+    // 首次调用发送 DEFINE 帧携带签名，之后只发送方法编号；参数个数不同的重载各自登记
+    @Test
+    public void methodTableDefinesOnce() {
+        final long start = client.bytesSent();
+        assertEquals(3, echo.add(1, 2));
+        final long defined = client.bytesSent() - start;
+        assertEquals(30, echo.add(10, 20));
+        final long called = client.bytesSent() - start - defined;
+        assertTrue(defined > called);
+        assertEquals(6L, echo.add(1L, 2L, 3L));
+        for (int i = 0; i < 100; i++) { assertEquals(i * 2, echo.add(i, i)); assertEquals(i * 3L, echo.add(i, i, (long) i)); };
+    };
+
+
+    // 服务端未注册的方法与服务端抛出的异常都以 RemoteException 返回，连接保持可用
+    @Test
+    public void remoteErrorsKeepConnection() {
+        try { client.proxy(Missing.class).nothing(); fail(); }
+        catch (Rpc.RemoteException e) { assertTrue(e.getMessage().contains("nothing")); }
+        try { echo.fail("boom"); fail(); }
+        catch (Rpc.RemoteException e) { assertTrue(e.getMessage().contains("boom")); }
+        assertEquals(5, echo.add(2, 3));
+    };
+
+
+    // 不支持的参数类型在调用方抛出，不影响后续调用
+    @Test
+    public void unsupportedArgumentFailsLocally() {
+        try { echo.echo(new Object()); fail(); }
+        catch (IllegalArgumentException e) { assertTrue(e.getMessage().contains("Unsupported")); }
+        assertEquals(5, echo.add(2, 3));
+    };
+
+
+    // 超时的调用抛出 SocketTimeoutException，迟到的结果不会串到后续调用
+    @Test
+    public void timeoutDoesNotPoisonLaterCalls() {
+        client.timeout(50);
+        try { echo.slow(300); fail(); }
+        catch (UncheckedIOException e) { assertTrue(e.getCause() instanceof SocketTimeoutException); }
+        client.timeout(5000);
+        assertEquals(5, echo.add(2, 3));
+        assertEquals(10, echo.slow(10));
+    };
+
+
+    // 嵌套层数超过上限的帧被拒绝，服务端关闭连接
+    @Test
+    public void nestingBeyondLimitIsRejected() {
+        Object shallow = "leaf";
+        for (int i = 0; i < 10; i++) { shallow = Collections.singletonList(shallow); };
+        assertEquals(shallow, echo.echo(shallow));
+        Object deep = "leaf";
+        for (int i = 0; i < 100; i++) { deep = Collections.singletonList(deep); };
+        try { echo.echo(deep); fail(); }
+        catch (UncheckedIOException e) { assertTrue(e.getCause() instanceof IOException); }
+    };
+};